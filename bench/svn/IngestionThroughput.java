@@ -0,0 +1,115 @@
+package svn;
+
+import java.io.File;
+
+/**
+ * Compares reading throughput of the memory mapped ingestion path with the reader path. Each path reads the
+ * same access configuration file several times, and the best run of each is reported. Both paths must first
+ * read the same lines of the file, with the same names, or nothing is measured.
+ * <p>
+ * Two things are measured for each path: ingestion alone, where every line is scanned and every name is
+ * interned but nothing is built, and a full parse into users, groups, and repos.
+ * <p>
+ * Usage: <code>java svn.IngestionThroughput &lt;svnaccess.conf&gt; [runs]</code>
+ * @author bsanchin
+ */
+public class IngestionThroughput {
+
+  public static void main(String[] args)
+      throws Exception {
+    if (args.length < 1) {
+      System.out.println("Usage: java svn.IngestionThroughput <svnaccess.conf> [runs]");
+      return;
+    }
+    File file = new File(args[0]);
+    int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+    // Both paths must see the same lines, or their throughput is not comparable.
+    String reader = lines(file, false);
+    String mapped = lines(file, true);
+    if (!reader.equals(mapped)) {
+      throw new IllegalStateException("Ingestion paths read different lines, reader: " + reader + ", mmap: "
+          + mapped);
+    }
+    System.out.println("lines: " + mapped);
+
+    double readerIngest = measure(file, false, false, runs);
+    double mappedIngest = measure(file, true, false, runs);
+    double readerParse = measure(file, false, true, runs);
+    double mappedParse = measure(file, true, true, runs);
+    System.out.println(String.format("ingest reader: %8.1f MB/s", readerIngest));
+    System.out.println(String.format("ingest mmap:   %8.1f MB/s (%.2fx)", mappedIngest, mappedIngest / readerIngest));
+    System.out.println(String.format("parse  reader: %8.1f MB/s", readerParse));
+    System.out.println(String.format("parse  mmap:   %8.1f MB/s (%.2fx)", mappedParse, mappedParse / readerParse));
+  }
+
+  /**
+   * Reads the file once and counts its lines by kind, and the names they have.
+   * @param argFile the access configuration file
+   * @param argMapped true for the memory mapped path
+   * @return the counts
+   * @throws Exception if it fails to read the file
+   */
+  private static String lines(File argFile, boolean argMapped)
+      throws Exception {
+    SvnAccessAuditor proc = new SvnAccessAuditor();
+    proc.mapped = argMapped;
+    InternAllState state = new InternAllState();
+    proc.ingest(argFile, 0, argFile.length(), proc.names, state);
+    StringBuilder result = new StringBuilder();
+    for (AuthzLine.Kind kind : AuthzLine.Kind.values()) {
+      result.append(kind.name().toLowerCase()).append(' ').append(state.counts[kind.ordinal()]).append(", ");
+    }
+    return result.append("names ").append(proc.names.size()).toString();
+  }
+
+  /**
+   * Reads the file several times and returns the best throughput.
+   * @param argFile the access configuration file
+   * @param argMapped true for the memory mapped path
+   * @param argParse true for a full parse, false for ingestion alone
+   * @param argRuns number of runs
+   * @return best throughput in MB/s
+   * @throws Exception if it fails to read the file
+   */
+  private static double measure(File argFile, boolean argMapped, boolean argParse, int argRuns)
+      throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < argRuns; i++ ) {
+      SvnAccessAuditor proc = new SvnAccessAuditor();
+      proc.mapped = argMapped;
+      long start = System.nanoTime();
+      if (argParse) {
+        proc.parse(argFile, null);
+      }
+      else {
+        proc.ingest(argFile, 0, argFile.length(), proc.names, new InternAllState());
+      }
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return (argFile.length() / (1024.0 * 1024.0)) / (best / 1e9);
+  }
+
+  /**
+   * A state that interns every name of every line and builds nothing but counts of the lines by kind.
+   * @author bsanchin
+   */
+  static class InternAllState
+      implements IState {
+
+    final long[] counts = new long[AuthzLine.Kind.values().length];
+
+    /** {@inheritDoc} */
+    @Override
+    public void process(AuthzLine line) {
+      counts[line.kind.ordinal()]++ ;
+      if (line.kind == AuthzLine.Kind.KEY_VALUE) {
+        line.key();
+      }
+      while (line.nextMember()) {
+        line.member();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures every stage of the report against synthetic configurations of growing sizes, from 1000 users and
+ * 250 repositories up to 100000 users and 20000 repositories, so that a change of any stage could be compared
+ * with a baseline at every size. Stages are:
+ * <ul>
+ * <li>parse: the access configuration file into users, groups, and repos
+ * <li>closure: groups into their flattened members
+ * <li>matrix: the access matrix, including the closure
+ * <li>access: readable and writable repositories of every user
+ * <li>grouping: repositories with the same users and users with the same repositories
+ * <li>render: the HTML report into a sink, so that the disk is not measured
+ * </ul>
+ * Each stage runs a few times to warm up, and then a few more times, and the median and the best runs are
+ * reported. Configurations are made by {@link SyntheticConfig} with a fixed seed. The largest sizes need a
+ * large heap, such as <code>-Xmx8g</code>.
+ * <p>
+ * Usage:
+ * <code>java svn.ScalingBenchmark [--sizes &lt;users&gt;x&lt;repos&gt;,...] [--runs n] [--warmup n] [--threads n]</code>
+ * @author bsanchin
+ */
+public class ScalingBenchmark {
+
+  static final String DEFAULT_SIZES = "1000x250,10000x2000,50000x10000,100000x20000";
+
+  protected int runs = 5;
+  protected int warmup = 2;
+  protected int threads = 1;
+
+  // Repositories accessed by the users in every run of the access stage, printed once all sizes are measured, so
+  // that the accesses of the stage could not be left out as unused.
+  protected long accessed;
+
+  public static void main(String[] args)
+      throws Exception {
+    ScalingBenchmark benchmark = new ScalingBenchmark();
+    String sizes = DEFAULT_SIZES;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--sizes")) {
+        sizes = args[i + 1];
+      }
+      else if (args[i].equals("--runs")) {
+        benchmark.runs = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("--warmup")) {
+        benchmark.warmup = Integer.parseInt(args[i + 1]);
+      }
+      else if (args[i].equals("--threads")) {
+        benchmark.threads = Integer.parseInt(args[i + 1]);
+      }
+      else {
+        System.out.println("Usage: java svn.ScalingBenchmark [--sizes <users>x<repos>,...] [--runs n] [--warmup n]"
+            + " [--threads n]");
+        return;
+      }
+    }
+
+    System.out.println(String.format("%8s %8s %-10s %12s %12s", "users", "repos", "stage", "median ms", "best ms"));
+    for (String size : sizes.split(",")) {
+      String[] dims = size.trim().split("x");
+      benchmark.run(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+    }
+    System.out.println("accessed repos: " + benchmark.accessed);
+  }
+
+  /**
+   * Measures every stage at a single size. There is a group per 10 users, nested 3 levels deep, and every
+   * repository has a root section and 2 path sections of 3 rules each.
+   * @param argUsers number of users
+   * @param argRepos number of repositories
+   * @throws Exception if a stage fails
+   */
+  protected void run(int argUsers, int argRepos)
+      throws Exception {
+    SyntheticConfig config = new SyntheticConfig();
+    config.users = argUsers;
+    config.groups = Math.max(1, argUsers / 10);
+    config.repos = argRepos;
+    final File file = File.createTempFile("svnaccess", ".conf");
+    file.deleteOnExit();
+    config.write(file);
+
+    final ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+    try {
+      final SvnAccessAuditor proc = new SvnAccessAuditor();
+      proc.parse(file, pool);
+      final AccessMatrix built = new AccessMatrix(proc.users, proc.groups, proc.repos, pool);
+
+      report(argUsers, argRepos, "parse", measure(new Stage() {
+        @Override
+        public void run()
+            throws Exception {
+          SvnAccessAuditor fresh = new SvnAccessAuditor();
+          fresh.parse(file, pool);
+        }
+      }));
+      report(argUsers, argRepos, "closure", measure(new Stage() {
+        @Override
+        public void run() {
+          new GroupClosure(built, pool);
+        }
+      }));
+      report(argUsers, argRepos, "matrix", measure(new Stage() {
+        @Override
+        public void run() {
+          new AccessMatrix(proc.users, proc.groups, proc.repos, pool);
+        }
+      }));
+
+      // Users, groups, and repos belong to the matrix built last.
+      final AccessMatrix matrix = new AccessMatrix(proc.users, proc.groups, proc.repos, pool);
+      report(argUsers, argRepos, "access", measure(new Stage() {
+        @Override
+        public void run() {
+          for (User u : proc.users.values()) {
+            accessed += AccessMatrix.or(matrix.getReadable(u), matrix.getWritable(u)).cardinality();
+          }
+        }
+      }));
+      report(argUsers, argRepos, "grouping", measure(new Stage() {
+        @Override
+        public void run()
+            throws Exception {
+          new HtmlReportGenerator(proc.users, proc.groups, proc.repos, matrix, pool).group();
+        }
+      }));
+      report(argUsers, argRepos, "render", measure(new Stage() {
+        @Override
+        public void run()
+            throws Exception {
+          HtmlReportGenerator generator = new HtmlReportGenerator(proc.users, proc.groups, proc.repos, matrix,
+              pool);
+          generator.render(new Sink(), generator.groupReposAsync(), generator.groupUsersAsync());
+        }
+      }));
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      file.delete();
+    }
+  }
+
+  /**
+   * Runs the stage and returns its times.
+   * @param argStage the stage
+   * @return times of the measured runs in nanoseconds, sorted
+   * @throws Exception if the stage fails
+   */
+  private long[] measure(Stage argStage)
+      throws Exception {
+    for (int i = 0; i < warmup; i++ ) {
+      argStage.run();
+    }
+    long[] times = new long[runs];
+    for (int i = 0; i < runs; i++ ) {
+      long start = System.nanoTime();
+      argStage.run();
+      times[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(times);
+    return times;
+  }
+
+  private static void report(int argUsers, int argRepos, String argStage, long[] argTimes) {
+    System.out.println(String.format("%8d %8d %-10s %12.1f %12.1f", argUsers, argRepos, argStage,
+        argTimes[argTimes.length / 2] / 1e6, argTimes[0] / 1e6));
+  }
+
+  /**
+   * A stage of the report.
+   * @author bsanchin
+   */
+  interface Stage {
+
+    void run()
+        throws Exception;
+  }
+
+  /**
+   * Output that counts chars and keeps nothing.
+   * @author bsanchin
+   */
+  static class Sink
+      implements Appendable {
+
+    protected long length;
+
+    @Override
+    public Appendable append(CharSequence argChars) {
+      length += argChars.length();
+      return this;
+    }
+
+    @Override
+    public Appendable append(CharSequence argChars, int argStart, int argEnd) {
+      length += argEnd - argStart;
+      return this;
+    }
+
+    @Override
+    public Appendable append(char argChar) {
+      length++ ;
+      return this;
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates a synthetic access configuration file of a given size. The same options and seed always make the
+ * same file, so that runs of the benchmarks on different builds see the same workload.
+ * <p>
+ * Groups are laid out in levels: groups of the first level have users only, and groups of every other level
+ * have users and groups of the level below, so that the nesting is as deep as the number of levels. Groups of
+ * a lower level come first, as groups are defined before they are used. Each repository has a root section
+ * and a number of path sections, and each section has a number of rules, mostly on groups, some on users, and
+ * a few on <code>*</code>, <code>$authenticated</code>, or inverted groups.
+ * <p>
+ * Usage:
+ * <code>java svn.SyntheticConfig &lt;out&gt; &lt;users&gt; &lt;groups&gt; &lt;depth&gt; &lt;repos&gt; &lt;paths&gt; &lt;rules&gt; [seed]</code>
+ * @author bsanchin
+ */
+public class SyntheticConfig {
+
+  // Number of users of a group, at most.
+  static final int MAX_GROUP_USERS = 20;
+
+  // Number of sub groups of a nested group, at most.
+  static final int MAX_SUB_GROUPS = 3;
+
+  protected int users = 1000;
+  protected int groups = 100;
+  protected int depth = 3;
+  protected int repos = 250;
+
+  // Number of path sections of a repository, in addition to its root section.
+  protected int paths = 2;
+
+  // Number of rules of a section.
+  protected int rules = 3;
+
+  protected long seed = 1;
+
+  public static void main(String[] args)
+      throws IOException {
+    if (args.length < 7) {
+      System.out.println(
+          "Usage: java svn.SyntheticConfig <out> <users> <groups> <depth> <repos> <paths> <rules> [seed]");
+      return;
+    }
+    SyntheticConfig config = new SyntheticConfig();
+    config.users = Integer.parseInt(args[1]);
+    config.groups = Integer.parseInt(args[2]);
+    config.depth = Integer.parseInt(args[3]);
+    config.repos = Integer.parseInt(args[4]);
+    config.paths = Integer.parseInt(args[5]);
+    config.rules = Integer.parseInt(args[6]);
+    if (args.length > 7) {
+      config.seed = Long.parseLong(args[7]);
+    }
+    File file = new File(args[0]);
+    config.write(file);
+    System.out.println(String.format("Wrote %s, %.1f MB", file, file.length() / (1024.0 * 1024.0)));
+  }
+
+  /**
+   * Writes the configuration to the file.
+   * @param argFile the access configuration file
+   * @throws IOException if it fails to write the file
+   */
+  public void write(File argFile)
+      throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(argFile), "UTF-8"), 64 * 1024);
+    try {
+      write(writer);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes the configuration to the output.
+   * @param out the output
+   * @throws IOException if it fails to write
+   */
+  public void write(Writer out)
+      throws IOException {
+    Random random = new Random(seed);
+    int levels = Math.max(1, Math.min(depth, groups));
+
+    out.write("[groups]\n");
+    for (int g = 0; g < groups; g++ ) {
+      out.write("g" + g + " = ");
+      int count = 1 + random.nextInt(MAX_GROUP_USERS);
+      for (int i = 0; i < count; i++ ) {
+        out.write((i > 0) ? ", u" : "u");
+        out.write(Integer.toString(random.nextInt(users)));
+      }
+      int level = level(g, levels);
+      if (level > 0) {
+        int from = first(level - 1, levels);
+        int to = first(level, levels);
+        int subGroups = 1 + random.nextInt(MAX_SUB_GROUPS);
+        for (int i = 0; i < subGroups; i++ ) {
+          out.write(", @g" + (from + random.nextInt(to - from)));
+        }
+      }
+      out.write("\n");
+    }
+
+    for (int r = 0; r < repos; r++ ) {
+      section(out, random, "repo" + r + ":/");
+      for (int p = 0; p < paths; p++ ) {
+        section(out, random, "repo" + r + ":/branches/b" + p);
+      }
+    }
+  }
+
+  /**
+   * Writes a section with its rules.
+   * @param out the output
+   * @param argRandom source of the rules
+   * @param argHeader header of the section, without brackets
+   * @throws IOException if it fails to write
+   */
+  private void section(Writer out, Random argRandom, String argHeader)
+      throws IOException {
+    out.write("\n[" + argHeader + "]\n");
+    for (int i = 0; i < rules; i++ ) {
+      int kind = argRandom.nextInt(20);
+      String subject;
+      if (kind == 0) {
+        subject = "*";
+      }
+      else if (kind == 1) {
+        subject = "$authenticated";
+      }
+      else if (kind == 2 && groups > 0) {
+        subject = "~@g" + argRandom.nextInt(groups);
+      }
+      else if (kind < 7 || groups == 0) {
+        subject = "u" + argRandom.nextInt(users);
+      }
+      else {
+        subject = "@g" + argRandom.nextInt(groups);
+      }
+      int access = argRandom.nextInt(10);
+      out.write(subject + " = " + ((access == 0) ? "" : (access < 6) ? "r" : "rw") + "\n");
+    }
+  }
+
+  // Level of a group, groups are split into levels of about the same size.
+  private int level(int argGroup, int argLevels) {
+    return (int) ((long) argGroup * argLevels / groups);
+  }
+
+  // First group of a level.
+  private int first(int argLevel, int argLevels) {
+    return (int) (((long) argLevel * groups + argLevels - 1) / argLevels);
+  }
+
+}
@@ -1,10 +1,25 @@
 package svn;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * An abstract base for processor states. Grouping of users with the same access privileges and grouping of
  * repositories with the same access users are calculated in here.
+ * <p>
+ * Grouping passes and report sections are independent once the configuration is parsed. With a fork-join
+ * pool, they run as tasks on the pool and large sections are rendered in chunks of rows. Without a pool,
+ * everything runs on the calling thread in the same order.
+ * <p>
+ * With a budget of grouping memory, grouping passes sort signatures through files on disk instead of keeping
+ * them, see {@link ExternalGrouping}, and rows are read back from the partition files as they are rendered. The
+ * access matrix then keeps no repos of each user either, and user signatures are built from the readers and
+ * writers of repos, a block of users at a time.
+ * <p>
+ * In watch mode, partitions of the previous report are kept, and only entities whose access changed are signed
+ * and moved between them, see {@link IncrementalGrouping}.
  * @author bsanchin
  */
 abstract class AbstractReportGenerator
@@ -14,137 +29,417 @@ abstract class AbstractReportGenerator
   protected TreeMap<String, Group> groups = new TreeMap<String, Group>();
   protected TreeMap<String, Repo> repos = new TreeMap<String, Repo>();
 
+  // Answers access queries for the users, groups, and repos above.
+  protected AccessMatrix matrix;
+
+  // Runs grouping passes and report sections in parallel, null to run them on the calling thread.
+  protected ForkJoinPool pool;
+
+  // Number of rows rendered by a single task.
+  static final int ROWS_PER_CHUNK = 256;
+
   // Repositories grouped by the same users.
-  protected TreeMap<Integer, TreeSet<Repo>> reposGroupedByUsers = new TreeMap<Integer, TreeSet<Repo>>();
+  protected Map<Integer, SortedSet<Repo>> reposGroupedByUsers = new TreeMap<Integer, SortedSet<Repo>>();
 
   // Users grouped by the same access repos.
-  protected TreeMap<Integer, TreeSet<User>> usersGroupedByRepos = new TreeMap<Integer, TreeSet<User>>();
+  protected Map<Integer, SortedSet<User>> usersGroupedByRepos = new TreeMap<Integer, SortedSet<User>>();
+
+  // Bytes of signatures that each grouping pass keeps in memory before it spills them, 0 to group in memory,
+  // see --grouping-memory.
+  protected final long groupingMemory;
+
+  // Partitions of the previous report that only the entities whose access changed move between, null to group
+  // every entity, see ConfigWatcher.
+  protected IncrementalGrouping<Repo> repoGrouping;
+  protected IncrementalGrouping<User> userGrouping;
+
+  AbstractReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool) {
+    this(argUsers, argGroups, argRepos, argMatrix, argPool, 0);
+  }
 
   AbstractReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
-      TreeMap<String, Repo> argRepos) {
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool, long argGroupingMemory) {
     this.users = argUsers;
     this.groups = argGroups;
     this.repos = argRepos;
-    groupRepos();
-    groupUsers();
+    this.matrix = argMatrix;
+    this.pool = argPool;
+    this.groupingMemory = argGroupingMemory;
   }
 
   /**
-   * Groups repositories based on their users.
+   * Groups repositories and users. Both passes run in parallel if there is a pool.
+   * @throws Exception if grouping fails
    */
-  protected final void groupRepos() {
-    int counter = 0;
+  protected final void group()
+      throws Exception {
+    Future<Void> groupingRepos = groupReposAsync();
+    Future<Void> groupingUsers = groupUsersAsync();
+    await(groupingRepos);
+    await(groupingUsers);
+  }
 
-    // Add all repos into a single list.
-    List<Repo> reposListUnderReview = new ArrayList<Repo>();
-    for (Repo r : repos.values()) {
-      reposListUnderReview.add(r);
-    }
+  /**
+   * Starts grouping repositories on the pool.
+   * @return the grouping task
+   */
+  protected final Future<Void> groupReposAsync() {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call()
+          throws IOException {
+        groupRepos();
+        return null;
+      }
+    });
+  }
 
-    while (counter < reposListUnderReview.size() - 1) {
+  /**
+   * Starts grouping users on the pool.
+   * @return the grouping task
+   */
+  protected final Future<Void> groupUsersAsync() {
+    return submit(new Callable<Void>() {
+      @Override
+      public Void call()
+          throws IOException {
+        groupUsers();
+        return null;
+      }
+    });
+  }
 
-      // Collect repos with the same users as current repo has.
-      List<Integer> tmpReposWithSameUsers = new ArrayList<Integer>();
-      Repo currentRepo = reposListUnderReview.get(counter);
-      for (int i = counter + 1; i < reposListUnderReview.size(); i++ ) {
-        Repo otherRepo = reposListUnderReview.get(i);
-        if (currentRepo.readers.equals(otherRepo.readers) && currentRepo.writers.equals(otherRepo.writers)) {
-          tmpReposWithSameUsers.add(i);
-        }
+  /**
+   * Submits a task to the pool. Without a pool, the task runs right away on the calling thread.
+   * @param argTask task to be run
+   * @return result of the task
+   */
+  protected <T> Future<T> submit(Callable<T> argTask) {
+    if (pool == null) {
+      FutureTask<T> result = new FutureTask<T>(argTask);
+      result.run();
+      return result;
+    }
+    return pool.submit(argTask);
+  }
+
+  /**
+   * Waits for a task and returns its result. Failure of the task is rethrown as it is.
+   * @param argFuture the task
+   * @return result of the task
+   * @throws Exception if the task failed
+   */
+  protected static <T> T await(Future<T> argFuture)
+      throws Exception {
+    try {
+      return argFuture.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
       }
+      throw e;
+    }
+  }
 
-      // Well, we need a sorted list of repos that have the same users.
-      TreeSet<Repo> sameRepos = new TreeSet<Repo>();
-      sameRepos.add(reposListUnderReview.get(counter));
+  /**
+   * Renders rows to the output. Without a pool, rows are rendered straight into the output. With a pool, rows
+   * are rendered in chunks of {@link #ROWS_PER_CHUNK} in parallel and written in the order of their rows, so
+   * that the report is the same either way. Only a small window of chunks is rendered ahead of the output, so
+   * memory use does not grow with the number of rows.
+   * @param argRows number of rows
+   * @param argRenderer renders a range of rows
+   * @param argOut the output
+   * @throws IOException if it fails to write to the output
+   */
+  protected void streamChunks(int argRows, final ChunkRenderer argRenderer, Appendable argOut)
+      throws IOException {
+    if (pool == null || argRows <= ROWS_PER_CHUNK) {
+      argRenderer.render(argOut, 0, argRows);
+      return;
+    }
 
-      // We need to remove those repos from the list of repos under review.
-      for (int i = tmpReposWithSameUsers.size() - 1; i >= 0; i-- ) {
-        sameRepos.add(reposListUnderReview.get(tmpReposWithSameUsers.get(i)));
-        reposListUnderReview.remove(reposListUnderReview.get(tmpReposWithSameUsers.get(i)));
+    int window = 2 * pool.getParallelism();
+    ArrayDeque<ForkJoinTask<String>> rendering = new ArrayDeque<ForkJoinTask<String>>();
+    int next = 0;
+    while (next < argRows || !rendering.isEmpty()) {
+      while (next < argRows && rendering.size() < window) {
+        final int chunkFrom = next;
+        final int chunkTo = Math.min(next + ROWS_PER_CHUNK, argRows);
+        ForkJoinTask<String> task = ForkJoinTask.adapt(new Callable<String>() {
+          @Override
+          public String call()
+              throws IOException {
+            StringBuilder chunk = new StringBuilder();
+            argRenderer.render(chunk, chunkFrom, chunkTo);
+            return chunk.toString();
+          }
+        });
+        pool.execute(task);
+        rendering.add(task);
+        next = chunkTo;
       }
-      reposGroupedByUsers.put(counter, sameRepos);
-      counter++ ;
+      argOut.append(rendering.poll().join());
     }
   }
 
   /**
-   * Groups users based on their accessible repositories.
+   * Renders a range of rows of a report section.
+   * @author bsanchin
    */
-  protected final void groupUsers() {
-    int counter = 0;
+  interface ChunkRenderer {
 
-    // Add all users into a single list.
-    List<User> usersListUnderReview = new ArrayList<User>();
-    for (User u : users.values()) {
-      usersListUnderReview.add(u);
+    /**
+     * Renders rows from the first index, inclusive, to the last index, exclusive.
+     * @param argOut output of the rows
+     * @param argFrom first row
+     * @param argTo last row
+     * @throws IOException if it fails to write to the output
+     */
+    void render(Appendable argOut, int argFrom, int argTo)
+        throws IOException;
+  }
+
+  /**
+   * Groups repositories based on their users. Repositories with the same access rules and the same effective
+   * readers and writers share a signature, and all of them are partitioned in a single pass.
+   * @throws IOException if it fails to sort signatures on disk
+   */
+  protected final void groupRepos()
+      throws IOException {
+    if (repoGrouping != null) {
+      regroupRepos();
+      return;
+    }
+    if (groupingMemory > 0) {
+      groupReposExternally();
+      return;
+    }
+    RunStats.Span span = RunStats.begin("grouping.repos");
+    LinkedHashMap<PermissionSignature, TreeSet<Repo>> partitions =
+        new LinkedHashMap<PermissionSignature, TreeSet<Repo>>();
+    for (Repo r : repos.values()) {
+      PermissionSignature signature = sign(r);
+      TreeSet<Repo> sameRepos = partitions.get(signature);
+      if (sameRepos == null) {
+        sameRepos = new TreeSet<Repo>();
+        partitions.put(signature, sameRepos);
+      }
+      sameRepos.add(r);
     }
 
-    // We need some cache (dynamic programming) to speed up the processing.
-    Hashtable<String, TreeSet<Repo>> readables = new Hashtable<String, TreeSet<Repo>>();
-    Hashtable<String, TreeSet<Repo>> writables = new Hashtable<String, TreeSet<Repo>>();
+    // Partitions are in the order of their first repos, that is the order of the report.
+    TreeMap<Integer, SortedSet<Repo>> result = new TreeMap<Integer, SortedSet<Repo>>();
+    int counter = 0;
+    for (TreeSet<Repo> sameRepos : partitions.values()) {
+      result.put(counter, sameRepos);
+      counter++ ;
+    }
+    reposGroupedByUsers = result;
+    span.end();
+  }
 
-    while (counter < usersListUnderReview.size() - 1) {
+  /**
+   * Returns the signature of the repository, its rules and its effective readers and writers.
+   * @param argRepo the repository
+   * @return the signature
+   */
+  protected PermissionSignature sign(Repo argRepo) {
+    return new PermissionSignature(getRuleSet(argRepo), matrix.getReaders(argRepo), matrix.getWriters(argRepo));
+  }
 
-      // Collect users with the same access privileges as the current user has.
-      List<Integer> tmpUsersWithSameRepos = new ArrayList<Integer>();
-      User currentUser = usersListUnderReview.get(counter);
-      for (int i = counter + 1; i < usersListUnderReview.size(); i++ ) {
-        User otherUser = usersListUnderReview.get(i);
-        if (getReadableRepos(currentUser, readables).equals(getReadableRepos(otherUser, readables))
-            && getWritableRepos(currentUser, writables).equals(getWritableRepos(otherUser, writables))) {
-          tmpUsersWithSameRepos.add(i);
+  /**
+   * Groups repositories as {@link #groupRepos()} does, by moving only the repositories whose access changed
+   * between the partitions of the previous report, see {@link IncrementalGrouping}.
+   */
+  private void regroupRepos() {
+    RunStats.Span span = RunStats.begin("grouping.repos");
+    if (repoGrouping.isEmpty()) {
+      repoGrouping.move(repos.values());
+    }
+    reposGroupedByUsers = repoGrouping.regroup(new IncrementalGrouping.Signer<Repo>() {
+      @Override
+      public PermissionSignature[] sign(List<Repo> argRepos) {
+        PermissionSignature[] result = new PermissionSignature[argRepos.size()];
+        for (int i = 0; i < result.length; i++ ) {
+          result[i] = AbstractReportGenerator.this.sign(argRepos.get(i));
         }
+        return result;
       }
+    });
+    span.end();
+  }
+
+  /**
+   * Groups repositories as {@link #groupRepos()} does, through signatures sorted on disk.
+   * @throws IOException if it fails to sort signatures on disk
+   */
+  private void groupReposExternally()
+      throws IOException {
+    RunStats.Span span = RunStats.begin("grouping.repos");
+    try {
+      final Repo[] byIndex = repos.values().toArray(new Repo[repos.size()]);
+      reposGroupedByUsers = ExternalGrouping.group(byIndex, new ExternalGrouping.Encoder() {
+        @Override
+        public void encode(int argIndex, DataOutputStream argOut)
+            throws IOException {
+          Repo r = byIndex[argIndex];
+          ExternalGrouping.writeStrings(argOut, getRuleSet(r));
+          ExternalGrouping.writeIds(argOut, matrix.getReaders(r));
+          ExternalGrouping.writeIds(argOut, matrix.getWriters(r));
+        }
+      }, groupingMemory);
+    }
+    finally {
+      span.end();
+    }
+  }
 
-      // Well, we need a sorted list of users that have the same access privileges.
-      TreeSet<User> sameUsers = new TreeSet<User>();
-      sameUsers.add(usersListUnderReview.get(counter));
+  /**
+   * Returns rules of the repository as a set, regardless of their order in the access configuration file.
+   * @param argRepo the repository
+   * @return rules of the repository
+   */
+  protected static TreeSet<String> getRuleSet(Repo argRepo) {
+    TreeSet<String> result = new TreeSet<String>();
+    for (AccessRule rule : argRepo.rules) {
+      result.add(rule.toString());
+    }
+    return result;
+  }
 
-      // We need to remove those users from the list of users under review.
-      for (int i = tmpUsersWithSameRepos.size() - 1; i >= 0; i-- ) {
-        sameUsers.add(usersListUnderReview.get(tmpUsersWithSameRepos.get(i)));
-        usersListUnderReview.remove(usersListUnderReview.get(tmpUsersWithSameRepos.get(i)));
+  /**
+   * Groups users based on their accessible repositories. Users with the same readable and writable repositories
+   * share a signature, and all of them are partitioned in a single pass.
+   * @throws IOException if it fails to sort signatures on disk
+   */
+  protected final void groupUsers()
+      throws IOException {
+    if (userGrouping != null) {
+      regroupUsers();
+      return;
+    }
+    if (groupingMemory > 0) {
+      groupUsersExternally();
+      return;
+    }
+    RunStats.Span span = RunStats.begin("grouping.users");
+    LinkedHashMap<PermissionSignature, TreeSet<User>> partitions =
+        new LinkedHashMap<PermissionSignature, TreeSet<User>>();
+    for (User u : users.values()) {
+      PermissionSignature signature = sign(u);
+      TreeSet<User> sameUsers = partitions.get(signature);
+      if (sameUsers == null) {
+        sameUsers = new TreeSet<User>();
+        partitions.put(signature, sameUsers);
       }
-      usersGroupedByRepos.put(counter, sameUsers);
+      sameUsers.add(u);
+    }
+
+    // Partitions are in the order of their first users, that is the order of the report.
+    TreeMap<Integer, SortedSet<User>> result = new TreeMap<Integer, SortedSet<User>>();
+    int counter = 0;
+    for (TreeSet<User> sameUsers : partitions.values()) {
+      result.put(counter, sameUsers);
       counter++ ;
     }
+    usersGroupedByRepos = result;
+    span.end();
   }
 
   /**
-   * Returns readable repos for this user. If the cache has the repos for this user, then it returns the
-   * result from the cache. If it does not have, then it loads the repos and stores them in the cache.
+   * Returns the signature of the user, its readable and writable repositories.
    * @param argUser the user
-   * @param argRepos a cache that holds user to repo mapping
-   * @return readable repos for the user
+   * @return the signature
    */
-  private TreeSet<Repo> getReadableRepos(User argUser, Hashtable<String, TreeSet<Repo>> argRepos) {
-    TreeSet<Repo> result = argRepos.get(argUser.id);
-    if (result != null) {
-      return result;
-    }
-    else {
-      result = argUser.getReadableRepos(repos.values());
-      argRepos.put(argUser.id, result);
-      return result;
+  protected PermissionSignature sign(User argUser) {
+    return new PermissionSignature(matrix.getReadable(argUser), matrix.getWritable(argUser));
+  }
+
+  /**
+   * Groups users as {@link #groupUsers()} does, by moving only the users whose access changed between the
+   * partitions of the previous report, see {@link IncrementalGrouping}. With a budget of grouping memory, repos
+   * of the users are found for a block of users at a time, as {@link #groupUsersExternally()} does.
+   */
+  private void regroupUsers() {
+    RunStats.Span span = RunStats.begin("grouping.users");
+    if (userGrouping.isEmpty()) {
+      userGrouping.move(users.values());
     }
+    usersGroupedByRepos = userGrouping.regroup(new IncrementalGrouping.Signer<User>() {
+      @Override
+      public PermissionSignature[] sign(List<User> argUsers) {
+        PermissionSignature[] result = new PermissionSignature[argUsers.size()];
+        if (groupingMemory == 0) {
+          for (int i = 0; i < result.length; i++ ) {
+            result[i] = AbstractReportGenerator.this.sign(argUsers.get(i));
+          }
+          return result;
+        }
+        int block = userBlock();
+        int from = 0;
+        BitSet[] readable = new BitSet[0];
+        BitSet[] writable = new BitSet[0];
+        for (int i = 0; i < result.length; i++ ) {
+          int index = matrix.indexOf(argUsers.get(i));
+          if (index < from || index >= from + readable.length) {
+            from = index;
+            int to = Math.min(from + block, matrix.getUserCount());
+            readable = matrix.getRepos(from, to, false);
+            writable = matrix.getRepos(from, to, true);
+          }
+          result[i] = new PermissionSignature(readable[index - from], writable[index - from]);
+        }
+        return result;
+      }
+    });
+    span.end();
   }
 
   /**
-   * Returns writable repos for this user. If the cache has the repos for this user, then it returns the
-   * result from the cache. If it does not have, then it loads the repos and stores them in the cache.
-   * @param argUser the user
-   * @param argRepos a cache that holds user to repo mapping
-   * @return writable repos for the user
+   * Returns the number of users whose repos fit in the budget of grouping memory at once.
+   * @return number of users of a block
    */
-  private TreeSet<Repo> getWritableRepos(User argUser, Hashtable<String, TreeSet<Repo>> argRepos) {
-    TreeSet<Repo> result = argRepos.get(argUser.id);
-    if (result != null) {
-      return result;
+  private int userBlock() {
+    return (int) Math.max(1, Math.min(matrix.getUserCount(),
+        groupingMemory / (2 * (matrix.getRepoCount() / 8 + ExternalGrouping.BIT_SET_BYTES))));
+  }
+
+  /**
+   * Groups users as {@link #groupUsers()} does, through signatures sorted on disk. Repos of users are found in
+   * the readers and writers of repos for a block of users at a time, which fits in the budget, so that they are
+   * not kept for every user.
+   * @throws IOException if it fails to sort signatures on disk
+   */
+  private void groupUsersExternally()
+      throws IOException {
+    RunStats.Span span = RunStats.begin("grouping.users");
+    try {
+      final User[] byIndex = users.values().toArray(new User[users.size()]);
+      final int block = userBlock();
+      usersGroupedByRepos = ExternalGrouping.group(byIndex, new ExternalGrouping.Encoder() {
+        // Repos of a block of users, which are encoded in the order of their ids.
+        private int from;
+        private BitSet[] readable = new BitSet[0];
+        private BitSet[] writable = new BitSet[0];
+
+        @Override
+        public void encode(int argIndex, DataOutputStream argOut)
+            throws IOException {
+          if (argIndex >= from + readable.length) {
+            from = argIndex;
+            int to = Math.min(from + block, byIndex.length);
+            readable = matrix.getRepos(from, to, false);
+            writable = matrix.getRepos(from, to, true);
+          }
+          ExternalGrouping.writeIds(argOut, readable[argIndex - from]);
+          ExternalGrouping.writeIds(argOut, writable[argIndex - from]);
+        }
+      }, groupingMemory);
     }
-    else {
-      result = argUser.getWritableRepos(repos.values());
-      argRepos.put(argUser.id, result);
-      return result;
+    finally {
+      span.end();
     }
   }
 
@@ -0,0 +1,485 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Explains why a user has, or does not have, read or write access to a section.
+ * <p>
+ * Access is decided the way {@link PathPermissions} decides it: the most specific section on the path of the
+ * section, or above it, with a rule that applies to the user, and a repository section before a section of
+ * every repository on the same path. An explanation is that deciding section, its rules that apply to the user
+ * and grant the access, and for each rule of a group, the paths of memberships from the user through nested
+ * groups to the group of the rule, shortest first.
+ * <p>
+ * Direct members of every group are inverted once into the groups that contain each user and each group, and
+ * the sections on the path of every section are looked up once. An explanation then walks up from the user to
+ * the groups that contain the user, directly or not, and only ever visits those groups, however many groups and
+ * users the file has. Paths are enumerated from the group of a rule down the memberships that were walked, so
+ * every partial path leads to the user, best first by the distance of its node from the user, so a shortest
+ * path costs a step for each group on it even when there are exponentially many paths. The enumeration stops
+ * after a bounded number of paths or steps, see {@link #MAX_PATHS} and {@link #MAX_STEPS}.
+ * <p>
+ * Explanations only read the model, so that they are answered from any number of threads at once.
+ * @author bsanchin
+ */
+public class AccessExplainer {
+
+  // Paths of an explanation unless fewer are asked for.
+  static final int MAX_PATHS = 16;
+
+  // Partial paths that an explanation enumerates at most for each rule.
+  static final int MAX_STEPS = 100000;
+
+  protected final AccessMatrix matrix;
+
+  // Users are nodes 0 to userCount - 1, groups follow them in the order of their ids.
+  protected final int userCount;
+
+  // Ids of the groups that directly contain each node.
+  protected final int[][] parents;
+
+  // Sections that may decide access on the path of each section, most specific first, indexed by repo id.
+  protected final Repo[][] pathSections;
+
+  /**
+   * Builds the reverse membership index of the given matrix.
+   * @param argMatrix the access matrix
+   */
+  public AccessExplainer(AccessMatrix argMatrix) {
+    this.matrix = argMatrix;
+    this.userCount = matrix.getUserCount();
+
+    int size = userCount + matrix.getGroupCount();
+    int[] counts = new int[size];
+    for (int g = 0; g < matrix.getGroupCount(); g++ ) {
+      for (User u : matrix.getGroup(g).users) {
+        if (u.matrix == matrix) {
+          counts[node(u)]++ ;
+        }
+      }
+    }
+    parents = new int[size][];
+    for (int i = 0; i < size; i++ ) {
+      parents[i] = new int[counts[i]];
+      counts[i] = 0;
+    }
+    for (int g = 0; g < matrix.getGroupCount(); g++ ) {
+      for (User u : matrix.getGroup(g).users) {
+        if (u.matrix == matrix) {
+          int n = node(u);
+          parents[n][counts[n]++ ] = g;
+        }
+      }
+    }
+
+    HashMap<String, Repo> sections = new HashMap<String, Repo>(matrix.getRepoCount() * 2);
+    for (int i = 0; i < matrix.getRepoCount(); i++ ) {
+      sections.put(AccessIndex.key(matrix.getRepo(i)), matrix.getRepo(i));
+    }
+    pathSections = new Repo[matrix.getRepoCount()][];
+    List<Repo> onPath = new ArrayList<Repo>();
+    for (int i = 0; i < pathSections.length; i++ ) {
+      Repo repo = matrix.getRepo(i);
+      onPath.clear();
+      String path = repo.path;
+      while (true) {
+        Repo section = (repo.name == null) ? null : sections.get(AccessIndex.key(repo.name, path));
+        Repo global = sections.get(AccessIndex.key(null, path));
+        if (section != null) {
+          onPath.add(section);
+        }
+        if (global != null) {
+          onPath.add(global);
+        }
+        if (path.equals("/")) {
+          break;
+        }
+        int slash = path.lastIndexOf('/');
+        path = (slash == 0) ? "/" : path.substring(0, slash);
+      }
+      pathSections[i] = onPath.toArray(new Repo[onPath.size()]);
+    }
+  }
+
+  /**
+   * Explains the access of the user to the section, with at most {@link #MAX_PATHS} paths.
+   * @param argUser the user
+   * @param argRepo the section
+   * @param argAccess {@link AccessRule#READ} or {@link AccessRule#WRITE}
+   * @return the explanation
+   */
+  public Explanation explain(User argUser, Repo argRepo, int argAccess) {
+    return explain(argUser, argRepo, argAccess, MAX_PATHS);
+  }
+
+  /**
+   * Explains the access of the user to the section.
+   * @param argUser the user
+   * @param argRepo the section
+   * @param argAccess {@link AccessRule#READ} or {@link AccessRule#WRITE}
+   * @param argMaxPaths paths to find at most, shortest first
+   * @return the explanation
+   */
+  public Explanation explain(User argUser, Repo argRepo, int argAccess, int argMaxPaths) {
+    return explain(ancestors(argUser), argRepo, argAccess, argMaxPaths);
+  }
+
+  /**
+   * Walks up from the user to the groups that contain the user, so that access of the user to any number of
+   * sections is explained with a single walk.
+   * @param argUser the user
+   * @return groups of the user
+   */
+  Ancestors ancestors(User argUser) {
+    matrix.indexOf(argUser);
+    return new Ancestors(argUser);
+  }
+
+  /**
+   * Explains the access of a user to the section.
+   * @param argAncestors groups of the user
+   * @param argRepo the section
+   * @param argAccess {@link AccessRule#READ} or {@link AccessRule#WRITE}
+   * @param argMaxPaths paths to find at most, shortest first
+   * @return the explanation
+   */
+  Explanation explain(Ancestors argAncestors, Repo argRepo, int argAccess, int argMaxPaths) {
+    Repo[] sections = pathSections[matrix.indexOf(argRepo)];
+    User user = argAncestors.entity;
+    Explanation result = new Explanation(user, argRepo, argAccess);
+    result.section = decide(sections, user, argAncestors);
+    if (result.section == null) {
+      return result;
+    }
+    for (AccessRule rule : result.section.rules) {
+      if (applies(rule, user, argAncestors)) {
+        result.applied.add(rule);
+        result.access |= rule.access;
+        if ((rule.access & argAccess) != 0) {
+          paths(rule, argAncestors, argMaxPaths, result);
+        }
+      }
+    }
+
+    // Shortest first across the rules, and in the order of the rules for the same length.
+    Collections.sort(result.grants, new Comparator<Grant>() {
+      @Override
+      public int compare(Grant argFirst, Grant argSecond) {
+        return argFirst.path.size() - argSecond.path.size();
+      }
+    });
+    if (result.grants.size() > argMaxPaths) {
+      result.grants.subList(argMaxPaths, result.grants.size()).clear();
+      result.truncated = true;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the first of the sections with a rule that applies to the user, or null if there is none.
+   * @param argSections sections on a path, most specific first
+   * @param argUser the user
+   * @param argAncestors groups of the user
+   * @return the deciding section, or null
+   */
+  private Repo decide(Repo[] argSections, User argUser, Ancestors argAncestors) {
+    for (Repo section : argSections) {
+      for (AccessRule rule : section.rules) {
+        if (applies(rule, argUser, argAncestors)) {
+          return section;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns true if the rule applies to the user, see {@link AccessRule#appliesTo(User)}. A rule of a group
+   * applies if the group is one of the groups of the user, so that flattened members of the group are never
+   * looked up.
+   * @param argRule the rule
+   * @param argUser the user
+   * @param argAncestors groups of the user
+   * @return true if the rule applies
+   */
+  private boolean applies(AccessRule argRule, User argUser, Ancestors argAncestors) {
+    boolean result;
+    switch (argRule.subject) {
+      case USER:
+        result = (argRule.user == argUser);
+        break;
+      case GROUP:
+        result = argRule.user.matrix == matrix && argAncestors.visited.get(node(argRule.user));
+        break;
+      case ANONYMOUS:
+        result = false;
+        break;
+      default:
+        result = true;
+    }
+    return result != argRule.inverted;
+  }
+
+  /**
+   * Adds paths from the user to the subject of a rule that applies to the user. A rule of any other subject
+   * than a group, or an inverted one, applies to the user alone, so its path is the user.
+   * @param argRule the rule
+   * @param argAncestors groups of the user
+   * @param argMaxPaths paths to find at most
+   * @param argResult the explanation
+   */
+  private void paths(AccessRule argRule, Ancestors argAncestors, int argMaxPaths, Explanation argResult) {
+    int user = argAncestors.user;
+    if (argRule.subject != AccessRule.Subject.GROUP || argRule.inverted) {
+      argResult.grants.add(new Grant(argRule, Collections.<User> singletonList(argAncestors.entity)));
+      return;
+    }
+
+    // Best first from the group down to the user. A partial path is ranked by its length plus the distance from
+    // its node down to the user, which is exact, so paths come out shortest first and a partial path that ties
+    // with others is followed to the user before they are.
+    PriorityQueue<Step> queue = new PriorityQueue<Step>();
+    int group = node(argRule.user);
+    queue.add(new Step(group, null, argAncestors.depth(group)));
+    int found = 0;
+    int steps = 0;
+    while (!queue.isEmpty() && found < argMaxPaths) {
+      Step step = queue.poll();
+      if (step.node == user) {
+        argResult.grants.add(new Grant(argRule, step.toPath()));
+        found++ ;
+        continue;
+      }
+      if (++steps > MAX_STEPS) {
+        break;
+      }
+      for (int i = argAncestors.firstMember(step.node); i < argAncestors.edges.length
+          && (argAncestors.edges[i] >>> 32) == step.node; i++ ) {
+        int member = (int) argAncestors.edges[i];
+        int depth = argAncestors.depth(member);
+        if ((step.descending && depth == step.bound - step.length - 1) || !step.contains(member)) {
+          queue.add(new Step(member, step, depth));
+        }
+      }
+    }
+    if (!queue.isEmpty()) {
+      argResult.truncated = true;
+    }
+    RunStats.count("explain.steps", steps);
+  }
+
+  private int node(User argUser) {
+    return (argUser instanceof Group) ? userCount + argUser.index : argUser.index;
+  }
+
+  private User entity(int argNode) {
+    return (argNode < userCount) ? matrix.getUser(argNode) : matrix.getGroup(argNode - userCount);
+  }
+
+  /**
+   * Groups that contain a user, directly or not, and the memberships that lead up to them.
+   * @author bsanchin
+   */
+  final class Ancestors {
+    final User entity;
+    final int user;
+
+    // The user and every group that contains it, by node.
+    final BitSet visited = new BitSet();
+
+    // Memberships between the visited nodes, packed as the group node << 32 | the member node, and sorted, so
+    // that the members of a group are a range.
+    final long[] edges;
+
+    // Visited nodes and their distance from the user, packed as the node << 32 | the distance, and sorted.
+    final long[] depths;
+
+    Ancestors(User argUser) {
+      this.entity = argUser;
+      this.user = node(argUser);
+      long[] found = new long[16];
+      int size = 0;
+      long[] queue = new long[16];
+      int head = 0;
+      int tail = 0;
+      queue[tail++ ] = (long) user << 32;
+      visited.set(user);
+      while (head < tail) {
+        int n = (int) (queue[head] >>> 32);
+        int depth = (int) queue[head++ ];
+        for (int g : parents[n]) {
+          int parent = userCount + g;
+          if (size == found.length) {
+            found = Arrays.copyOf(found, size * 2);
+          }
+          found[size++ ] = ((long) parent << 32) | n;
+          if (!visited.get(parent)) {
+            visited.set(parent);
+            if (tail == queue.length) {
+              queue = Arrays.copyOf(queue, tail * 2);
+            }
+            queue[tail++ ] = ((long) parent << 32) | (depth + 1);
+          }
+        }
+      }
+      edges = Arrays.copyOf(found, size);
+      Arrays.sort(edges);
+      depths = Arrays.copyOf(queue, tail);
+      Arrays.sort(depths);
+    }
+
+    // Distance of a visited node from the user.
+    int depth(int argNode) {
+      int i = Arrays.binarySearch(depths, (long) argNode << 32);
+      return (int) depths[(i >= 0) ? i : -i - 1];
+    }
+
+    // Index of the first membership of the group, or the length of the edges if it has none.
+    int firstMember(int argGroup) {
+      int i = Arrays.binarySearch(edges, (long) argGroup << 32);
+      return (i >= 0) ? i : -i - 1;
+    }
+  }
+
+  /**
+   * A partial path, from the group of a rule down to a node, ranked by the length of the shortest path that it
+   * leads to, and then longest first. A path whose every step comes closer to the user cannot visit a node twice,
+   * so its next step closer to the user needs no check.
+   * @author bsanchin
+   */
+  final class Step
+      implements Comparable<Step> {
+    final int node;
+    final Step previous;
+    final int length;
+    final int bound;
+    final boolean descending;
+
+    Step(int argNode, Step argPrevious, int argDepth) {
+      this.node = argNode;
+      this.previous = argPrevious;
+      this.length = (argPrevious == null) ? 0 : argPrevious.length + 1;
+      this.bound = length + argDepth;
+      this.descending = (argPrevious == null) || (argPrevious.descending && bound == argPrevious.bound);
+    }
+
+    @Override
+    public int compareTo(Step other) {
+      return (bound != other.bound) ? bound - other.bound : other.length - length;
+    }
+
+    boolean contains(int argNode) {
+      for (Step s = this; s != null; s = s.previous) {
+        if (s.node == argNode) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // The path from the node of this step up to the group of the rule.
+    List<User> toPath() {
+      List<User> result = new ArrayList<User>();
+      for (Step s = this; s != null; s = s.previous) {
+        result.add(entity(s.node));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A rule that grants the access, and a path of memberships from the user to its subject.
+   * @author bsanchin
+   */
+  public static class Grant {
+    final AccessRule rule;
+
+    // The user, then the groups up to the group of the rule.
+    final List<User> path;
+
+    Grant(AccessRule argRule, List<User> argPath) {
+      this.rule = argRule;
+      this.path = argPath;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(rule).append(" (");
+      for (int i = 0; i < path.size(); i++ ) {
+        sb.append((i > 0) ? " -> " : "").append(path.get(i));
+      }
+      if (rule.inverted && rule.user != null) {
+        sb.append(", not ").append(rule.user);
+      }
+      return sb.append(")").toString();
+    }
+  }
+
+  /**
+   * Why a user has, or does not have, an access to a section.
+   * @author bsanchin
+   */
+  public static class Explanation {
+    final User user;
+    final Repo repo;
+
+    // The access that is explained, READ or WRITE.
+    final int requested;
+
+    // The deciding section, null if no rule on the path applies to the user.
+    Repo section;
+
+    // Rules of the deciding section that apply to the user, and the access they grant, a combination of READ
+    // and WRITE.
+    final List<AccessRule> applied = new ArrayList<AccessRule>();
+    int access;
+
+    // Rules that grant the access, with their paths, shortest first.
+    final List<Grant> grants = new ArrayList<Grant>();
+
+    // True if there are more paths than were found.
+    boolean truncated;
+
+    Explanation(User argUser, Repo argRepo, int argRequested) {
+      this.user = argUser;
+      this.repo = argRepo;
+      this.requested = argRequested;
+    }
+
+    /**
+     * Returns true if the user has the access.
+     * @return true if the user has the access
+     */
+    public boolean isGranted() {
+      return (access & requested) != 0;
+    }
+
+    /**
+     * Returns the explanation on a single line, such as
+     * <code>true by [proj:/]: @devs = rw (alice -&gt; @core -&gt; @devs); alice = r (alice)</code>. Rules of
+     * the deciding section that apply to the user are listed when they do not grant the access.
+     * @return the explanation
+     */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder().append(isGranted());
+      if (section == null) {
+        return sb.append(": no rule applies").toString();
+      }
+      sb.append(" by ").append(section.id).append(": ");
+      if (grants.isEmpty()) {
+        for (int i = 0; i < applied.size(); i++ ) {
+          sb.append((i > 0) ? "; " : "").append(applied.get(i));
+        }
+        return sb.toString();
+      }
+      for (int i = 0; i < grants.size(); i++ ) {
+        sb.append((i > 0) ? "; " : "").append(grants.get(i));
+      }
+      return sb.append(truncated ? "; ..." : "").toString();
+    }
+  }
+
+}
@@ -0,0 +1,567 @@
+package svn;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers lookups over the history of the access configuration file, such as who could write a repository at
+ * any point of a year, from a directory of its dated versions.
+ * <p>
+ * Versions are read in the order of their dates, taken from their file names, such as
+ * <code>svnaccess-2024-03-01.conf</code>, or from their modification times otherwise. A single model is carried
+ * from one version to the next, see {@link ConfigWatcher#apply(List)}: only the sections that changed are parsed
+ * again, and unchanged users, groups, and repos are the same objects in every version.
+ * <p>
+ * Each section has a timeline of its readers and writers, with an entry for each version where they changed.
+ * Entries refer to the sets of the matrix itself, which are replaced rather than modified when access changes,
+ * so unchanged sections share their sets across versions, and memory grows with the changes between versions
+ * rather than with the number of versions. Sets are in the ids of their matrix, which move when users are added
+ * or removed, so each entry keeps the users of its version, see {@link Users}. Users are also given ids across
+ * versions, in the order they are first seen, so that those ids never change.
+ * <p>
+ * Entries of a timeline are found by binary search. Repos of a user are found in an index of the intervals of
+ * versions in which the user had access to each section, which is built on the first such lookup.
+ * <p>
+ * A section has access only in the versions that have it. Access that a path inherits in the versions without
+ * its section is on the sections above it. Dates of lookups are <code>yyyy-MM-dd</code>, both inclusive. A
+ * version is in effect from its date until the date of the next version.
+ * @author bsanchin
+ */
+public class AccessHistory
+    implements ILookup {
+
+  static final Pattern DATE = Pattern.compile("(\\d{4})-?(\\d{2})-?(\\d{2})");
+
+  // End of an interval of a user who still has the access.
+  static final int NOW = Integer.MAX_VALUE;
+
+  protected final SvnAccessAuditor proc;
+  protected final ConfigWatcher watcher;
+
+  // Dates and file names of the versions, in their order.
+  protected final List<String> dates = new ArrayList<String>();
+  protected final List<String> names = new ArrayList<String>();
+
+  // Users of every version, by their ids across versions.
+  protected final List<String> userIds = new ArrayList<String>();
+  protected final HashMap<String, Integer> userIndex = new HashMap<String, Integer>();
+
+  // Timeline of each section, keyed by the section key, see AccessIndex, and in the order they were first seen.
+  protected final HashMap<String, Timeline> timelines = new HashMap<String, Timeline>();
+  protected final List<Timeline> ordered = new ArrayList<Timeline>();
+
+  // Users of the previous version.
+  protected Users users;
+
+  // Intervals of access of each user, null until repos of a user are looked up.
+  protected Intervals intervals;
+
+  protected long changeCount;
+
+  AccessHistory(SvnAccessAuditor argProc, ForkJoinPool argPool) {
+    this.proc = argProc;
+    this.watcher = new ConfigWatcher(argProc, argPool);
+  }
+
+  /**
+   * Reads every version in the directory.
+   * @param argDir directory of the versions
+   * @param argLog where progress goes
+   * @throws IOException if it fails to read a version
+   */
+  void load(File argDir, PrintStream argLog)
+      throws IOException {
+    File[] files = argDir.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list directory: " + argDir);
+    }
+    final HashMap<File, String> fileDates = new HashMap<File, String>();
+    List<File> versions = new ArrayList<File>();
+    for (File f : files) {
+      if (f.isFile() && !f.isHidden() && !f.getName().endsWith(ModelSnapshot.SUFFIX)) {
+        fileDates.put(f, date(f));
+        versions.add(f);
+      }
+    }
+    Collections.sort(versions, new Comparator<File>() {
+      @Override
+      public int compare(File argFirst, File argSecond) {
+        int result = fileDates.get(argFirst).compareTo(fileDates.get(argSecond));
+        return (result != 0) ? result : argFirst.getName().compareTo(argSecond.getName());
+      }
+    });
+
+    for (File f : versions) {
+      long start = System.nanoTime();
+      String result = add(f, fileDates.get(f));
+      argLog.println(fileDates.get(f) + " " + f.getName() + ": " + (result.isEmpty() ? "no changes" : result)
+          + ", in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+    argLog.println("Read " + dates.size() + " versions with " + changeCount + " changes of sections");
+  }
+
+  /**
+   * Reads the next version, and adds the sections whose readers or writers changed to their timelines.
+   * @param argFile the version
+   * @param argDate date of the version
+   * @return a short description of the update of the model
+   * @throws IOException if it fails to read the version
+   */
+  String add(File argFile, String argDate)
+      throws IOException {
+    String result = watcher.apply(ConfigWatcher.readLines(argFile));
+    int version = dates.size();
+    dates.add(argDate);
+    names.add(argFile.getName());
+    intervals = null;
+
+    // Added or removed users move the ids of the matrix, and a whole parse makes users of their own.
+    AccessMatrix matrix = proc.matrix;
+    boolean moved = users == null || !users.sameAs(matrix);
+    if (moved) {
+      users = new Users(matrix);
+    }
+
+    for (int r = 0; r < matrix.getRepoCount(); r++ ) {
+      Repo section = matrix.getRepo(r);
+      String key = AccessIndex.key(section);
+      Timeline timeline = timelines.get(key);
+      if (timeline == null) {
+        timeline = new Timeline(section.id);
+        timelines.put(key, timeline);
+        ordered.add(timeline);
+      }
+      timeline.seen = version;
+      BitSet readers = matrix.getReaders(section);
+      BitSet writers = matrix.getWriters(section);
+      if (!moved && timeline.readers == readers && timeline.writers == writers) {
+        continue;
+      }
+      timeline.readers = readers;
+      timeline.writers = writers;
+      if (timeline.add(version, AccessMatrix.or(readers, writers), writers, users)) {
+        changeCount++ ;
+      }
+    }
+
+    // Sections that this version does not have lose their access.
+    for (Timeline timeline : ordered) {
+      if (timeline.seen != version) {
+        timeline.readers = null;
+        timeline.writers = null;
+        if (timeline.add(version, null, null, users)) {
+          changeCount++ ;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the date of a version, from its name, or from its modification time otherwise.
+   * @param argFile the version
+   * @return the date
+   */
+  static String date(File argFile) {
+    Matcher m = DATE.matcher(argFile.getName());
+    if (m.find()) {
+      return m.group(1) + "-" + m.group(2) + "-" + m.group(3);
+    }
+    return new SimpleDateFormat("yyyy-MM-dd").format(new Date(argFile.lastModified()));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String answer(String[] argWords) {
+    String lookup = argWords[0];
+    List<String> result = new ArrayList<String>();
+    if (lookup.equals("versions")) {
+      for (int i = 0; i < dates.size(); i++ ) {
+        result.add(dates.get(i) + " " + names.get(i));
+      }
+      return join(result);
+    }
+    if (lookup.equals("intervals")) {
+      if (argWords.length != 3) {
+        throw new IllegalArgumentException("Expected a user and a repository for lookup: " + lookup);
+      }
+      int user = user(argWords[1]);
+      Timeline timeline = timeline(argWords[2]);
+      for (int a = 0; a < 2; a++ ) {
+        String access = (a == 0) ? "read " : "write ";
+        int[] spans = intervals().of(a, user);
+        for (int i = 0; i < spans.length; i += 3) {
+          if (ordered.get(spans[i]) == timeline) {
+            result.add(access + dates.get(spans[i + 1]) + ".."
+                + ((spans[i + 2] == NOW) ? "now" : dates.get(spans[i + 2])));
+          }
+        }
+      }
+      return join(result);
+    }
+
+    if (argWords.length < 2 || argWords.length > 4) {
+      throw new IllegalArgumentException("Expected a name and an optional date range for lookup: " + lookup);
+    }
+    int[] range = range((argWords.length > 2) ? argWords[2] : null, (argWords.length > 3) ? argWords[3] : null);
+    if (lookup.equals("readers") || lookup.equals("writers")) {
+      BitSet users = timeline(argWords[1]).union(lookup.equals("readers") ? 0 : 1, range[0], range[1]);
+      for (int u = users.nextSetBit(0); u >= 0; u = users.nextSetBit(u + 1)) {
+        result.add(userIds.get(u));
+      }
+    }
+    else if (lookup.equals("readable") || lookup.equals("writable")) {
+      // A section is granted if some interval of the user overlaps the range.
+      int[] spans = intervals().of(lookup.equals("readable") ? 0 : 1, user(argWords[1]));
+      BitSet granted = new BitSet(ordered.size());
+      for (int i = 0; i < spans.length; i += 3) {
+        if (spans[i + 1] <= range[1] && spans[i + 2] > range[0] && range[0] <= range[1]) {
+          granted.set(spans[i]);
+        }
+      }
+      for (int t = granted.nextSetBit(0); t >= 0; t = granted.nextSetBit(t + 1)) {
+        result.add(ordered.get(t).id);
+      }
+    }
+    else {
+      throw new IllegalArgumentException("Unknown lookup: " + lookup);
+    }
+    Collections.sort(result);
+    return join(result);
+  }
+
+  /**
+   * Returns the versions in effect during the date range.
+   * @param argFrom first date, inclusive, or null for the beginning
+   * @param argTo last date, inclusive, or null for now
+   * @return first and last versions, inclusive, the last one is before the first one if there is none
+   */
+  private int[] range(String argFrom, String argTo) {
+    // The version in effect on the first date is the last one dated on or before it.
+    int first = (argFrom == null) ? 0 : Math.max(0, lastOnOrBefore(argFrom));
+    int last = (argTo == null) ? dates.size() - 1 : lastOnOrBefore(argTo);
+    return new int[] {first, last};
+  }
+
+  /**
+   * Returns the last version dated on or before the date.
+   * @param argDate the date
+   * @return the version, or -1 if every version is dated after it
+   */
+  private int lastOnOrBefore(String argDate) {
+    int low = 0;
+    int high = dates.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (dates.get(middle).compareTo(argDate) <= 0) {
+        low = middle + 1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low - 1;
+  }
+
+  private int user(String argUser) {
+    Integer result = userIndex.get(argUser);
+    if (result == null) {
+      throw new IllegalArgumentException("Unknown user: " + argUser);
+    }
+    return result;
+  }
+
+  private Timeline timeline(String argRepo) {
+    String header = argRepo.trim();
+    if (!header.startsWith("[")) {
+      header = "[" + header + "]";
+    }
+    Timeline result = timelines.get(AccessIndex.key(new Repo(header)));
+    if (result == null) {
+      throw new IllegalArgumentException("Unknown repository: " + argRepo);
+    }
+    return result;
+  }
+
+  /**
+   * Returns intervals of access of every user, built from the timelines on the first call after a version was
+   * added.
+   * @return the intervals
+   */
+  private Intervals intervals() {
+    if (intervals == null) {
+      intervals = new Intervals(userIds.size());
+      for (int t = 0; t < ordered.size(); t++ ) {
+        ordered.get(t).addIntervals(t, intervals);
+      }
+    }
+    return intervals;
+  }
+
+  private static String join(Collection<String> argValues) {
+    StringBuilder sb = new StringBuilder();
+    for (String value : argValues) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(value);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Users of a matrix, with their ids across versions. Versions with the same users share it.
+   * @author bsanchin
+   */
+  final class Users {
+    final User[] byIndex;
+
+    // Id across versions of each user of the matrix.
+    final int[] toShared;
+
+    Users(AccessMatrix argMatrix) {
+      byIndex = new User[argMatrix.getUserCount()];
+      toShared = new int[byIndex.length];
+      for (int u = 0; u < byIndex.length; u++ ) {
+        byIndex[u] = argMatrix.getUser(u);
+        Integer shared = userIndex.get(byIndex[u].id);
+        if (shared == null) {
+          shared = userIds.size();
+          userIds.add(byIndex[u].id);
+          userIndex.put(byIndex[u].id, shared);
+        }
+        toShared[u] = shared;
+      }
+    }
+
+    /**
+     * Returns true if the matrix has the same users with the same ids.
+     * @param argMatrix the matrix
+     * @return true if the users are the same
+     */
+    boolean sameAs(AccessMatrix argMatrix) {
+      if (argMatrix.getUserCount() != byIndex.length) {
+        return false;
+      }
+      for (int u = 0; u < byIndex.length; u++ ) {
+        if (argMatrix.getUser(u) != byIndex[u]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Converts user ids of the matrix into ids across versions.
+     * @param argIds user ids of the matrix
+     * @return the ids across versions
+     */
+    BitSet toShared(BitSet argIds) {
+      BitSet result = new BitSet(userIds.size());
+      for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+        result.set(toShared[i]);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Intervals of versions in which each user had an access to a section, as triples of the section number, the
+   * first version, inclusive, and the last version, exclusive, or {@link AccessHistory#NOW}.
+   * @author bsanchin
+   */
+  static final class Intervals {
+    final int[][][] byUser;
+    final int[][] counts;
+
+    Intervals(int argUserCount) {
+      byUser = new int[][][] {new int[argUserCount][], new int[argUserCount][]};
+      counts = new int[2][argUserCount];
+    }
+
+    void add(int argAccess, int argUser, int argTimeline, int argFrom, int argTo) {
+      int[] spans = byUser[argAccess][argUser];
+      int count = counts[argAccess][argUser];
+      if (spans == null) {
+        spans = new int[6];
+      }
+      else if (count == spans.length) {
+        spans = Arrays.copyOf(spans, count * 2);
+      }
+      spans[count] = argTimeline;
+      spans[count + 1] = argFrom;
+      spans[count + 2] = argTo;
+      byUser[argAccess][argUser] = spans;
+      counts[argAccess][argUser] = count + 3;
+    }
+
+    /**
+     * Returns intervals of the user.
+     * @param argAccess 0 for read, 1 for write
+     * @param argUser id of the user across versions
+     * @return the intervals, as triples
+     */
+    int[] of(int argAccess, int argUser) {
+      int[] spans = byUser[argAccess][argUser];
+      return (spans == null) ? new int[0] : Arrays.copyOf(spans, counts[argAccess][argUser]);
+    }
+  }
+
+  /**
+   * Readers, including writers, and writers of a section in the versions where they changed, in user ids of the
+   * matrix of each version. A null set is a version without the section.
+   * @author bsanchin
+   */
+  static class Timeline {
+    final String id;
+    int[] versions = new int[2];
+    final BitSet[][] states = {new BitSet[2], new BitSet[2]};
+    Users[] users = new Users[2];
+    int size;
+
+    // Last version that has the section, and its sets in the matrix of that version.
+    int seen;
+    BitSet readers;
+    BitSet writers;
+
+    Timeline(String argId) {
+      this.id = argId;
+    }
+
+    /**
+     * Adds the readers and writers of a version, unless they are the same as in the previous entry.
+     * @param argVersion the version
+     * @param argRead users who can read, or null
+     * @param argWrite users who can write, or null
+     * @param argUsers users of the version
+     * @return true if they changed
+     */
+    boolean add(int argVersion, BitSet argRead, BitSet argWrite, Users argUsers) {
+      boolean same = (size > 0) ? equal(0, size - 1, argRead, argUsers) && equal(1, size - 1, argWrite, argUsers)
+          : argRead == null;
+      if (same) {
+        return false;
+      }
+      if (size == versions.length) {
+        versions = Arrays.copyOf(versions, size * 2);
+        states[0] = Arrays.copyOf(states[0], size * 2);
+        states[1] = Arrays.copyOf(states[1], size * 2);
+        users = Arrays.copyOf(users, size * 2);
+      }
+      versions[size] = argVersion;
+      states[0][size] = argRead;
+      states[1][size] = argWrite;
+      users[size] = argUsers;
+      size++ ;
+      return true;
+    }
+
+    /**
+     * Returns true if the entry has the same users as the given set.
+     * @param argAccess 0 for read, 1 for write
+     * @param argEntry the entry
+     * @param argIds user ids, or null
+     * @param argUsers users of the ids
+     * @return true if they are the same
+     */
+    private boolean equal(int argAccess, int argEntry, BitSet argIds, Users argUsers) {
+      BitSet state = states[argAccess][argEntry];
+      if (state == null || argIds == null) {
+        return state == argIds;
+      }
+      if (users[argEntry] == argUsers) {
+        return state.equals(argIds);
+      }
+      return users[argEntry].toShared(state).equals(argUsers.toShared(argIds));
+    }
+
+    /**
+     * Returns users who had the access in some version of the range.
+     * @param argAccess 0 for read, 1 for write
+     * @param argFirst first version, inclusive
+     * @param argLast last version, inclusive
+     * @return ids of the users across versions
+     */
+    BitSet union(int argAccess, int argFirst, int argLast) {
+      BitSet result = new BitSet();
+      for (int i = start(argFirst); i < size && versions[i] <= argLast && argFirst <= argLast; i++ ) {
+        if (states[argAccess][i] != null) {
+          result.or(users[i].toShared(states[argAccess][i]));
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Adds the intervals of every user of this timeline, from the users who gain or lose the access between
+     * entries.
+     * @param argTimeline number of this timeline
+     * @param argIntervals the intervals
+     */
+    void addIntervals(int argTimeline, Intervals argIntervals) {
+      BitSet nobody = new BitSet();
+      for (int a = 0; a < 2; a++ ) {
+        // Users who have the access, by their ids across versions, with the version since when they have it.
+        HashMap<Integer, Integer> since = new HashMap<Integer, Integer>();
+        for (int i = 0; i < size; i++ ) {
+          BitSet current = (states[a][i] != null) ? states[a][i] : nobody;
+          if (i > 0 && users[i] == users[i - 1]) {
+            BitSet flipped = (BitSet) ((states[a][i - 1] != null) ? states[a][i - 1] : nobody).clone();
+            flipped.xor(current);
+            for (int u = flipped.nextSetBit(0); u >= 0; u = flipped.nextSetBit(u + 1)) {
+              int shared = users[i].toShared[u];
+              Integer from = since.remove(shared);
+              if (from == null) {
+                since.put(shared, versions[i]);
+              }
+              else {
+                argIntervals.add(a, shared, argTimeline, from, versions[i]);
+              }
+            }
+            continue;
+          }
+
+          // Ids moved, so users are compared by their ids across versions.
+          BitSet shared = users[i].toShared(current);
+          Iterator<Map.Entry<Integer, Integer>> open = since.entrySet().iterator();
+          while (open.hasNext()) {
+            Map.Entry<Integer, Integer> entry = open.next();
+            if (!shared.get(entry.getKey())) {
+              argIntervals.add(a, entry.getKey(), argTimeline, entry.getValue(), versions[i]);
+              open.remove();
+            }
+          }
+          for (int u = shared.nextSetBit(0); u >= 0; u = shared.nextSetBit(u + 1)) {
+            if (!since.containsKey(u)) {
+              since.put(u, versions[i]);
+            }
+          }
+        }
+        for (Map.Entry<Integer, Integer> entry : since.entrySet()) {
+          argIntervals.add(a, entry.getKey(), argTimeline, entry.getValue(), NOW);
+        }
+      }
+    }
+
+    // Entry in effect at the version, or the first entry after it.
+    private int start(int argVersion) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (versions[middle] <= argVersion) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      return Math.max(0, low - 1);
+    }
+  }
+
+}
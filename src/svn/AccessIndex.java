@@ -0,0 +1,248 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Answers point lookups on the access matrix without generating a report, such as who can write a repository,
+ * what a user can read, or which groups a user belongs to.
+ * <p>
+ * The index is built once from an access matrix: names of users, groups, and repositories are hashed to their
+ * ids, and flattened group memberships are inverted into the groups of each user. Every lookup is then a hash
+ * lookup followed by a walk over a single bit set of the matrix, so that it takes time in the size of its answer
+ * only. Answers are ids in their sorted order.
+ * <p>
+ * A repository is looked up by its section, with or without brackets, such as <code>[repo:/trunk]</code> or
+ * <code>repo:/trunk</code>. A bare name, such as <code>repo</code>, is the root of the repository.
+ * @author bsanchin
+ */
+public class AccessIndex {
+
+  protected final AccessMatrix matrix;
+
+  // Ids of users, groups, and repos by their names. Repos are keyed by their normalized name and path.
+  protected final HashMap<String, Integer> userIds;
+  protected final HashMap<String, Integer> groupIds;
+  protected final HashMap<String, Integer> repoIds;
+
+  // Groups of each user, including groups of their groups, indexed by user id.
+  protected final BitSet[] groupsByUser;
+
+  // Explains access, built on the first explanation.
+  private volatile AccessExplainer explainer;
+
+  /**
+   * Builds the index of the given matrix.
+   * @param argMatrix the access matrix
+   */
+  public AccessIndex(AccessMatrix argMatrix) {
+    this.matrix = argMatrix;
+
+    userIds = new HashMap<String, Integer>(matrix.getUserCount() * 2);
+    for (int i = 0; i < matrix.getUserCount(); i++ ) {
+      userIds.put(matrix.getUser(i).id, i);
+    }
+    groupIds = new HashMap<String, Integer>(matrix.getGroupCount() * 2);
+    for (int i = 0; i < matrix.getGroupCount(); i++ ) {
+      groupIds.put(matrix.getGroup(i).id, i);
+    }
+    repoIds = new HashMap<String, Integer>(matrix.getRepoCount() * 2);
+    for (int i = 0; i < matrix.getRepoCount(); i++ ) {
+      repoIds.put(key(matrix.getRepo(i)), i);
+    }
+
+    groupsByUser = new BitSet[matrix.getUserCount()];
+    for (int u = 0; u < groupsByUser.length; u++ ) {
+      groupsByUser[u] = new BitSet(matrix.getGroupCount());
+    }
+    for (int g = 0; g < matrix.getGroupCount(); g++ ) {
+      BitSet members = matrix.getMembers(matrix.getGroup(g));
+      for (int u = members.nextSetBit(0); u >= 0; u = members.nextSetBit(u + 1)) {
+        groupsByUser[u].set(g);
+      }
+    }
+  }
+
+  /**
+   * Returns users who can read the repository, including its writers.
+   * @param argRepo the repository section
+   * @return user ids
+   */
+  public List<String> getReaders(String argRepo) {
+    Repo repo = repo(argRepo);
+    return users(matrix.getReadersAndWriters(repo));
+  }
+
+  /**
+   * Returns users who can write the repository.
+   * @param argRepo the repository section
+   * @return user ids
+   */
+  public List<String> getWriters(String argRepo) {
+    return users(matrix.getWriters(repo(argRepo)));
+  }
+
+  /**
+   * Returns repositories that the user can read, including the writable ones.
+   * @param argUser the user id
+   * @return repository sections
+   */
+  public List<String> getReadable(String argUser) {
+    User user = user(argUser);
+    return repos(matrix.getReadableAndWritable(user));
+  }
+
+  /**
+   * Returns repositories that the user can write.
+   * @param argUser the user id
+   * @return repository sections
+   */
+  public List<String> getWritable(String argUser) {
+    return repos(matrix.getWritable(user(argUser)));
+  }
+
+  /**
+   * Returns true if the user can read the repository.
+   * @param argUser the user id
+   * @param argRepo the repository section
+   * @return true if the user can read it
+   */
+  public boolean canRead(String argUser, String argRepo) {
+    User user = user(argUser);
+    Repo repo = repo(argRepo);
+    return matrix.getReaders(repo).get(user.index) || matrix.getWriters(repo).get(user.index);
+  }
+
+  /**
+   * Returns true if the user can write the repository.
+   * @param argUser the user id
+   * @param argRepo the repository section
+   * @return true if the user can write it
+   */
+  public boolean canWrite(String argUser, String argRepo) {
+    return matrix.getWriters(repo(argRepo)).get(user(argUser).index);
+  }
+
+  /**
+   * Explains why the user has, or does not have, the access to the repository, see {@link AccessExplainer}.
+   * @param argUser the user id
+   * @param argRepo the repository section
+   * @param argAccess read or write
+   * @return the explanation
+   */
+  public AccessExplainer.Explanation explain(String argUser, String argRepo, String argAccess) {
+    int access;
+    if (argAccess.equals("read")) {
+      access = AccessRule.READ;
+    }
+    else if (argAccess.equals("write")) {
+      access = AccessRule.WRITE;
+    }
+    else {
+      throw new IllegalArgumentException("Unknown access: " + argAccess);
+    }
+    return getExplainer().explain(user(argUser), repo(argRepo), access);
+  }
+
+  /**
+   * Returns the explainer of the matrix, building its reverse membership index on first use.
+   * @return the explainer
+   */
+  public AccessExplainer getExplainer() {
+    AccessExplainer result = explainer;
+    if (result == null) {
+      synchronized (this) {
+        result = explainer;
+        if (result == null) {
+          result = new AccessExplainer(matrix);
+          explainer = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns groups that the user belongs to, directly or through other groups.
+   * @param argUser the user id
+   * @return group ids
+   */
+  public List<String> getGroups(String argUser) {
+    BitSet ids = groupsByUser[user(argUser).index];
+    List<String> result = new ArrayList<String>(ids.cardinality());
+    for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+      result.add(matrix.getGroup(i).id);
+    }
+    return result;
+  }
+
+  /**
+   * Returns users of the group, including users of its sub groups.
+   * @param argGroup the group id, with or without <code>@</code>
+   * @return user ids
+   */
+  public List<String> getMembers(String argGroup) {
+    String id = argGroup.startsWith("@") ? argGroup.substring(1) : argGroup;
+    Integer index = groupIds.get(id);
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown group: " + argGroup);
+    }
+    return users(matrix.getMembers(matrix.getGroup(index)));
+  }
+
+  private User user(String argUser) {
+    Integer index = userIds.get(argUser);
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown user: " + argUser);
+    }
+    return matrix.getUser(index);
+  }
+
+  private Repo repo(String argRepo) {
+    String header = argRepo.trim();
+    if (!header.startsWith("[")) {
+      header = "[" + header + "]";
+    }
+    Integer index = repoIds.get(key(new Repo(header)));
+    if (index == null) {
+      throw new IllegalArgumentException("Unknown repository: " + argRepo);
+    }
+    return matrix.getRepo(index);
+  }
+
+  /**
+   * Returns the key of a section, its name and its normalized path, so that the same section could be written
+   * in different ways.
+   * @param argRepo the section
+   * @return the key
+   */
+  static String key(Repo argRepo) {
+    return key(argRepo.name, argRepo.path);
+  }
+
+  /**
+   * Returns the key of a section with the given name and normalized path.
+   * @param argName name of the repository, null for every repository
+   * @param argPath normalized path
+   * @return the key
+   */
+  static String key(String argName, String argPath) {
+    return ((argName == null) ? "" : argName) + ":" + argPath;
+  }
+
+  private List<String> users(BitSet argIds) {
+    List<String> result = new ArrayList<String>(argIds.cardinality());
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      result.add(matrix.getUser(i).id);
+    }
+    return result;
+  }
+
+  private List<String> repos(BitSet argIds) {
+    List<String> result = new ArrayList<String>(argIds.cardinality());
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      result.add(matrix.getRepo(i).id);
+    }
+    return result;
+  }
+
+}
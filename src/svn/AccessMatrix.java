@@ -0,0 +1,763 @@
+package svn;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A user to repository access matrix that is built once after the access configuration file is parsed.
+ * <p>
+ * Users, groups, and repositories are given dense integer ids in their natural (sorted) order. Flattened group
+ * memberships, readers and writers of each repository, and the transposed readable and writable repositories
+ * of each user are kept as bit sets, so that every access query is answered without re-flattening groups.
+ * Readers and writers are effective ones, that is after path inheritance and overrides, see
+ * {@link PathPermissions}. The transposed bit sets can be left out, when users are far too many to keep a bit
+ * set of each one, and repos of a user are then found when they are asked for.
+ * <p>
+ * When only members of groups or rules of sections change, the matrix is brought up to date with
+ * {@link #update(BitSet, ForkJoinPool)} instead of being built again. When users or sections are added or
+ * removed as well, existing bit sets are moved to the new ids, see
+ * {@link #update(TreeMap, TreeMap, Collection, ForkJoinPool)}.
+ * <p>
+ * Derived views, such as the readers and writers of a repository together, are kept in {@link AccessViews}.
+ * Bit sets returned from this class are shared. Callers must not modify them.
+ * @author bsanchin
+ */
+public class AccessMatrix {
+
+  protected User[] userById;
+  protected final Group[] groupById;
+  protected Repo[] repoById;
+
+  // Flattened users of each group, indexed by group id, and groups that contain themselves.
+  protected BitSet[] membersByGroup;
+  protected List<TreeSet<Group>> cycles;
+
+  // Effective access of each section on its path.
+  protected final PathPermissions permissions;
+
+  // Readers and writers of each repo, indexed by repo id.
+  protected BitSet[] readersByRepo;
+  protected BitSet[] writersByRepo;
+
+  // Readable and writable repos of each user, indexed by user id, null if the matrix is not transposed.
+  protected BitSet[] readableByUser;
+  protected BitSet[] writableByUser;
+
+  // Users whose readable or writable repos changed in the last update.
+  protected BitSet changedUsers = new BitSet();
+
+  // Derived views, such as readers and writers of a repo together, computed once for each version.
+  protected final AccessViews views;
+
+  /**
+   * Assigns ids to the given entities and builds the matrix on the common fork-join pool.
+   * @param argUsers users
+   * @param argGroups groups
+   * @param argRepos repositories
+   */
+  public AccessMatrix(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos) {
+    this(argUsers, argGroups, argRepos, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Assigns ids to the given entities and builds the matrix. Entities are attached to this matrix, so that
+   * their access queries would be answered from here.
+   * @param argUsers users
+   * @param argGroups groups
+   * @param argRepos repositories
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   */
+  public AccessMatrix(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, ForkJoinPool argPool) {
+    this(argUsers, argGroups, argRepos, argPool, AccessViews.DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Assigns ids to the given entities and builds the matrix, with a budget for its derived views.
+   * @param argUsers users
+   * @param argGroups groups
+   * @param argRepos repositories
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   * @param argViewCapacity bytes of bit sets that each kind of derived views may keep, see {@link AccessViews}
+   */
+  public AccessMatrix(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, ForkJoinPool argPool, long argViewCapacity) {
+    this(argUsers, argGroups, argRepos, argPool, argViewCapacity, true);
+  }
+
+  /**
+   * Assigns ids to the given entities and builds the matrix, with a budget for its derived views. A matrix that
+   * is not transposed keeps no bit sets of users, which cost a bit per repository for every user, and finds
+   * repos of users in the readers and writers of every repo instead, see {@link #getRepos(int, int, boolean)}.
+   * @param argUsers users
+   * @param argGroups groups
+   * @param argRepos repositories
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   * @param argViewCapacity bytes of bit sets that each kind of derived views may keep, see {@link AccessViews}
+   * @param argTransposed whether readable and writable repos of each user are kept
+   */
+  public AccessMatrix(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, ForkJoinPool argPool, long argViewCapacity, boolean argTransposed) {
+    views = new AccessViews(this, argViewCapacity);
+    userById = argUsers.values().toArray(new User[argUsers.size()]);
+    groupById = argGroups.values().toArray(new Group[argGroups.size()]);
+    repoById = argRepos.values().toArray(new Repo[argRepos.size()]);
+    attach();
+
+    RunStats.Span span = RunStats.begin("closure");
+    GroupClosure closure = new GroupClosure(this, argPool);
+    membersByGroup = closure.getMembersByGroup();
+    cycles = closure.getCycles();
+    span.end();
+
+    // Readers are the users who can read but cannot write, writers are the users who can write.
+    span = RunStats.begin("permissions");
+    permissions = new PathPermissions(this);
+    BitSet[] readable = new BitSet[repoById.length];
+    writersByRepo = new BitSet[repoById.length];
+    permissions.computeEffective(readable, writersByRepo);
+    readersByRepo = new BitSet[repoById.length];
+    for (int i = 0; i < repoById.length; i++ ) {
+      readersByRepo[i] = (BitSet) readable[i].clone();
+      readersByRepo[i].andNot(writersByRepo[i]);
+    }
+    RunStats.count("set.operations", repoById.length);
+    span.end();
+
+    if (argTransposed) {
+      span = RunStats.begin("transpose");
+      readableByUser = transpose(readersByRepo);
+      writableByUser = transpose(writersByRepo);
+      span.end();
+    }
+    else {
+      readableByUser = null;
+      writableByUser = null;
+    }
+  }
+
+  /**
+   * Builds the matrix from flattened groups and effective readers and writers that were computed before, see
+   * {@link ModelSnapshot}. Entities are attached to this matrix.
+   * @param argUsers users
+   * @param argGroups groups
+   * @param argRepos repositories
+   * @param argMembersByGroup flattened users of each group
+   * @param argCycles groups that contain themselves
+   * @param argReadersByRepo users who can read but cannot write each repo
+   * @param argWritersByRepo users who can write each repo
+   * @param argViewCapacity bytes of bit sets that each kind of derived views may keep, see {@link AccessViews}
+   * @param argTransposed whether readable and writable repos of each user are kept
+   */
+  AccessMatrix(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups, TreeMap<String, Repo> argRepos,
+      BitSet[] argMembersByGroup, List<TreeSet<Group>> argCycles, BitSet[] argReadersByRepo,
+      BitSet[] argWritersByRepo, long argViewCapacity, boolean argTransposed) {
+    views = new AccessViews(this, argViewCapacity);
+    userById = argUsers.values().toArray(new User[argUsers.size()]);
+    groupById = argGroups.values().toArray(new Group[argGroups.size()]);
+    repoById = argRepos.values().toArray(new Repo[argRepos.size()]);
+    attach();
+
+    membersByGroup = argMembersByGroup;
+    cycles = argCycles;
+    permissions = new PathPermissions(this);
+    readersByRepo = argReadersByRepo;
+    writersByRepo = argWritersByRepo;
+
+    readableByUser = argTransposed ? transpose(readersByRepo) : null;
+    writableByUser = argTransposed ? transpose(writersByRepo) : null;
+  }
+
+  /**
+   * Takes over the entities and cycles of another matrix, but none of its access, for a matrix that keeps
+   * access in a form of its own, see {@link FrozenModel}. Entities keep their ids, and are attached to the new
+   * matrix, so the other matrix is no longer usable. Views have the same budget, and start empty.
+   * @param argMatrix the other matrix
+   */
+  protected AccessMatrix(AccessMatrix argMatrix) {
+    views = new AccessViews(this, argMatrix.views.capacity);
+    userById = argMatrix.userById;
+    groupById = argMatrix.groupById;
+    repoById = argMatrix.repoById;
+    cycles = argMatrix.cycles;
+    permissions = null;
+    readersByRepo = null;
+    writersByRepo = null;
+    readableByUser = null;
+    writableByUser = null;
+    attach();
+  }
+
+  /**
+   * Gives ids to the entities in their order, and attaches them to this matrix.
+   */
+  private void attach() {
+    for (int i = 0; i < userById.length; i++ ) {
+      userById[i].index = i;
+      userById[i].matrix = this;
+    }
+    for (int i = 0; i < groupById.length; i++ ) {
+      groupById[i].index = i;
+      groupById[i].matrix = this;
+      groupById[i].resetAllUsers();
+    }
+    for (int i = 0; i < repoById.length; i++ ) {
+      repoById[i].index = i;
+      repoById[i].matrix = this;
+    }
+  }
+
+  /**
+   * Brings the matrix up to date after members of groups or rules of the given sections changed. Users, groups,
+   * and repositories must be the same ones, so that their ids stay the same. Groups are flattened again, and
+   * only the sections whose rules changed, or whose rules refer to groups with changed members, are resolved
+   * again.
+   * @param argChanged ids of the sections whose rules changed
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   * @return ids of the repos whose readers or writers changed
+   */
+  public BitSet update(BitSet argChanged, ForkJoinPool argPool) {
+    changedUsers = new BitSet(userById.length);
+    return resolve(argChanged, argPool);
+  }
+
+  /**
+   * Brings the matrix up to date after users or sections were added or removed, besides the changes that
+   * {@link #update(BitSet, ForkJoinPool)} handles. Groups must be the same ones. Users and sections that stay
+   * keep their order, so ids are still in the natural order, and bit sets are moved to the new ids instead of
+   * being computed again. Then only changed and added sections, sections with rules that apply to users they do
+   * not name, if users were added, and sections that refer to groups with changed members are resolved again.
+   * @param argUsers current users
+   * @param argRepos current sections
+   * @param argChanged sections whose rules changed, added sections need not be among them
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   * @return ids of the repos whose readers or writers changed, added repos and repos of removed users included
+   */
+  public BitSet update(TreeMap<String, User> argUsers, TreeMap<String, Repo> argRepos,
+      Collection<Repo> argChanged, ForkJoinPool argPool) {
+    User[] users = argUsers.values().toArray(new User[argUsers.size()]);
+    Repo[] repos = argRepos.values().toArray(new Repo[argRepos.size()]);
+
+    // New id of every user and section by its current id, -1 if it is removed.
+    boolean usersAdded = false;
+    int[] userMap = new int[userById.length];
+    Arrays.fill(userMap, -1);
+    for (int i = 0; i < users.length; i++ ) {
+      if (users[i].matrix == this) {
+        userMap[users[i].index] = i;
+      }
+      else {
+        usersAdded = true;
+      }
+    }
+    List<Repo> added = new ArrayList<Repo>();
+    int[] repoMap = new int[repoById.length];
+    Arrays.fill(repoMap, -1);
+    for (int i = 0; i < repos.length; i++ ) {
+      if (repos[i].matrix == this) {
+        repoMap[repos[i].index] = i;
+      }
+      else {
+        added.add(repos[i]);
+      }
+    }
+    userMap = unlessIdentity(userMap);
+    repoMap = unlessIdentity(repoMap);
+
+    // Users of removed repos lose their access, and repos of removed users lose their users.
+    changedUsers = new BitSet(users.length);
+    BitSet removedUsers = new BitSet(userById.length);
+    for (int u = 0; userMap != null && u < userMap.length; u++ ) {
+      removedUsers.set(u, userMap[u] < 0);
+    }
+    BitSet result = new BitSet(repos.length);
+    for (int r = 0; r < repoById.length; r++ ) {
+      int to = (repoMap == null) ? r : repoMap[r];
+      if (to < 0) {
+        changedUsers.or(move(readersByRepo[r], userMap, users.length));
+        changedUsers.or(move(writersByRepo[r], userMap, users.length));
+      }
+      else if (readersByRepo[r].intersects(removedUsers) || writersByRepo[r].intersects(removedUsers)) {
+        result.set(to);
+      }
+    }
+
+    RunStats.Span span = RunStats.begin("move");
+    for (int g = 0; g < membersByGroup.length; g++ ) {
+      membersByGroup[g] = move(membersByGroup[g], userMap, users.length);
+    }
+    readersByRepo = move(readersByRepo, repoMap, repos.length, userMap, users.length);
+    writersByRepo = move(writersByRepo, repoMap, repos.length, userMap, users.length);
+    if (readableByUser != null) {
+      readableByUser = move(readableByUser, userMap, users.length, repoMap, repos.length);
+      writableByUser = move(writableByUser, userMap, users.length, repoMap, repos.length);
+    }
+    permissions.move(repoMap, repos.length, added, userMap, users.length);
+    for (int u = 0; userMap != null && u < userMap.length; u++ ) {
+      if (userMap[u] < 0) {
+        userById[u].matrix = null;
+      }
+    }
+    for (int r = 0; repoMap != null && r < repoMap.length; r++ ) {
+      if (repoMap[r] < 0) {
+        repoById[r].matrix = null;
+      }
+    }
+    userById = users;
+    repoById = repos;
+    attach();
+    span.end();
+
+    BitSet sections = toRepoIds(argChanged);
+    BitSet addedIds = toRepoIds(added);
+    sections.or(addedIds);
+    result.or(addedIds);
+    if (usersAdded) {
+      for (Repo r : repoById) {
+        for (AccessRule rule : r.rules) {
+          if (rule.inverted || rule.subject == AccessRule.Subject.EVERYONE
+              || rule.subject == AccessRule.Subject.AUTHENTICATED) {
+            sections.set(r.index);
+            break;
+          }
+        }
+      }
+    }
+    result.or(resolve(sections, argPool));
+    return result;
+  }
+
+  /**
+   * Returns users whose readable or writable repos changed in the last update.
+   * @return user ids
+   */
+  public BitSet getChangedUsers() {
+    return changedUsers;
+  }
+
+  /**
+   * Flattens groups again, and resolves the given sections and the sections that refer to groups with changed
+   * members.
+   * @param argChanged ids of the sections to be resolved
+   * @param argPool pool that flattens groups in parallel, null to flatten them on the calling thread
+   * @return ids of the repos whose readers or writers changed
+   */
+  private BitSet resolve(BitSet argChanged, ForkJoinPool argPool) {
+    views.clear();
+    BitSet[] previous = membersByGroup;
+    RunStats.Span span = RunStats.begin("closure");
+    GroupClosure closure = new GroupClosure(this, argPool);
+    membersByGroup = closure.getMembersByGroup();
+    cycles = closure.getCycles();
+    span.end();
+
+    BitSet changedGroups = new BitSet(groupById.length);
+    for (int i = 0; i < groupById.length; i++ ) {
+      if (!previous[i].equals(membersByGroup[i])) {
+        changedGroups.set(i);
+        groupById[i].resetAllUsers();
+      }
+    }
+
+    BitSet sections = (BitSet) argChanged.clone();
+    if (!changedGroups.isEmpty()) {
+      for (Repo r : repoById) {
+        for (AccessRule rule : r.rules) {
+          if (rule.subject == AccessRule.Subject.GROUP && changedGroups.get(rule.user.index)) {
+            sections.set(r.index);
+            break;
+          }
+        }
+      }
+    }
+
+    // Only sections on the walked paths are given their effective access, others are left null.
+    span = RunStats.begin("permissions");
+    BitSet[] readable = new BitSet[repoById.length];
+    BitSet[] writable = new BitSet[repoById.length];
+    permissions.update(sections, readable, writable);
+    span.end();
+
+    BitSet result = new BitSet(repoById.length);
+    for (int r = 0; r < repoById.length; r++ ) {
+      if (writable[r] == null) {
+        continue;
+      }
+      BitSet readers = (BitSet) readable[r].clone();
+      readers.andNot(writable[r]);
+      if (!readers.equals(readersByRepo[r]) || !writable[r].equals(writersByRepo[r])) {
+        BitSet readFlipped = (BitSet) readersByRepo[r].clone();
+        readFlipped.xor(readers);
+        BitSet writeFlipped = (BitSet) writersByRepo[r].clone();
+        writeFlipped.xor(writable[r]);
+        if (readableByUser != null) {
+          retranspose(readableByUser, r, readFlipped);
+          retranspose(writableByUser, r, writeFlipped);
+        }
+        changedUsers.or(readFlipped);
+        changedUsers.or(writeFlipped);
+        readersByRepo[r] = readers;
+        writersByRepo[r] = writable[r];
+        result.set(r);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Updates the transposed bit sets of the users who gained or lost access to the repo.
+   * @param argByUser repos of each user
+   * @param argRepo the repo id
+   * @param argFlipped users who gained or lost access to the repo
+   */
+  private static void retranspose(BitSet[] argByUser, int argRepo, BitSet argFlipped) {
+    for (int u = argFlipped.nextSetBit(0); u >= 0; u = argFlipped.nextSetBit(u + 1)) {
+      argByUser[u].flip(argRepo);
+    }
+  }
+
+  /**
+   * Returns the given map of current ids to new ids, or null if every current id stays the same, that is if
+   * entities were only added after the current ones.
+   * @param argMap new id of each current id, -1 for removed entities
+   * @return the map, or null
+   */
+  private static int[] unlessIdentity(int[] argMap) {
+    for (int i = 0; i < argMap.length; i++ ) {
+      if (argMap[i] != i) {
+        return argMap;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Moves bits to their new ids. Bits of removed entities are dropped.
+   * @param argIds the bit set
+   * @param argMap new id of each current id, -1 for removed entities, null if ids stay the same
+   * @param argSize number of new ids
+   * @return a new bit set, or the given one if ids stay the same
+   */
+  static BitSet move(BitSet argIds, int[] argMap, int argSize) {
+    if (argMap == null) {
+      return argIds;
+    }
+    BitSet result = new BitSet(argSize);
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      if (argMap[i] >= 0) {
+        result.set(argMap[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Moves bit sets of entities to their new ids, and bits of each of them to their new ids. Added entities are
+   * given empty bit sets.
+   * @param argSets bit sets of each entity
+   * @param argMap new id of each current entity, -1 for removed ones, null if ids stay the same
+   * @param argSize number of new entities
+   * @param argBitMap new id of each current bit, -1 for removed ones, null if ids stay the same
+   * @param argBits number of new bits
+   * @return the bit sets by new ids
+   */
+  static BitSet[] move(BitSet[] argSets, int[] argMap, int argSize, int[] argBitMap, int argBits) {
+    BitSet[] result = new BitSet[argSize];
+    for (int i = 0; i < argSets.length; i++ ) {
+      int to = (argMap == null) ? i : argMap[i];
+      if (to >= 0 && argSets[i] != null) {
+        result[to] = move(argSets[i], argBitMap, argBits);
+      }
+    }
+    for (int i = 0; i < result.length; i++ ) {
+      if (result[i] == null) {
+        result[i] = new BitSet(argBits);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Transposes repo to user bit sets into user to repo bit sets.
+   * @param argByRepo users of each repo
+   * @return repos of each user
+   */
+  private BitSet[] transpose(BitSet[] argByRepo) {
+    BitSet[] result = new BitSet[userById.length];
+    for (int i = 0; i < result.length; i++ ) {
+      result[i] = new BitSet(repoById.length);
+    }
+    for (int r = 0; r < argByRepo.length; r++ ) {
+      BitSet users = argByRepo[r];
+      for (int u = users.nextSetBit(0); u >= 0; u = users.nextSetBit(u + 1)) {
+        result[u].set(r);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Transposes readers or writers of every repo for a range of users only, so that repos of users are found
+   * without keeping them for every user.
+   * @param argFrom id of the first user
+   * @param argTo id past the last user
+   * @param argWritable false for the repos that each user can read but cannot write, true for writable repos
+   * @return new bit sets of repo ids, one for each user of the range
+   */
+  public BitSet[] getRepos(int argFrom, int argTo, boolean argWritable) {
+    BitSet[] result = new BitSet[argTo - argFrom];
+    for (int i = 0; i < result.length; i++ ) {
+      result[i] = new BitSet(repoById.length);
+    }
+    BitSet[] byRepo = argWritable ? writersByRepo : readersByRepo;
+    for (int r = 0; r < byRepo.length; r++ ) {
+      for (int u = byRepo[r].nextSetBit(argFrom); u >= 0 && u < argTo; u = byRepo[r].nextSetBit(u + 1)) {
+        result[u - argFrom].set(r);
+      }
+    }
+    return result;
+  }
+
+  public int getUserCount() {
+    return userById.length;
+  }
+
+  public int getGroupCount() {
+    return groupById.length;
+  }
+
+  public int getRepoCount() {
+    return repoById.length;
+  }
+
+  public User getUser(int argIndex) {
+    return userById[argIndex];
+  }
+
+  public Group getGroup(int argIndex) {
+    return groupById[argIndex];
+  }
+
+  public Repo getRepo(int argIndex) {
+    return repoById[argIndex];
+  }
+
+  /**
+   * Returns groups that contain themselves, one set per cycle.
+   * @return cyclic groups
+   */
+  public List<TreeSet<Group>> getCycles() {
+    return cycles;
+  }
+
+  /**
+   * Returns the path permission engine of this matrix.
+   * @return the path permissions
+   */
+  public PathPermissions getPermissions() {
+    return permissions;
+  }
+
+  /**
+   * Returns flattened users of the given group.
+   * @param argGroup the group
+   * @return user ids
+   */
+  public BitSet getMembers(Group argGroup) {
+    return membersByGroup[indexOf(argGroup)];
+  }
+
+  /**
+   * Returns users who have read access to the given repo.
+   * @param argRepo the repo
+   * @return user ids
+   */
+  public BitSet getReaders(Repo argRepo) {
+    return readersByRepo[indexOf(argRepo)];
+  }
+
+  /**
+   * Returns users who have write access to the given repo.
+   * @param argRepo the repo
+   * @return user ids
+   */
+  public BitSet getWriters(Repo argRepo) {
+    return writersByRepo[indexOf(argRepo)];
+  }
+
+  /**
+   * Returns repos that are readable by the given user. A matrix that is not transposed finds them in the readers of
+   * every repo, once for each version while they stay in the views.
+   * @param argUser the user
+   * @return repo ids
+   */
+  public BitSet getReadable(User argUser) {
+    int u = indexOf(argUser);
+    return (readableByUser != null) ? readableByUser[u] : views.get(AccessViews.READABLE, u);
+  }
+
+  /**
+   * Returns repos that are writable by the given user. A matrix that is not transposed finds them in the writers of
+   * every repo, once for each version while they stay in the views.
+   * @param argUser the user
+   * @return repo ids
+   */
+  public BitSet getWritable(User argUser) {
+    int u = indexOf(argUser);
+    return (writableByUser != null) ? writableByUser[u] : views.get(AccessViews.WRITABLE, u);
+  }
+
+  /**
+   * Returns users who have read or write access to the given repo.
+   * @param argRepo the repo
+   * @return user ids
+   */
+  public BitSet getReadersAndWriters(Repo argRepo) {
+    return views.get(AccessViews.READERS_AND_WRITERS, indexOf(argRepo));
+  }
+
+  /**
+   * Returns repos that are readable or writable by the given user.
+   * @param argUser the user
+   * @return repo ids
+   */
+  public BitSet getReadableAndWritable(User argUser) {
+    return views.get(AccessViews.READABLE_AND_WRITABLE, indexOf(argUser));
+  }
+
+  /**
+   * Computes a view that is not in the cache, see {@link AccessViews}.
+   * @param argKind kind of the view
+   * @param argIndex id of the entity
+   * @return the view
+   */
+  protected BitSet computeView(int argKind, int argIndex) {
+    switch (argKind) {
+      case AccessViews.READERS_AND_WRITERS:
+        return or(getReaders(repoById[argIndex]), getWriters(repoById[argIndex]));
+      case AccessViews.READABLE_AND_WRITABLE:
+        return or(getReadable(userById[argIndex]), getWritable(userById[argIndex]));
+      case AccessViews.READABLE:
+        return getRepos(argIndex, argIndex + 1, false)[0];
+      case AccessViews.WRITABLE:
+        return getRepos(argIndex, argIndex + 1, true)[0];
+      default:
+        throw new IllegalArgumentException("Unknown view: " + argKind);
+    }
+  }
+
+  /**
+   * Returns union of the two bit sets without modifying either.
+   * @param argFirst first bit set
+   * @param argSecond second bit set
+   * @return union of the bit sets
+   */
+  public static BitSet or(BitSet argFirst, BitSet argSecond) {
+    BitSet result = (BitSet) argFirst.clone();
+    result.or(argSecond);
+    return result;
+  }
+
+  /**
+   * Converts user ids into a sorted set of users.
+   * @param argIds user ids
+   * @return users
+   */
+  public TreeSet<User> toUsers(BitSet argIds) {
+    TreeSet<User> result = new TreeSet<User>();
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      result.add(userById[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Converts repo ids into a sorted set of repos.
+   * @param argIds repo ids
+   * @return repos
+   */
+  public TreeSet<Repo> toRepos(BitSet argIds) {
+    TreeSet<Repo> result = new TreeSet<Repo>();
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      result.add(repoById[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Converts given repos into repo ids. Repos that are not part of this matrix are ignored.
+   * @param argRepos repos
+   * @return repo ids
+   */
+  public BitSet toRepoIds(Collection<Repo> argRepos) {
+    BitSet result = new BitSet(repoById.length);
+    for (Repo r : argRepos) {
+      if (r.matrix == this) {
+        result.set(r.index);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Converts given users into user ids. Users that are not part of this matrix are ignored.
+   * @param argUsers users
+   * @return user ids
+   */
+  public BitSet toUserIds(Collection<User> argUsers) {
+    BitSet result = new BitSet(userById.length);
+    for (User u : argUsers) {
+      if (u.matrix == this) {
+        result.set(u.index);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Converts given groups into group ids. Groups that are not part of this matrix are ignored.
+   * @param argGroups groups
+   * @return group ids
+   */
+  public BitSet toGroupIds(Collection<Group> argGroups) {
+    BitSet result = new BitSet(groupById.length);
+    for (Group g : argGroups) {
+      if (g.matrix == this) {
+        result.set(g.index);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the user id of the user. A group has an id of its own among groups, so it is not taken for the user
+   * with the same id.
+   * @param argUser the user
+   * @return user id
+   */
+  protected int indexOf(User argUser) {
+    if (argUser instanceof Group) {
+      throw new IllegalArgumentException("Not a user: @" + argUser);
+    }
+    if (argUser.matrix != this) {
+      throw new IllegalArgumentException("Not part of the access matrix: " + argUser);
+    }
+    return argUser.index;
+  }
+
+  protected int indexOf(Group argGroup) {
+    if (argGroup.matrix != this) {
+      throw new IllegalArgumentException("Not part of the access matrix: " + argGroup);
+    }
+    return argGroup.index;
+  }
+
+  protected int indexOf(Repo argRepo) {
+    if (argRepo.matrix != this) {
+      throw new IllegalArgumentException("Not part of the access matrix: " + argRepo);
+    }
+    return argRepo.index;
+  }
+
+}
@@ -0,0 +1,122 @@
+package svn;
+
+import java.util.BitSet;
+
+/**
+ * A single access rule of a repository section, such as <code>@devs = rw</code>, <code>jdoe = r</code>,
+ * <code>* =</code>, <code>~@contractors = r</code>, or <code>$authenticated = r</code>.
+ * <p>
+ * A rule applies to a subject, that is a user, a group, everyone (<code>*</code>), authenticated users, or
+ * anonymous users. An inverted rule (<code>~</code>) applies to everybody but its subject. Every user of the
+ * access configuration file is authenticated, so <code>$anonymous</code> never applies to any of them.
+ * @author bsanchin
+ */
+public class AccessRule {
+
+  enum Subject {
+    USER, GROUP, EVERYONE, AUTHENTICATED, ANONYMOUS
+  }
+
+  static final int NONE = 0;
+  static final int READ = 1;
+  static final int WRITE = 2;
+
+  final Subject subject;
+
+  // The user or the group of the rule, null for other subjects.
+  final User user;
+
+  final boolean inverted;
+
+  // Access that is granted by this rule, a combination of READ and WRITE.
+  final int access;
+
+  AccessRule(Subject argSubject, User argUser, boolean argInverted, int argAccess) {
+    this.subject = argSubject;
+    this.user = argUser;
+    this.inverted = argInverted;
+    this.access = argAccess;
+  }
+
+  /**
+   * Returns true if this rule applies to the given user.
+   * @param argUser the user
+   * @return true if the rule applies
+   */
+  boolean appliesTo(User argUser) {
+    boolean result;
+    switch (subject) {
+      case USER:
+        result = (user == argUser);
+        break;
+      case GROUP:
+        result = user.matrix.getMembers((Group) user).get(argUser.index);
+        break;
+      case ANONYMOUS:
+        result = false;
+        break;
+      default:
+        result = true;
+    }
+    return result != inverted;
+  }
+
+  /**
+   * Returns users of the matrix this rule applies to.
+   * @param argMatrix the access matrix
+   * @return user ids
+   */
+  BitSet appliesTo(AccessMatrix argMatrix) {
+    BitSet result;
+    switch (subject) {
+      case USER:
+        result = new BitSet(argMatrix.getUserCount());
+        result.set(user.index);
+        break;
+      case GROUP:
+        result = (BitSet) argMatrix.getMembers((Group) user).clone();
+        break;
+      case ANONYMOUS:
+        result = new BitSet(argMatrix.getUserCount());
+        break;
+      default:
+        result = new BitSet(argMatrix.getUserCount());
+        result.set(0, argMatrix.getUserCount());
+    }
+    if (inverted) {
+      result.flip(0, argMatrix.getUserCount());
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if this is a plain group rule, that is a non inverted rule of a group or everyone that grants
+   * some access. Plain rules are the readers and writers of a repository.
+   * @return true if this is a plain group rule
+   */
+  boolean isPlainGroupRule() {
+    return !inverted && (subject == Subject.GROUP || subject == Subject.EVERYONE) && access != NONE;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    String name;
+    switch (subject) {
+      case EVERYONE:
+        name = "*";
+        break;
+      case AUTHENTICATED:
+        name = "$authenticated";
+        break;
+      case ANONYMOUS:
+        name = "$anonymous";
+        break;
+      default:
+        name = user.toString();
+    }
+    return (inverted ? "~" : "") + name + " = " + ((access & READ) != 0 ? "r" : "")
+        + ((access & WRITE) != 0 ? "w" : "");
+  }
+
+}
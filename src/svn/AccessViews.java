@@ -0,0 +1,138 @@
+package svn;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Derived access views of a model, such as the readers and writers of a repository together, kept once they are
+ * computed, so that grouping, every section of the report, queries, and served pages share them.
+ * <p>
+ * A view is keyed by its kind and the id of its entity, and is computed by the access matrix that owns the views,
+ * see {@link AccessMatrix#computeView(int, int)}. Views are dropped when the matrix is updated, so a view is
+ * computed once for each version of the model while it stays in the cache. Each kind has a slot for each entity,
+ * so that a hit is a single array read, and its own budget of bytes of bit sets, so that a pass over the repos
+ * never drops the views of users. The budget is given by the matrix, see <code>--view-cache</code>, so that
+ * matrices of several files each keep their own views. When a kind is over its budget, views are dropped in the
+ * order of their entities, from where the previous drop stopped, so that long running server and watch modes do
+ * not grow with the number of pages that were asked for. Hits, misses, and evictions are counted as
+ * <code>views.hits</code>, <code>views.misses</code>, and <code>views.evictions</code>, see {@link RunStats}.
+ * <p>
+ * Returned bit sets are shared. Callers must not modify them.
+ * @author bsanchin
+ */
+public class AccessViews {
+
+  // Kinds of views, users who can read or write a repo, repos that a user can read or write, and repos that a
+  // user can read or can write, when the matrix keeps no repos of each user.
+  static final int READERS_AND_WRITERS = 0;
+  static final int READABLE_AND_WRITABLE = 1;
+  static final int READABLE = 2;
+  static final int WRITABLE = 3;
+  static final int KINDS = 4;
+
+  // Bytes of bit sets that each kind of views of a matrix keeps unless told otherwise, see --view-cache.
+  static final long DEFAULT_CAPACITY = 64L << 20;
+
+  // Bytes of a view besides the words of its bit set.
+  private static final int VIEW_BYTES = 48;
+
+  protected final AccessMatrix matrix;
+
+  // Bytes of bit sets that each kind of views may keep.
+  protected final long capacity;
+
+  // Views of each kind by the ids of their entities, created on first use.
+  private final Slots[] slots = new Slots[KINDS];
+
+  AccessViews(AccessMatrix argMatrix, long argCapacity) {
+    this.matrix = argMatrix;
+    this.capacity = argCapacity;
+  }
+
+  /**
+   * Returns a view, computing it if it is not in the cache. Two threads that miss the same view at once may
+   * both compute it, and either one is kept.
+   * @param argKind kind of the view
+   * @param argIndex id of the entity
+   * @return the view
+   */
+  BitSet get(int argKind, int argIndex) {
+    Slots views = slots(argKind);
+    BitSet result = views.get(argIndex);
+    if (result != null) {
+      RunStats.count("views.hits", 1);
+      return result;
+    }
+    RunStats.count("views.misses", 1);
+    result = matrix.computeView(argKind, argIndex);
+    views.put(argIndex, result);
+    return result;
+  }
+
+  private synchronized Slots slots(int argKind) {
+    if (slots[argKind] == null) {
+      slots[argKind] = new Slots((argKind == READERS_AND_WRITERS) ? matrix.getRepoCount() : matrix.getUserCount(),
+          capacity);
+    }
+    return slots[argKind];
+  }
+
+  /**
+   * Drops every view, once the model they were computed from changed.
+   */
+  synchronized void clear() {
+    for (int i = 0; i < KINDS; i++ ) {
+      slots[i] = null;
+    }
+  }
+
+  /**
+   * Views of a kind, with the bytes they keep.
+   * @author bsanchin
+   */
+  static final class Slots
+      extends AtomicReferenceArray<BitSet> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long capacity;
+    private long bytes;
+
+    // Where the next drop starts.
+    private int hand;
+
+    Slots(int argSize, long argCapacity) {
+      super(argSize);
+      this.capacity = argCapacity;
+    }
+
+    synchronized void put(int argIndex, BitSet argView) {
+      long weight = weight(argView);
+      if (weight > capacity) {
+        return;
+      }
+      BitSet previous = getAndSet(argIndex, argView);
+      bytes += weight - ((previous == null) ? 0 : weight(previous));
+      long evicted = 0;
+      for (int swept = 0; bytes > capacity && swept < length(); swept++ ) {
+        int i = hand;
+        hand = (hand + 1) % length();
+        if (i != argIndex) {
+          BitSet view = getAndSet(i, null);
+          if (view != null) {
+            bytes -= weight(view);
+            evicted++ ;
+          }
+        }
+      }
+      if (evicted > 0) {
+        RunStats.count("views.evictions", evicted);
+      }
+    }
+
+    private static long weight(BitSet argView) {
+      return argView.size() / 8 + VIEW_BYTES;
+    }
+  }
+
+}
@@ -0,0 +1,222 @@
+package svn;
+
+/**
+ * A line of the access configuration file, classified and tokenized by a single pass over its chars.
+ * <p>
+ * A line is one of:
+ * <ul>
+ * <li>{@link Kind#BLANK}: nothing but white space
+ * <li>{@link Kind#COMMENT}: starts with <code>#</code>
+ * <li>{@link Kind#SECTION}: <code>[groups]</code>, <code>[repo:/path]</code>
+ * <li>{@link Kind#KEY_VALUE}: <code>devs = john, @admins</code>, <code>@devs = rw</code>
+ * <li>{@link Kind#CONTINUATION}: anything else, that is more members of the current group
+ * </ul>
+ * <p>
+ * No regular expressions are used and no arrays are allocated. Members of the value are read one by one with
+ * {@link #nextMember()}. An instance is reused for every line of the file. Names are interned through a
+ * {@link NameTable}, so only distinct names become strings.
+ * @author bsanchin
+ */
+public final class AuthzLine {
+
+  enum Kind {
+    BLANK, COMMENT, SECTION, KEY_VALUE, CONTINUATION
+  }
+
+  Kind kind;
+  CharSequence text;
+
+  // Interns names that are read from lines.
+  final NameTable names;
+
+  // Trimmed key of a key value line, or name of a section without brackets.
+  int keyStart;
+  int keyEnd;
+
+  // Trimmed value of a key value line, or the whole trimmed continuation line.
+  int valueStart;
+  int valueEnd;
+
+  // Current member of the value, see nextMember().
+  int memberStart;
+  int memberEnd;
+  private int cursor;
+
+  AuthzLine(NameTable argNames) {
+    this.names = argNames;
+  }
+
+  /**
+   * Classifies the given line and finds its key and value.
+   * @param argText the line
+   * @return this line
+   */
+  AuthzLine scan(CharSequence argText) {
+    text = argText;
+    keyStart = keyEnd = valueStart = valueEnd = 0;
+    memberStart = memberEnd = 0;
+
+    int start = skipSpace(0, argText.length());
+    int end = trimEnd(start, argText.length());
+    if (start == end) {
+      kind = Kind.BLANK;
+      return this;
+    }
+
+    char first = argText.charAt(start);
+    if (first == '#') {
+      kind = Kind.COMMENT;
+    }
+    else if (first == '[') {
+      kind = Kind.SECTION;
+      int close = end;
+      while (close > start + 1 && argText.charAt(close - 1) != ']') {
+        close-- ;
+      }
+      keyStart = start + 1;
+      keyEnd = (close > start + 1) ? close - 1 : end;
+      valueStart = start;
+      valueEnd = end;
+    }
+    else {
+      int equal = start;
+      while (equal < end && argText.charAt(equal) != '=') {
+        equal++ ;
+      }
+      if (equal < end) {
+        kind = Kind.KEY_VALUE;
+        keyStart = start;
+        keyEnd = trimEnd(start, equal);
+        valueStart = skipSpace(equal + 1, end);
+        valueEnd = end;
+      }
+      else {
+        kind = Kind.CONTINUATION;
+        valueStart = start;
+        valueEnd = end;
+      }
+    }
+    cursor = valueStart;
+    return this;
+  }
+
+  /**
+   * Returns true if the line has nothing to process, that is a blank line or a comment.
+   * @return true if the line should be skipped
+   */
+  boolean isSkipped() {
+    return kind == Kind.BLANK || kind == Kind.COMMENT;
+  }
+
+  /**
+   * Moves to the next comma separated member of the value. Surrounding white space and empty members are
+   * skipped.
+   * @return true if there is one more member, that is between memberStart and memberEnd
+   */
+  boolean nextMember() {
+    while (cursor < valueEnd) {
+      int start = skipSpace(cursor, valueEnd);
+      int comma = start;
+      while (comma < valueEnd && text.charAt(comma) != ',') {
+        comma++ ;
+      }
+      cursor = comma + 1;
+      int end = trimEnd(start, comma);
+      if (start < end) {
+        memberStart = start;
+        memberEnd = end;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the current member refers to a group, that is it starts with <code>@</code>.
+   * @return true if the current member is a group
+   */
+  boolean isGroupMember() {
+    return text.charAt(memberStart) == '@';
+  }
+
+  /**
+   * Returns name of the current member, without <code>@</code> for groups.
+   * @return name of the current member
+   */
+  String member() {
+    return string(isGroupMember() ? memberStart + 1 : memberStart, memberEnd);
+  }
+
+  /**
+   * Returns the trimmed key, or the section name.
+   * @return the key
+   */
+  String key() {
+    return string(keyStart, keyEnd);
+  }
+
+  /**
+   * Returns the trimmed value.
+   * @return the value
+   */
+  String value() {
+    return string(valueStart, valueEnd);
+  }
+
+  /**
+   * Returns true if the key is the given string.
+   * @param argString the string
+   * @return true if they are the same
+   */
+  boolean keyEquals(String argString) {
+    return regionEquals(keyStart, keyEnd, argString, false);
+  }
+
+  /**
+   * Returns true if the value is the given string, ignoring case.
+   * @param argString the string
+   * @return true if they are the same
+   */
+  boolean valueEqualsIgnoreCase(String argString) {
+    return regionEquals(valueStart, valueEnd, argString, true);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return text.toString();
+  }
+
+  private String string(int argStart, int argEnd) {
+    return names.intern(text, argStart, argEnd);
+  }
+
+  private boolean regionEquals(int argStart, int argEnd, String argString, boolean argIgnoreCase) {
+    if (argEnd - argStart != argString.length()) {
+      return false;
+    }
+    for (int i = 0; i < argString.length(); i++ ) {
+      char a = text.charAt(argStart + i);
+      char b = argString.charAt(i);
+      if (a != b && !(argIgnoreCase && Character.toLowerCase(a) == Character.toLowerCase(b))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int skipSpace(int argFrom, int argTo) {
+    while (argFrom < argTo && Character.isWhitespace(text.charAt(argFrom))) {
+      argFrom++ ;
+    }
+    return argFrom;
+  }
+
+  private int trimEnd(int argFrom, int argTo) {
+    while (argTo > argFrom && Character.isWhitespace(text.charAt(argTo - 1))) {
+      argTo-- ;
+    }
+    return argTo;
+  }
+
+}
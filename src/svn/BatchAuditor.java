@@ -0,0 +1,257 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import svn.HtmlReportGenerator.HtmlWriter;
+
+/**
+ * Audits the access configuration files of several svn servers in a single run, and generates a report of each
+ * server and a combined report of the access of users across the servers.
+ * <p>
+ * Servers are audited in parallel by a bounded number of workers. Each server has its own processor, so that
+ * parser states, users, groups, repos, and the access matrix of one server are never seen by another one. A
+ * server is audited on its worker alone, with no pool of its own, since the workers already keep the cores
+ * busy. Names are interned in a table shared by every server, see {@link NameTable}, so that the same user is
+ * the same string on every server. Once the report of a server is written, only its frozen model is kept for the
+ * combined report, see {@link FrozenModel}.
+ * <p>
+ * Reports go to a directory, <code>servers/</code>: a report of each server, <code>&lt;server&gt;.html</code>,
+ * and the combined report, <code>index.html</code>, with a row for each user and the number of repositories
+ * that the user can read or write on each server, linked to the user in the report of the server.
+ * @author bsanchin
+ * @see SvnAccessAuditor
+ */
+public class BatchAuditor {
+
+  static final String REPORT_DIR = "servers";
+  static final String REPORT_FILE = "index.html";
+
+  // Processor whose options every server is audited with.
+  protected final SvnAccessAuditor proc;
+
+  // Names of every server.
+  protected final NameTable names = new NameTable();
+
+  // Servers in the order of their files.
+  protected final List<Server> servers = new ArrayList<Server>();
+
+  protected final File dir = new File(REPORT_DIR);
+
+  BatchAuditor(SvnAccessAuditor argProc, List<File> argFiles) {
+    this.proc = argProc;
+    HashSet<String> taken = new HashSet<String>();
+    for (File f : argFiles) {
+      servers.add(new Server(f, name(f, taken)));
+    }
+  }
+
+  /**
+   * Returns a name of the server that is unique among the servers and safe as a file name. The name is the
+   * file name, prefixed with the name of its directory if another server has the same file name.
+   * @param argFile the access configuration file of the server
+   * @param argTaken names of the other servers
+   * @return the name
+   */
+  private static String name(File argFile, Set<String> argTaken) {
+    String name = argFile.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+    File parent = argFile.getAbsoluteFile().getParentFile();
+    if (argTaken.contains(name) && parent != null) {
+      name = parent.getName().replaceAll("[^A-Za-z0-9._-]", "_") + "-" + name;
+    }
+    String result = name;
+    for (int i = 2; argTaken.contains(result) || result.equals("index"); i++ ) {
+      result = name + "-" + i;
+    }
+    argTaken.add(result);
+    return result;
+  }
+
+  /**
+   * Audits every server on the workers, and then generates the combined report.
+   * @param argThreads number of servers that are audited at once
+   * @param argLog where progress goes
+   * @throws Exception if it fails to audit a server or to write a report
+   */
+  void audit(int argThreads, final PrintStream argLog)
+      throws Exception {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create directory: " + dir);
+    }
+    ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, argThreads));
+    try {
+      List<Future<Void>> audits = new ArrayList<Future<Void>>();
+      for (final Server server : servers) {
+        audits.add(workers.submit(new Callable<Void>() {
+          @Override
+          public Void call()
+              throws Exception {
+            long start = System.nanoTime();
+            server.audit();
+            argLog.println(server.name + ": " + server.model.getUserCount() + " users, "
+                + server.model.getRepoCount() + " repos, in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return null;
+          }
+        }));
+      }
+      for (int i = 0; i < audits.size(); i++ ) {
+        try {
+          AbstractReportGenerator.await(audits.get(i));
+        }
+        catch (Exception e) {
+          throw new IOException("Unable to audit " + servers.get(i).file + ": " + e, e);
+        }
+      }
+    }
+    finally {
+      workers.shutdown();
+    }
+
+    RunStats.Span span = RunStats.begin("render.combined");
+    File reportFile = new File(dir, REPORT_FILE);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile),
+        HtmlReportGenerator.UTF8), HtmlReportGenerator.BUFFER_SIZE);
+    try {
+      render(new HtmlWriter(writer));
+    }
+    finally {
+      writer.close();
+      span.end();
+    }
+    argLog.println("Audited " + servers.size() + " servers with " + names.size() + " distinct names. See "
+        + reportFile.getPath() + " for the result.");
+  }
+
+  /**
+   * Renders the combined report.
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
+   */
+  void render(HtmlWriter out)
+      throws IOException {
+    out.appendln("<html><head><meta charset='UTF-8'><style>");
+    out.appendln("  table { border-collapse: collapse;}");
+    out.appendln("  tr:nth-child(even) {background-color: #f2f2f2}");
+    out.appendln("  th {padding: 15px; background-color: #4CAF50; color: white; font-family: arial;}");
+    out.appendln("  td{vertical-align:top;}");
+    out.appendln("  .read{background-color: #E0F8F1}");
+    out.appendln("  .write{background-color: #F8E0E0}");
+    out.appendln("</style></head><body>");
+
+    // Every user of any server, in their order.
+    TreeSet<String> userIds = new TreeSet<String>();
+    for (Server server : servers) {
+      userIds.addAll(Arrays.asList(server.model.userNames));
+    }
+
+    out.appendln("<h1>Summary</h1>");
+    out.appendln("Servers: " + servers.size() + "<br>");
+    out.appendln("Users: " + userIds.size() + "<br>");
+    out.appendln("Quick Links: <a href='#servers'>Servers</a>, <a href='#users'>Users</a>");
+    out.appendln("<h1 id='servers'>Servers</h1>");
+    out.appendln("<table border='1'>");
+    out.appendln("  <tr>");
+    out.appendln("    <th>Server</th>");
+    out.appendln("    <th>Configuration File</th>");
+    out.appendln("    <th>Users</th>");
+    out.appendln("    <th>Groups</th>");
+    out.appendln("    <th>Repos</th>");
+    out.appendln("  </tr>");
+    for (Server server : servers) {
+      out.appendln("  <tr>");
+      out.appendln("    <td><a href='" + server.name + ".html'>" + server.name + "</a></td>");
+      out.appendln("    <td>" + server.file.getPath() + "</td>");
+      out.appendln("    <td align='center'>" + server.model.getUserCount() + "</td>");
+      out.appendln("    <td align='center'>" + server.model.getGroupCount() + "</td>");
+      out.appendln("    <td align='center'>" + server.model.getRepoCount() + "</td>");
+      out.appendln("  </tr>");
+    }
+    out.appendln("</table>");
+
+    out.appendln("<h1 id='users'>Users</h1>");
+    out.appendln("<table border='1'>");
+    out.appendln("  <tr>");
+    out.appendln("    <th>Username</th>");
+    out.appendln("    <th>Servers</th>");
+    out.appendln("    <th>Readable Only Repos Count</th>");
+    out.appendln("    <th>Writable Repos Count</th>");
+    out.appendln("    <th>Access by Server</th>");
+    out.appendln("  </tr>");
+    StringBuilder cell = new StringBuilder();
+    for (String id : userIds) {
+      int serverCount = 0;
+      int readable = 0;
+      int writable = 0;
+      cell.setLength(0);
+      for (Server server : servers) {
+        User user = server.model.getUser(id);
+        if (user == null) {
+          continue;
+        }
+        int r = server.model.getReadable(user).cardinality();
+        int w = server.model.getWritable(user).cardinality();
+        serverCount++ ;
+        readable += r;
+        writable += w;
+        if (cell.length() > 0) {
+          cell.append(HtmlReportGenerator.BR);
+        }
+        cell.append("<a href='").append(server.name).append(".html#user:").append(id.replace("\\", "/"))
+            .append("'>").append(server.name).append("</a>: ").append(r).append(" read only, ").append(w)
+            .append(" writable");
+      }
+      out.appendln("  <tr>");
+      out.appendln("    <td>" + id + "</td>");
+      out.appendln("    <td align='center'>" + serverCount + "</td>");
+      out.appendln("    <td align='center' class='read'>" + readable + "</td>");
+      out.appendln("    <td align='center' class='write'>" + writable + "</td>");
+      out.appendln("    <td>" + cell + "</td>");
+      out.appendln("  </tr>");
+    }
+    RunStats.count("rows.rendered", userIds.size());
+    out.appendln("</table>");
+    out.appendln("</body></html>");
+  }
+
+  /**
+   * A server, its access configuration file, and its frozen model once it is audited.
+   * @author bsanchin
+   */
+  class Server {
+    final File file;
+    final String name;
+
+    // Everything that the combined report needs of the server, see FrozenModel.
+    FrozenModel model;
+
+    Server(File argFile, String argName) {
+      this.file = argFile;
+      this.name = argName;
+    }
+
+    /**
+     * Loads the server and generates its report, on the calling thread. Only the frozen model of the server is
+     * kept afterwards.
+     * @throws Exception if it fails to read the file or to write the report
+     */
+    void audit()
+        throws Exception {
+      SvnAccessAuditor server = new SvnAccessAuditor();
+      server.names = new NameTable(names);
+      server.mapped = proc.mapped;
+      // A batch audits each file once, so a snapshot would only be left behind next to it.
+      server.snapshot = false;
+      server.viewCache = proc.viewCache;
+      server.threads = 1;
+      server.load(file, null, new PrintStream(new ByteArrayOutputStream()));
+      server.freeze();
+      HtmlReportGenerator generator = new HtmlReportGenerator(server.users, server.groups, server.repos,
+          server.matrix, null, proc.groupingMemory);
+      generator.reportFile = new File(dir, name + ".html");
+      generator.generateReport();
+      model = (FrozenModel) server.matrix;
+    }
+  }
+
+}
@@ -0,0 +1,958 @@
+package svn;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Parses the access configuration file in two phases, so that large files are parsed on every core and groups
+ * may refer to groups that are defined after them.
+ * <p>
+ * The file is split first into chunks of about the same size. A chunk starts with a record, that is a group
+ * definition within the groups section, and a section header or a rule after it, so that continuation lines
+ * always stay with their group definition. Where the groups section ends is found by a scan of the bytes of the
+ * groups section alone, and chunks after it are found by seeking. Chunks are then parsed in parallel into
+ * unresolved records: group definitions with the names of their members, sections as new repositories, and
+ * rules with the names of their subjects.
+ * <p>
+ * The second phase resolves the records in the order of the file. Groups are collected into a symbol table
+ * first, and rules are resolved against it, since every group is defined before the first repository section.
+ * Members of the groups are then resolved in parallel, one chunk on each thread, against the complete symbol
+ * table, so that a forward reference to a group is as good as a reference to an earlier one. A group that is
+ * defined twice has the members of its last definition. A member that is not a group of the file is reported,
+ * and left out.
+ * <p>
+ * Errors are reported in the order of the file, with the same messages whether the file is parsed in one chunk
+ * or in many.
+ * @author bsanchin
+ */
+class ConfigParser {
+
+  // Chunks are never smaller than this, in bytes of the file or in lines.
+  static final long MIN_CHUNK_BYTES = 1 << 20;
+  static final long MIN_CHUNK_LINES = 1 << 14;
+
+  // Chunks of each thread, so that a slow chunk does not keep the other threads waiting.
+  static final int CHUNKS_PER_THREAD = 4;
+
+  // Where a chunk starts, before the groups section, within it, or among repository sections.
+  static final int INITIAL = 0;
+  static final int GROUPS = 1;
+  static final int RULES = 2;
+
+  static final char WRITE = 'w';
+  static final char READ = 'r';
+
+  // Byte order mark that some editors put at the start of a UTF-8 file, and that every way of reading it skips.
+  static final char BYTE_ORDER_MARK = '\uFEFF';
+
+  // Counters of parsed lines, blank lines and comments, section headers, lines of group definitions, and rules.
+  static final String COMMENT_LINES = "lines.comments";
+  static final String SECTION_LINES = "lines.sections";
+  static final String GROUP_LINES = "lines.groups";
+  static final String RULE_LINES = "lines.rules";
+
+  protected final SvnAccessAuditor proc;
+  protected final ForkJoinPool pool;
+
+  // Groups by their names, users of the file, and the last definition of each group.
+  protected final HashMap<String, Group> symbols = new HashMap<String, Group>();
+  protected final ConcurrentHashMap<String, User> users = new ConcurrentHashMap<String, User>();
+  protected final HashMap<String, Definition> definitions = new HashMap<String, Definition>();
+
+  /**
+   * Creates a parser that adds users, groups, and repos to the processor.
+   * @param argProc the processor
+   * @param argPool pool that parses chunks in parallel, or null to parse the file in a single chunk
+   */
+  ConfigParser(SvnAccessAuditor argProc, ForkJoinPool argPool) {
+    this.proc = argProc;
+    this.pool = argPool;
+  }
+
+  /**
+   * Parses the access configuration file.
+   * @param argFile the access configuration file
+   * @throws IOException if it fails to read the file
+   */
+  void parse(File argFile)
+      throws IOException {
+    FileInputStream in = new FileInputStream(argFile);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      parse(new FileLines(argFile, channel, size), chunkCount(size / MIN_CHUNK_BYTES));
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Parses lines of the access configuration file.
+   * @param argLines lines of the file
+   */
+  void parse(List<String> argLines) {
+    try {
+      parse(new ListLines(argLines), chunkCount(argLines.size() / MIN_CHUNK_LINES));
+    }
+    catch (IOException e) {
+      // Lines of a list are never read from the file.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns number of chunks, a few for each thread of the pool, but no more than the given number.
+   * @param argMost most chunks that the file is worth
+   * @return number of chunks
+   */
+  private int chunkCount(long argMost) {
+    if (pool == null) {
+      return 1;
+    }
+    return (int) Math.max(1, Math.min(argMost, (long) pool.getParallelism() * CHUNKS_PER_THREAD));
+  }
+
+  /**
+   * Splits lines into chunks, parses the chunks, and resolves their records.
+   * @param argLines lines of the file
+   * @param argCount number of chunks to aim at
+   * @throws IOException if it fails to read a chunk
+   */
+  private void parse(Lines argLines, int argCount)
+      throws IOException {
+    RunStats.Span span = RunStats.begin("parse.split");
+    final List<Chunk> chunks = split(argLines, argCount);
+    span.end();
+    RunStats.count("parse.chunks", chunks.size());
+
+    span = RunStats.begin("parse.chunks");
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+    for (final Chunk chunk : chunks) {
+      // A single chunk interns names right into the table of the processor.
+      final NameTable names = (chunks.size() == 1) ? proc.names : new NameTable(proc.names);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          chunk.read(names);
+          return null;
+        }
+      });
+    }
+    run(tasks);
+    span.end();
+
+    span = RunStats.begin("parse.symbols");
+    try {
+      resolveSymbols(chunks);
+    }
+    finally {
+      span.end();
+    }
+
+    span = RunStats.begin("parse.members");
+    tasks.clear();
+    for (final Chunk chunk : chunks) {
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          resolveMembers(chunk);
+          return null;
+        }
+      });
+    }
+    run(tasks);
+    for (Chunk chunk : chunks) {
+      for (String warning : chunk.warnings) {
+        System.err.println(warning);
+      }
+    }
+    proc.users.putAll(users);
+    proc.groups.putAll(symbols);
+    span.end();
+  }
+
+  /**
+   * Runs tasks on the pool, or on the calling thread without one, and waits for all of them.
+   * @param argTasks the tasks
+   */
+  private void run(List<Callable<Void>> argTasks) {
+    try {
+      if (pool == null || argTasks.size() == 1) {
+        for (Callable<Void> task : argTasks) {
+          task.call();
+        }
+      }
+      else {
+        for (Future<Void> future : pool.invokeAll(argTasks)) {
+          AbstractReportGenerator.await(future);
+        }
+      }
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new IllegalStateException("Unable to parse the access configuration file: " + e, e);
+    }
+  }
+
+  /**
+   * Splits lines into chunks that start with a record.
+   * @param argLines lines of the file
+   * @param argCount number of chunks to aim at
+   * @return the chunks, in the order of the file
+   * @throws IOException if it fails to read the file
+   */
+  List<Chunk> split(Lines argLines, int argCount)
+      throws IOException {
+    long size = argLines.size();
+    List<Chunk> result = new ArrayList<Chunk>();
+    result.add(new Chunk(argLines, 0, INITIAL));
+    long p = skip(argLines, 0);
+    boolean groups = p < size && argLines.kind(p) == AuthzLine.Kind.SECTION && argLines.isGroups(p);
+    if (groups) {
+      p = skip(argLines, argLines.end);
+    }
+    // A file that does not start with a group definition in the groups section is left to a single chunk, which
+    // reports it.
+    if (argCount > 1 && groups && p < size && argLines.kind(p) == AuthzLine.Kind.KEY_VALUE) {
+      p = argLines.end;
+      AuthzLine.Kind kind = null;
+      int context = GROUPS;
+      for (int i = 1; i < argCount && p < size; i++ ) {
+        long target = size * i / argCount;
+        if (context == GROUPS) {
+          // The groups section ends with the next section, and a chunk of it starts with a group definition.
+          while (p < size && (kind = argLines.kind(p)) != AuthzLine.Kind.SECTION
+              && !(kind == AuthzLine.Kind.KEY_VALUE && p >= target)) {
+            p = argLines.end;
+          }
+          if (kind == AuthzLine.Kind.SECTION) {
+            context = RULES;
+          }
+        }
+        if (context == RULES) {
+          if (p < target) {
+            p = argLines.lineAt(target);
+          }
+          while (p < size && (kind = argLines.kind(p)) != AuthzLine.Kind.SECTION
+              && kind != AuthzLine.Kind.KEY_VALUE) {
+            p = argLines.end;
+          }
+        }
+        Chunk last = result.get(result.size() - 1);
+        if (p < size && p > last.from) {
+          last.to = p;
+          result.add(new Chunk(argLines, p, context));
+        }
+      }
+    }
+    result.get(result.size() - 1).to = size;
+    return result;
+  }
+
+  /**
+   * Returns the position of the first line at or after the given one that is not blank or a comment.
+   * @param argLines lines of the file
+   * @param argPosition position of a line
+   * @return position of the line, or the size if there is none
+   * @throws IOException if it fails to read the file
+   */
+  private static long skip(Lines argLines, long argPosition)
+      throws IOException {
+    long result = argPosition;
+    AuthzLine.Kind kind;
+    while (result < argLines.size()
+        && ((kind = argLines.kind(result)) == AuthzLine.Kind.BLANK || kind == AuthzLine.Kind.COMMENT)) {
+      result = argLines.end;
+    }
+    return result;
+  }
+
+  /**
+   * Collects groups and repos of the chunks in the order of the file, and resolves rules against the groups.
+   * Errors of a chunk are thrown once its records are resolved, so that the first error of the file is thrown.
+   * @param argChunks the chunks
+   * @throws IOException if a chunk failed to read its lines
+   */
+  private void resolveSymbols(List<Chunk> argChunks)
+      throws IOException {
+    Repo repo = null;
+    for (Chunk chunk : argChunks) {
+      for (Definition d : chunk.definitions) {
+        Group group = symbols.get(d.name);
+        if (group == null) {
+          group = new Group(d.name);
+          symbols.put(group.id, group);
+        }
+        Definition previous = definitions.put(d.name, d);
+        if (previous != null) {
+          previous.group = null;
+        }
+        d.group = group;
+      }
+      // Rules before the first section of a chunk belong to the last section of the chunks before it.
+      for (Rule rule : chunk.leadingRules) {
+        addRule(repo, resolve(proc, rule, symbols, users));
+      }
+      for (Section section : chunk.sections) {
+        repo = section.repo;
+        proc.repos.put(repo.id, repo);
+        for (Rule rule : section.rules) {
+          addRule(repo, resolve(proc, rule, symbols, users));
+        }
+      }
+      if (chunk.error instanceof IOException) {
+        throw (IOException) chunk.error;
+      }
+      if (chunk.error != null) {
+        throw (RuntimeException) chunk.error;
+      }
+    }
+  }
+
+  /**
+   * Adds members of the group definitions of the chunk to their groups. Users are created on their first
+   * appearance, even in a definition that is replaced by a later one.
+   * @param argChunk the chunk
+   */
+  private void resolveMembers(Chunk argChunk) {
+    for (Definition d : argChunk.definitions) {
+      for (int i = d.from; i < d.to; i++ ) {
+        User member = member(symbols, users, argChunk.members[i], argChunk.groupMembers.get(i));
+        if (member == null) {
+          argChunk.warnings.add("Unable to identify group: @" + argChunk.members[i]);
+        }
+        else if (d.group != null) {
+          d.group.addUser(member);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds members of the line's value to the group, for a group definition of a model that is already parsed.
+   * Users are created on their first appearance.
+   * @param argProc the processor
+   * @param argGroup the group
+   * @param argLine a group definition or a continuation line
+   */
+  static void addMembers(SvnAccessAuditor argProc, Group argGroup, AuthzLine argLine) {
+    while (argLine.nextMember()) {
+      User member = member(argProc.groups, argProc.users, argLine.member(), argLine.isGroupMember());
+      if (member == null) {
+        System.err.println("Unable to identify group: @" + argLine.member());
+      }
+      else {
+        argGroup.addUser(member);
+      }
+    }
+  }
+
+  /**
+   * Adds the rule of the line to the repository, for a section of a model that is already parsed.
+   * @param argProc the processor
+   * @param argRepo the repository
+   * @param argLine a rule of the section
+   */
+  static void addRule(SvnAccessAuditor argProc, Repo argRepo, AuthzLine argLine) {
+    if (argLine.isSkipped()) {
+      return;
+    }
+    if (argLine.kind != AuthzLine.Kind.KEY_VALUE) {
+      throw new RuntimeException("Unable to parse this line:" + argLine);
+    }
+    addRule(argRepo, resolve(argProc, Rule.parse(argLine), argProc.groups, argProc.users));
+  }
+
+  /**
+   * Returns the member of the given name, creating a user on its first appearance.
+   * @param argGroups groups by their names
+   * @param argUsers users by their names
+   * @param argName name of the member, without @ for groups
+   * @param argGroup true if the member is a group
+   * @return the member, or null if it is a group that is not defined
+   */
+  static User member(Map<String, ? extends Group> argGroups, Map<String, User> argUsers, String argName,
+      boolean argGroup) {
+    return argGroup ? argGroups.get(argName) : user(argUsers, argName);
+  }
+
+  /**
+   * Returns the user of the given name, and creates it if there is none. Safe for concurrent maps.
+   * @param argUsers users by their names
+   * @param argName name of the user
+   * @return the user
+   */
+  static User user(Map<String, User> argUsers, String argName) {
+    User result = argUsers.get(argName);
+    if (result == null) {
+      User created = new User(argName);
+      result = argUsers.putIfAbsent(argName, created);
+      if (result == null) {
+        result = created;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Resolves the subject of a rule.
+   * @param argProc the processor
+   * @param argRule the rule
+   * @param argGroups groups by their names
+   * @param argUsers users by their names
+   * @return the access rule
+   */
+  static AccessRule resolve(SvnAccessAuditor argProc, Rule argRule, Map<String, ? extends Group> argGroups,
+      Map<String, User> argUsers) {
+    User user = null;
+    if (argRule.subject == AccessRule.Subject.EVERYONE) {
+      user = argProc.EVERYONE;
+    }
+    else if (argRule.subject == AccessRule.Subject.GROUP) {
+      user = argGroups.get(argRule.name);
+      if (user == null) {
+        throw new RuntimeException("Failed to identify group from: " + argRule.text);
+      }
+    }
+    else if (argRule.subject == AccessRule.Subject.USER) {
+      user = user(argUsers, argRule.name);
+    }
+    return new AccessRule(argRule.subject, user, argRule.inverted, argRule.access);
+  }
+
+  /**
+   * Adds an access rule to the repository. Plain group rules make readers and writers of the repository.
+   * @param argRepo the repository
+   * @param argRule the rule
+   */
+  static void addRule(Repo argRepo, AccessRule argRule) {
+    argRepo.rules.add(argRule);
+    if (argRule.isPlainGroupRule()) {
+      if ((argRule.access & AccessRule.WRITE) != 0) {
+        argRepo.writers.add((Group) argRule.user);
+      }
+      else {
+        argRepo.readers.add((Group) argRule.user);
+      }
+    }
+  }
+
+  /**
+   * A rule whose subject is not resolved yet. Rules follow mod_authz_svn: the subject could be a user,
+   * <code>@group</code>, <code>*</code>, <code>$authenticated</code>, or <code>$anonymous</code>, optionally
+   * inverted with <code>~</code>, and the permission could be <code>r</code>, <code>rw</code>, or empty for no
+   * access.
+   * @author bsanchin
+   */
+  static final class Rule {
+    AccessRule.Subject subject;
+    boolean inverted;
+    int access;
+
+    // Name of the user or the group, null for other subjects.
+    String name;
+
+    // The line of a group rule, for the error of a group that is not defined.
+    String text;
+
+    /**
+     * Parses a rule from a key value line.
+     * @param line the line
+     * @return the rule
+     */
+    static Rule parse(AuthzLine line) {
+      Rule result = new Rule();
+      String key = line.key();
+      result.inverted = key.startsWith("~");
+      if (result.inverted) {
+        key = key.substring(1).trim();
+      }
+
+      if (key.equals("*")) {
+        result.subject = AccessRule.Subject.EVERYONE;
+      }
+      else if (key.equals("$authenticated")) {
+        result.subject = AccessRule.Subject.AUTHENTICATED;
+      }
+      else if (key.equals("$anonymous")) {
+        result.subject = AccessRule.Subject.ANONYMOUS;
+      }
+      else if (key.startsWith("@")) {
+        result.subject = AccessRule.Subject.GROUP;
+        result.name = key.substring(1);
+        result.text = line.toString();
+      }
+      else if (key.isEmpty() || key.startsWith("&") || key.startsWith("$")) {
+        throw new RuntimeException("Failed to identify user or group from: " + line);
+      }
+      else {
+        result.subject = AccessRule.Subject.USER;
+        result.name = key;
+      }
+
+      String value = line.value();
+      for (int i = 0; i < value.length(); i++ ) {
+        char c = Character.toLowerCase(value.charAt(i));
+        if (c == READ) {
+          result.access |= AccessRule.READ;
+        }
+        else if (c == WRITE) {
+          result.access |= AccessRule.WRITE;
+        }
+        else if (!Character.isWhitespace(c)) {
+          throw new RuntimeException("Failed to identify permission from: " + line);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A group definition of a chunk, and where its members are in the chunk.
+   * @author bsanchin
+   */
+  static final class Definition {
+    final String name;
+    final int from;
+    int to;
+
+    // The group, or null if a later definition of the group replaces this one.
+    Group group;
+
+    Definition(String argName, int argFrom) {
+      this.name = argName;
+      this.from = argFrom;
+      this.to = argFrom;
+    }
+  }
+
+  /**
+   * A repository section of a chunk and its rules.
+   * @author bsanchin
+   */
+  static final class Section {
+    final Repo repo;
+    final List<Rule> rules = new ArrayList<Rule>();
+
+    Section(Repo argRepo) {
+      this.repo = argRepo;
+    }
+  }
+
+  /**
+   * A range of lines of the file that is parsed on its own into unresolved records. Lines are handled as
+   * the states of the processor once did: a chunk knows where it starts, and moves on from the groups section
+   * to repository sections at the first section header after it.
+   * @author bsanchin
+   */
+  static final class Chunk
+      implements IState {
+
+    final Lines lines;
+    final long from;
+    long to;
+
+    // Where the current line is, see INITIAL, GROUPS, and RULES.
+    int context;
+
+    // Group definitions, and the names of their members one after another, with the members that are groups.
+    final List<Definition> definitions = new ArrayList<Definition>();
+    String[] members = new String[64];
+    final BitSet groupMembers = new BitSet();
+    int memberCount;
+    Definition definition;
+
+    // Rules before the first section of the chunk, and the sections of the chunk.
+    final List<Rule> leadingRules = new ArrayList<Rule>();
+    final List<Section> sections = new ArrayList<Section>();
+    Section section;
+
+    // First error of the chunk, lines after it are not parsed.
+    Exception error;
+
+    // Groups that are not defined, reported once the chunk is resolved.
+    final List<String> warnings = new ArrayList<String>();
+
+    Chunk(Lines argLines, long argFrom, int argContext) {
+      this.lines = argLines;
+      this.from = argFrom;
+      this.context = argContext;
+    }
+
+    /**
+     * Reads lines of the chunk into records, and keeps the error of the chunk if there is one.
+     * @param argNames table that names are interned in
+     */
+    void read(NameTable argNames) {
+      try {
+        lines.read(from, to, argNames, this);
+      }
+      catch (Exception e) {
+        error = e;
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void process(AuthzLine line) {
+      if (line.isSkipped()) {
+        RunStats.line(COMMENT_LINES);
+        return;
+      }
+      RunStats.line((line.kind == AuthzLine.Kind.SECTION) ? SECTION_LINES : (context == RULES) ? RULE_LINES
+          : GROUP_LINES);
+      if (context == INITIAL) {
+        // The config file should be a valid file, otherwise, just don't process it.
+        if (line.kind != AuthzLine.Kind.SECTION || !line.keyEquals("groups")) {
+          throw new RuntimeException("Unexpected string: " + line);
+        }
+        context = GROUPS;
+        return;
+      }
+      if (context == GROUPS) {
+        if (line.kind == AuthzLine.Kind.KEY_VALUE) {
+          definition = new Definition(line.key(), memberCount);
+          definitions.add(definition);
+          addMembers(line);
+          return;
+        }
+        // This must be a malformed access configuration file.
+        if (definition == null) {
+          throw new RuntimeException("Expected a new group. But it was not found in: " + line);
+        }
+        if (line.kind == AuthzLine.Kind.CONTINUATION) {
+          addMembers(line);
+          return;
+        }
+        // Looks like repositories start from this line on.
+        context = RULES;
+      }
+      if (line.kind == AuthzLine.Kind.SECTION) {
+        section = new Section(new Repo(line.value()));
+        sections.add(section);
+      }
+      else if (line.kind == AuthzLine.Kind.KEY_VALUE) {
+        ((section == null) ? leadingRules : section.rules).add(Rule.parse(line));
+      }
+      else {
+        throw new RuntimeException("Unable to parse this line:" + line);
+      }
+    }
+
+    /**
+     * Adds names of the members of the line to the current group definition.
+     * @param argLine a group definition or a continuation line
+     */
+    private void addMembers(AuthzLine argLine) {
+      while (argLine.nextMember()) {
+        if (memberCount == members.length) {
+          members = Arrays.copyOf(members, memberCount * 2);
+        }
+        if (argLine.isGroupMember()) {
+          groupMembers.set(memberCount);
+        }
+        members[memberCount++ ] = argLine.member();
+      }
+      definition.to = memberCount;
+    }
+  }
+
+  /**
+   * Lines of the file by their positions, which are bytes of the file or indexes of a list of lines.
+   * @author bsanchin
+   */
+  abstract static class Lines {
+
+    // Position of the line after the line that was classified last.
+    long end;
+
+    /**
+     * Returns the position after the last line.
+     * @return the size
+     */
+    abstract long size();
+
+    /**
+     * Returns the position of the first line that starts at or after the given position.
+     * @param argPosition the position
+     * @return position of the line, or the size if there is none
+     * @throws IOException if it fails to read the file
+     */
+    abstract long lineAt(long argPosition)
+        throws IOException;
+
+    /**
+     * Classifies the line at the given position just as {@link AuthzLine} does, and sets {@link #end}.
+     * @param argPosition position of the line
+     * @return kind of the line
+     * @throws IOException if it fails to read the file
+     */
+    abstract AuthzLine.Kind kind(long argPosition)
+        throws IOException;
+
+    /**
+     * Returns true if the line at the given position is the header of the groups section. Leaves {@link #end}
+     * as it is.
+     * @param argPosition position of a section header
+     * @return true if the line is <code>[groups]</code>
+     * @throws IOException if it fails to read the file
+     */
+    abstract boolean isGroups(long argPosition)
+        throws IOException;
+
+    /**
+     * Hands lines of a range over to the state.
+     * @param argFrom position of the first line, inclusive
+     * @param argTo position after the last line, exclusive
+     * @param argNames table that names are interned in
+     * @param argState the state
+     * @throws IOException if it fails to read the file
+     */
+    abstract void read(long argFrom, long argTo, NameTable argNames, IState argState)
+        throws IOException;
+  }
+
+  /**
+   * Lines of a list, by their indexes.
+   * @author bsanchin
+   */
+  static final class ListLines
+      extends Lines {
+
+    private final List<String> list;
+    private final AuthzLine line = new AuthzLine(new NameTable());
+
+    ListLines(List<String> argList) {
+      this.list = argList;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    long size() {
+      return list.size();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    long lineAt(long argPosition) {
+      return argPosition;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    AuthzLine.Kind kind(long argPosition) {
+      end = argPosition + 1;
+      return line.scan(list.get((int) argPosition)).kind;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    boolean isGroups(long argPosition) {
+      AuthzLine scanned = line.scan(list.get((int) argPosition));
+      return scanned.kind == AuthzLine.Kind.SECTION && scanned.keyEquals("groups");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void read(long argFrom, long argTo, NameTable argNames, IState argState) {
+      AuthzLine scanned = new AuthzLine(argNames);
+      for (String text : list.subList((int) argFrom, (int) argTo)) {
+        argState.process(scanned.scan(text));
+      }
+    }
+  }
+
+  /**
+   * Lines of the file, by their bytes. Lines are classified from their bytes through a small buffer, without
+   * decoding them, except for white space beyond ASCII at the start of a line.
+   * @author bsanchin
+   */
+  final class FileLines
+      extends Lines {
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+
+    // Bytes of the file from bufferStart on.
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bufferStart = -1;
+
+    FileLines(File argFile, FileChannel argChannel, long argSize) {
+      this.file = argFile;
+      this.channel = argChannel;
+      this.size = argSize;
+      buffer.limit(0);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    long size() {
+      return size;
+    }
+
+    private int byteAt(long argPosition)
+        throws IOException {
+      if (argPosition < bufferStart || argPosition >= bufferStart + buffer.limit()) {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer, argPosition + buffer.position()) > 0) {
+          // Fill the buffer as far as the file goes.
+        }
+        buffer.flip();
+        bufferStart = argPosition;
+      }
+      return buffer.get((int) (argPosition - bufferStart));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    long lineAt(long argPosition)
+        throws IOException {
+      if (argPosition == 0) {
+        return 0;
+      }
+      long p = argPosition - 1;
+      while (p < size && byteAt(p) != '\n') {
+        p++ ;
+      }
+      return Math.min(p + 1, size);
+    }
+
+    /**
+     * Returns the position of the first char of the line, after the byte order mark at the start of the file.
+     * @param argPosition position of the line
+     * @return position of its first char
+     * @throws IOException if it fails to read the file
+     */
+    private long skipMark(long argPosition)
+        throws IOException {
+      if (argPosition == 0 && size >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB
+          && byteAt(2) == (byte) 0xBF) {
+        return 3;
+      }
+      return argPosition;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    AuthzLine.Kind kind(long argPosition)
+        throws IOException {
+      long p = skipMark(argPosition);
+      int first = -1;
+      while (p < size) {
+        int b = byteAt(p);
+        int c = b;
+        int length = 1;
+        if (b < 0) {
+          // A char beyond ASCII, which may be white space such as an ideographic space.
+          length = ((b & 0xE0) == 0xC0) ? 2 : ((b & 0xF0) == 0xE0) ? 3 : 4;
+          c = b & (0x7F >> length);
+          for (int i = 1; i < length && p + i < size; i++ ) {
+            c = (c << 6) | (byteAt(p + i) & 0x3F);
+          }
+        }
+        if (b == '\n' || !Character.isWhitespace(c)) {
+          first = (b == '\n') ? -1 : c;
+          break;
+        }
+        p += length;
+      }
+      // The rest of the line is scanned right in the buffer.
+      boolean equals = false;
+      while (p < size) {
+        byteAt(p);
+        byte[] bytes = buffer.array();
+        int i = (int) (p - bufferStart);
+        while (i < buffer.limit() && bytes[i] != '\n') {
+          equals |= bytes[i] == '=';
+          i++ ;
+        }
+        p = bufferStart + i;
+        if (i < buffer.limit()) {
+          break;
+        }
+      }
+      end = Math.min(p + 1, size);
+      if (first < 0) {
+        return AuthzLine.Kind.BLANK;
+      }
+      if (first == '#') {
+        return AuthzLine.Kind.COMMENT;
+      }
+      if (first == '[') {
+        return AuthzLine.Kind.SECTION;
+      }
+      return equals ? AuthzLine.Kind.KEY_VALUE : AuthzLine.Kind.CONTINUATION;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    boolean isGroups(long argPosition)
+        throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      for (long p = skipMark(argPosition); p < size && byteAt(p) != '\n'; p++ ) {
+        bytes.write(byteAt(p));
+      }
+      AuthzLine line = new AuthzLine(new NameTable()).scan(bytes.toString("UTF-8"));
+      return line.kind == AuthzLine.Kind.SECTION && line.keyEquals("groups");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    void read(long argFrom, long argTo, NameTable argNames, IState argState)
+        throws IOException {
+      proc.ingest(file, argFrom, argTo, argNames, argState);
+    }
+  }
+
+  /**
+   * A range of bytes of a file as a stream, read through positional reads, so that several ranges of the same
+   * file can be read at once.
+   * @author bsanchin
+   */
+  static final class Range
+      extends InputStream {
+
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    Range(FileChannel argChannel, long argFrom, long argTo) {
+      this.channel = argChannel;
+      this.position = argFrom;
+      this.end = argTo;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read()
+        throws IOException {
+      byte[] one = new byte[1];
+      return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xFF);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int read(byte[] argBytes, int argOffset, int argLength)
+        throws IOException {
+      if (position >= end) {
+        return -1;
+      }
+      int length = (int) Math.min(argLength, end - position);
+      int result = channel.read(ByteBuffer.wrap(argBytes, argOffset, length), position);
+      if (result > 0) {
+        position += result;
+      }
+      return result;
+    }
+  }
+
+}
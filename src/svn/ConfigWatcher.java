@@ -0,0 +1,511 @@
+package svn;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the access configuration file and updates the report whenever it changes.
+ * <p>
+ * The file is split into sections: a group definition with its continuation lines, and a repository section with
+ * its rules. Blank lines and comments are left out, and lines are trimmed, so that only meaningful changes are
+ * seen. On a change, the new sections are compared with the previous ones, and only the changed sections are
+ * parsed again into the existing users, groups, and repos. The access matrix is brought up to date rather than
+ * built again, see {@link AccessMatrix#update(TreeMap, TreeMap, Collection, ForkJoinPool)}. Only the repos and
+ * users whose access changed are grouped again, and only rows of the partitions that they left or joined are
+ * rendered again, see {@link IncrementalGrouping}. Groups that are added or removed make the whole file parsed
+ * again. Groups may refer to groups that are defined after them, so a changed group is resolved against every
+ * group of the model, and reordered groups change nothing.
+ * @author bsanchin
+ */
+class ConfigWatcher {
+
+  // Events that arrive within this delay of each other are handled as a single change.
+  static final long DEBOUNCE_MILLIS = 200;
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  protected final SvnAccessAuditor proc;
+  // The watched file, null if lines are only applied to the model.
+  protected final File file;
+  protected final ForkJoinPool pool;
+  protected final AuthzLine line;
+
+  // Lines of each section in the order of the file, keyed by "@group" or by the repository section header. Null
+  // if the parsed model does not match the file, so that the next change parses the whole file again.
+  protected LinkedHashMap<String, List<String>> sections;
+
+  // Number of group definitions and rules that refer to each user, keyed by user id.
+  protected HashMap<String, Integer> references;
+
+  ConfigWatcher(SvnAccessAuditor argProc, File argFile, ForkJoinPool argPool) {
+    this.proc = argProc;
+    this.file = argFile.getAbsoluteFile();
+    this.pool = argPool;
+    this.line = new AuthzLine(argProc.names);
+  }
+
+  /**
+   * Creates a watcher without a file, that only brings the model up to date with the lines it is given, see
+   * {@link #apply(List)}.
+   * @param argProc the processor with the model
+   * @param argPool pool that parses and flattens groups in parallel, or null
+   */
+  ConfigWatcher(SvnAccessAuditor argProc, ForkJoinPool argPool) {
+    this.proc = argProc;
+    this.file = null;
+    this.pool = argPool;
+    this.line = new AuthzLine(argProc.names);
+  }
+
+  /**
+   * Waits for changes of the file and updates the report on each of them, until the thread is interrupted.
+   * @throws IOException if it fails to watch the file
+   */
+  void watch()
+      throws IOException {
+    sections = split(readLines());
+    countReferences();
+
+    WatchService service = FileSystems.getDefault().newWatchService();
+    try {
+      Path dir = file.getParentFile().toPath();
+      dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      System.out.println("Watching " + file + " for changes...");
+
+      while (true) {
+        WatchKey key = service.take();
+        boolean changed = collect(key);
+        // Editors tend to write a file in several steps, wait until they are done.
+        while ((key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          changed |= collect(key);
+        }
+        if (changed) {
+          refresh();
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      service.close();
+    }
+  }
+
+  /**
+   * Returns true if some event of the key is about the watched file, and resets the key.
+   * @param argKey the key
+   * @return true if the file changed
+   */
+  private boolean collect(WatchKey argKey) {
+    boolean result = false;
+    for (WatchEvent<?> event : argKey.pollEvents()) {
+      Object context = event.context();
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW
+          || (context instanceof Path && ((Path) context).toString().equals(file.getName()))) {
+        result = true;
+      }
+    }
+    argKey.reset();
+    return result;
+  }
+
+  /**
+   * Brings the model and the report up to date with the file. Errors are reported, and the watcher keeps on
+   * waiting for the next change.
+   */
+  void refresh() {
+    long start = System.nanoTime();
+    try {
+      String result = apply(readLines());
+      if (result.isEmpty()) {
+        System.out.println("No changes in " + file.getName());
+        return;
+      }
+      proc.report(pool);
+      System.out.println("Updated the report, " + result + ", in " + (System.nanoTime() - start) / 1000000
+          + " ms");
+      proc.printStats(System.out);
+    }
+    catch (Exception e) {
+      System.err.println("Failed to update the report: " + e);
+    }
+  }
+
+  /**
+   * Brings the model up to date with the given lines of the file, parsing only the changed sections if it can,
+   * and the whole file otherwise.
+   * @param argLines lines of the file
+   * @return a short description of the update, empty if nothing changed
+   */
+  String apply(List<String> argLines) {
+    LinkedHashMap<String, List<String>> current = split(argLines);
+    String result;
+    try {
+      result = update(current);
+    }
+    catch (RuntimeException e) {
+      // The model may be half updated, start over.
+      result = null;
+    }
+    if (result == null) {
+      sections = null;
+      reparse(argLines);
+      sections = current;
+      if (proc.repoGrouping != null) {
+        proc.repoGrouping.clear();
+        proc.userGrouping.clear();
+      }
+      result = "parsed the whole file";
+    }
+    return result;
+  }
+
+  /**
+   * Parses the changed sections again into the existing model, and updates the access matrix.
+   * @param argCurrent current sections of the file
+   * @return a short description of the update, empty if nothing changed, or null if the whole file must be
+   *         parsed again
+   */
+  protected String update(LinkedHashMap<String, List<String>> argCurrent) {
+    if (sections == null || argCurrent == null || !groupKeys(sections).equals(groupKeys(argCurrent))) {
+      return null;
+    }
+
+    List<String> changedGroups = new ArrayList<String>();
+    for (String key : groupKeys(argCurrent)) {
+      if (!argCurrent.get(key).equals(sections.get(key))) {
+        changedGroups.add(key);
+      }
+    }
+    List<String> added = new ArrayList<String>();
+    List<String> changed = new ArrayList<String>();
+    for (Map.Entry<String, List<String>> entry : argCurrent.entrySet()) {
+      if (entry.getKey().startsWith("@")) {
+        continue;
+      }
+      List<String> previous = sections.get(entry.getKey());
+      if (previous == null) {
+        if (proc.repos.containsKey(new Repo(entry.getKey()).id)) {
+          return null;
+        }
+        added.add(entry.getKey());
+      }
+      else if (!previous.equals(entry.getValue())) {
+        changed.add(entry.getKey());
+      }
+    }
+    List<String> removed = new ArrayList<String>();
+    for (String key : sections.keySet()) {
+      if (!key.startsWith("@") && !argCurrent.containsKey(key)) {
+        removed.add(key);
+      }
+    }
+    if (changedGroups.isEmpty() && added.isEmpty() && changed.isEmpty() && removed.isEmpty()) {
+      return "";
+    }
+
+    for (String key : changedGroups) {
+      Group group = proc.groups.get(key.substring(1));
+      count(group, -1);
+      group.users.clear();
+      for (String text : argCurrent.get(key)) {
+        ConfigParser.addMembers(proc, group, line.scan(text));
+      }
+      count(group, 1);
+    }
+    List<Repo> removedRepos = new ArrayList<Repo>();
+    for (String key : removed) {
+      Repo repo = proc.repos.remove(new Repo(key).id);
+      count(repo, -1);
+      removedRepos.add(repo);
+    }
+    List<Repo> touched = new ArrayList<Repo>(removedRepos);
+    for (String key : added) {
+      Repo repo = new Repo(key);
+      proc.repos.put(repo.id, repo);
+      addRules(repo, argCurrent.get(key));
+      touched.add(repo);
+    }
+    List<Repo> changedRepos = new ArrayList<Repo>();
+    for (String key : changed) {
+      Repo repo = proc.repos.get(new Repo(key).id);
+      count(repo, -1);
+      repo.rules.clear();
+      repo.readers.clear();
+      repo.writers.clear();
+      addRules(repo, argCurrent.get(key));
+      changedRepos.add(repo);
+    }
+    touched.addAll(changedRepos);
+    sections = argCurrent;
+
+    // Users exist as long as something refers to them, just like when the whole file is parsed.
+    List<User> addedUsers = new ArrayList<User>();
+    List<User> removedUsers = new ArrayList<User>();
+    Iterator<User> users = proc.users.values().iterator();
+    while (users.hasNext()) {
+      User u = users.next();
+      if (u.matrix != proc.matrix) {
+        addedUsers.add(u);
+      }
+      else if (!references.containsKey(u.id)) {
+        users.remove();
+        removedUsers.add(u);
+      }
+    }
+    boolean usersChanged = !addedUsers.isEmpty() || !removedUsers.isEmpty();
+
+    String result = changedGroups.size() + " groups and " + (added.size() + changed.size() + removed.size())
+        + " sections";
+    BitSet repos;
+    if (usersChanged || !added.isEmpty() || !removed.isEmpty()) {
+      if (usersChanged) {
+        proc.addEveryone();
+      }
+      repos = proc.matrix.update(proc.users, proc.repos, changedRepos, pool);
+    }
+    else {
+      repos = proc.matrix.update(proc.matrix.toRepoIds(changedRepos), pool);
+    }
+    if (proc.repoGrouping != null) {
+      regroup(removedRepos, touched, repos, addedUsers, removedUsers, !added.isEmpty() || !removed.isEmpty());
+      forgetRows(touched, changedGroups);
+    }
+    return result + " changed, " + repos.cardinality() + " repos with different access";
+  }
+
+  /**
+   * Moves the repos and users whose access changed between the partitions of the report, see
+   * {@link IncrementalGrouping}: the added and changed sections, the repos with different access, the added
+   * users, and the users who gained or lost access. Removed sections and users are taken out. Partitions are
+   * hashed again when the ids that their signatures are made of moved.
+   * @param argRemovedRepos removed sections
+   * @param argTouched added, removed, and changed sections
+   * @param argRepos ids of the repos with different access
+   * @param argAddedUsers users that the update added
+   * @param argRemovedUsers users that the update removed
+   * @param argReposMoved true if sections were added or removed
+   */
+  private void regroup(List<Repo> argRemovedRepos, List<Repo> argTouched, BitSet argRepos, List<User> argAddedUsers,
+      List<User> argRemovedUsers, boolean argReposMoved) {
+    Set<Repo> repos = new HashSet<Repo>(argTouched);
+    repos.removeAll(argRemovedRepos);
+    repos.addAll(proc.matrix.toRepos(argRepos));
+    proc.repoGrouping.remove(argRemovedRepos);
+    proc.repoGrouping.move(repos);
+    proc.userGrouping.remove(argRemovedUsers);
+    proc.userGrouping.move(argAddedUsers);
+    proc.userGrouping.move(proc.matrix.toUsers(proc.matrix.getChangedUsers()));
+    if (!argAddedUsers.isEmpty() || !argRemovedUsers.isEmpty()) {
+      proc.repoGrouping.renumber();
+    }
+    if (argReposMoved) {
+      proc.userGrouping.renumber();
+    }
+  }
+
+  /**
+   * Forgets rendered rows that changed although their repos and users stayed in their partitions. Explanations
+   * name the deciding section and the groups on the way to it, so with explanations, rows of the repos under the
+   * touched sections and of their users are forgotten, and every row once groups changed.
+   * @param argTouched added, removed, and changed sections
+   * @param argChangedGroups keys of the changed groups
+   */
+  private void forgetRows(List<Repo> argTouched, List<String> argChangedGroups) {
+    if (!proc.explain) {
+      return;
+    }
+    if (!argChangedGroups.isEmpty()) {
+      proc.repoGrouping.forgetRows();
+      proc.userGrouping.forgetRows();
+      return;
+    }
+    Set<Repo> repos = new HashSet<Repo>();
+    BitSet users = new BitSet();
+    for (Repo r : proc.repos.values()) {
+      for (Repo section : argTouched) {
+        if ((section.name == null || section.name.equals(r.name)) && (section.path.equals("/")
+            || r.path.equals(section.path) || r.path.startsWith(section.path + "/"))) {
+          repos.add(r);
+          users.or(proc.matrix.getReadersAndWriters(r));
+          break;
+        }
+      }
+    }
+    proc.repoGrouping.forget(repos);
+    proc.userGrouping.forget(proc.matrix.toUsers(users));
+  }
+
+  /**
+   * Parses the whole file again into a new model.
+   * @param argLines lines of the file
+   */
+  protected void reparse(List<String> argLines) {
+    proc.reset();
+    new ConfigParser(proc, pool).parse(argLines);
+    proc.addEveryone();
+    proc.matrix = new AccessMatrix(proc.users, proc.groups, proc.repos, pool, proc.viewCache,
+        proc.groupingMemory == 0);
+    countReferences();
+  }
+
+  /**
+   * Adds rules of a section to the repository.
+   * @param argRepo the repository
+   * @param argLines the section header and its rules
+   */
+  private void addRules(Repo argRepo, List<String> argLines) {
+    for (String text : argLines.subList(1, argLines.size())) {
+      ConfigParser.addRule(proc, argRepo, line.scan(text));
+    }
+    count(argRepo, 1);
+  }
+
+  /**
+   * Reads lines of the file.
+   * @return the lines
+   * @throws IOException if it fails to read the file
+   */
+  private List<String> readLines()
+      throws IOException {
+    return readLines(file);
+  }
+
+  /**
+   * Reads lines of a version of the access configuration file, without the byte order mark at its start.
+   * @param argFile the file
+   * @return the lines
+   * @throws IOException if it fails to read the file
+   */
+  static List<String> readLines(File argFile)
+      throws IOException {
+    List<String> result = Files.readAllLines(argFile.toPath(), UTF8);
+    if (!result.isEmpty() && result.get(0).startsWith(String.valueOf(ConfigParser.BYTE_ORDER_MARK))) {
+      result.set(0, result.get(0).substring(1));
+    }
+    return result;
+  }
+
+  /**
+   * Splits lines of the file into sections.
+   * @param argLines lines of the file
+   * @return lines of each section, or null if the file is not laid out as expected
+   */
+  protected LinkedHashMap<String, List<String>> split(List<String> argLines) {
+    LinkedHashMap<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+    List<String> current = null;
+    boolean header = true;
+    boolean inGroups = false;
+    for (String text : argLines) {
+      line.scan(text);
+      if (line.isSkipped()) {
+        continue;
+      }
+      String trimmed = text.trim();
+      if (header) {
+        // The file starts with the groups section.
+        if (line.kind != AuthzLine.Kind.SECTION || !line.keyEquals("groups")) {
+          return null;
+        }
+        header = false;
+        inGroups = true;
+        continue;
+      }
+
+      String key = null;
+      if (line.kind == AuthzLine.Kind.SECTION) {
+        inGroups = false;
+        key = line.value();
+      }
+      else if (inGroups && line.kind == AuthzLine.Kind.KEY_VALUE) {
+        key = "@" + line.key();
+      }
+      if (key != null) {
+        // A section that is defined twice replaces the first one, which is left to a full parse.
+        if (result.containsKey(key)) {
+          return null;
+        }
+        current = new ArrayList<String>();
+        result.put(key, current);
+      }
+      else if (current == null) {
+        return null;
+      }
+      current.add(trimmed);
+    }
+    return result;
+  }
+
+  /**
+   * Returns keys of the group definitions.
+   * @param argSections the sections
+   * @return the group keys
+   */
+  private static Set<String> groupKeys(LinkedHashMap<String, List<String>> argSections) {
+    Set<String> result = new HashSet<String>();
+    for (String key : argSections.keySet()) {
+      if (key.startsWith("@")) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Counts references to every user from group definitions and rules.
+   */
+  private void countReferences() {
+    references = new HashMap<String, Integer>();
+    for (Group g : proc.groups.values()) {
+      if (g != proc.EVERYONE) {
+        count(g, 1);
+      }
+    }
+    for (Repo r : proc.repos.values()) {
+      count(r, 1);
+    }
+  }
+
+  /**
+   * Adds or removes references from the direct users of a group.
+   * @param argGroup the group
+   * @param argDelta 1 to add, -1 to remove
+   */
+  private void count(Group argGroup, int argDelta) {
+    for (User u : argGroup.users) {
+      if (!(u instanceof Group)) {
+        count(u, argDelta);
+      }
+    }
+  }
+
+  /**
+   * Adds or removes references from the user rules of a repository.
+   * @param argRepo the repository
+   * @param argDelta 1 to add, -1 to remove
+   */
+  private void count(Repo argRepo, int argDelta) {
+    for (AccessRule rule : argRepo.rules) {
+      if (rule.subject == AccessRule.Subject.USER) {
+        count(rule.user, argDelta);
+      }
+    }
+  }
+
+  private void count(User argUser, int argDelta) {
+    Integer previous = references.get(argUser.id);
+    int count = ((previous == null) ? 0 : previous) + argDelta;
+    if (count > 0) {
+      references.put(argUser.id, count);
+    }
+    else {
+      references.remove(argUser.id);
+    }
+  }
+
+}
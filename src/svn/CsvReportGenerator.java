@@ -0,0 +1,90 @@
+package svn;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.TreeMap;
+
+/**
+ * Generates the report as CSV files, see {@link RowReportGenerator}: repos.csv, groups.csv, users.csv, and
+ * access.csv. Each file starts with a header row of the column names. Fields are quoted only when they contain
+ * a comma, a quote, or a line break, and quotes within them are doubled, as in RFC 4180. Rows end with a line
+ * feed, and a missing value is an empty field.
+ * @author bsanchin
+ */
+public class CsvReportGenerator
+    extends RowReportGenerator {
+
+  CsvReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix) {
+    super(argUsers, argGroups, argRepos, argMatrix);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected String extension() {
+    return "csv";
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void beginTable(Writer out, String[] argColumns)
+      throws IOException {
+    for (int i = 0; i < argColumns.length; i++ ) {
+      field(out, i, argColumns[i]);
+    }
+    endRow(out);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void field(Writer out, int argColumn, String argValue)
+      throws IOException {
+    if (argColumn > 0) {
+      out.write(',');
+    }
+    if (argValue == null) {
+      return;
+    }
+    if (!needsQuotes(argValue)) {
+      out.write(argValue);
+      return;
+    }
+    out.write('"');
+    for (int i = 0; i < argValue.length(); i++ ) {
+      char c = argValue.charAt(i);
+      if (c == '"') {
+        out.write('"');
+      }
+      out.write(c);
+    }
+    out.write('"');
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void field(Writer out, int argColumn, long argValue)
+      throws IOException {
+    if (argColumn > 0) {
+      out.write(',');
+    }
+    out.write(Long.toString(argValue));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void endRow(Writer out)
+      throws IOException {
+    out.write('\n');
+  }
+
+  private static boolean needsQuotes(String argValue) {
+    for (int i = 0; i < argValue.length(); i++ ) {
+      char c = argValue.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,122 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+
+import svn.HtmlReportGenerator.HtmlWriter;
+import svn.PermissionDiff.Change;
+
+/**
+ * Generates an HTML report of the access that an edit of the access configuration file grants or revokes, see
+ * {@link PermissionDiff}. The report has the changes by repository, and the same changes by user. Each row has
+ * the granted and revoked read and write permissions of a repository or a user.
+ * @author bsanchin
+ */
+public class DiffReportGenerator
+    implements IReportGenerator {
+
+  static final String REPORT_FILE = "diff.html";
+
+  // Columns of a row: granted read, revoked read, granted write, revoked write.
+  static final String[] COLUMNS = {"Granted Read", "Revoked Read", "Granted Write", "Revoked Write"};
+
+  protected final PermissionDiff diff;
+  protected final String olderName;
+  protected final String newerName;
+
+  DiffReportGenerator(PermissionDiff argDiff, String argOlderName, String argNewerName) {
+    this.diff = argDiff;
+    this.olderName = argOlderName;
+    this.newerName = argNewerName;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void generateReport()
+      throws Exception {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(REPORT_FILE),
+        HtmlReportGenerator.UTF8), HtmlReportGenerator.BUFFER_SIZE);
+    try {
+      HtmlWriter out = new HtmlWriter(writer);
+      makeHeader(out);
+      out.appendln("<h1>Summary</h1>");
+      out.appendln("Changes from " + olderName + " to " + newerName + ": " + diff.getChanges().size() + "<br>");
+      out.appendln("Quick Links: <a href='#repositories'>By Repository</a>, <a href='#users'>By User</a>");
+      out.appendln("<h1 id='repositories'>By Repository</h1>");
+      makeRows(out, "Repos", diff.getChanges(), true);
+      out.appendln("<h1 id='users'>By User</h1>");
+      makeRows(out, "Users", diff.getChangesByUser(), false);
+      out.appendln("</body></html>");
+    }
+    finally {
+      writer.close();
+    }
+    System.err.println("Diff report completed! See " + REPORT_FILE + " for the result.");
+  }
+
+  private void makeHeader(HtmlWriter out)
+      throws IOException {
+    out.appendln("<html><head><meta charset='UTF-8'><style>");
+    out.appendln("  table { border-collapse: collapse;}");
+    out.appendln("  tr:nth-child(even) {background-color: #f2f2f2}");
+    out.appendln("  th {padding: 15px; background-color: #4CAF50; color: white; font-family: arial;}");
+    out.appendln("  td{vertical-align:top;}");
+    out.appendln("  .grant{background-color: #E0F8F1}");
+    out.appendln("  .revoke{background-color: #F8E0E0}");
+    out.appendln("</style></head><body>");
+  }
+
+  /**
+   * Generates a table with a row per repository or user of the changes.
+   * @param out output of the table
+   * @param argTitle title of the first column
+   * @param argChanges changes, ordered by the key of the rows
+   * @param argByRepo true for a row per repository, false for a row per user
+   * @throws IOException if it fails to write the table
+   */
+  private void makeRows(HtmlWriter out, String argTitle, List<Change> argChanges, boolean argByRepo)
+      throws IOException {
+    out.appendln("<table border='1'>");
+    out.appendln("  <tr>");
+    out.appendln("    <th>" + argTitle + "</th>");
+    for (String column : COLUMNS) {
+      out.appendln("    <th>" + column + "</th>");
+    }
+    out.appendln("  </tr>");
+
+    int from = 0;
+    while (from < argChanges.size()) {
+      String key = key(argChanges.get(from), argByRepo);
+      List<List<String>> cells = new ArrayList<List<String>>();
+      for (int i = 0; i < COLUMNS.length; i++ ) {
+        cells.add(new ArrayList<String>());
+      }
+      int to = from;
+      for (; to < argChanges.size() && key(argChanges.get(to), argByRepo).equals(key); to++ ) {
+        Change change = argChanges.get(to);
+        int column = ((change.access == AccessRule.READ) ? 0 : 2) + (change.granted ? 0 : 1);
+        cells.get(column).add(argByRepo ? change.user : change.repo);
+      }
+      out.appendln("  <tr>");
+      out.appendln("    <td>" + key + "</td>");
+      for (int i = 0; i < COLUMNS.length; i++ ) {
+        out.append("    <td class='" + ((i % 2 == 0) ? "grant" : "revoke") + "'>");
+        boolean first = true;
+        for (String id : cells.get(i)) {
+          out.append(first ? "" : HtmlReportGenerator.BR);
+          out.append(id);
+          first = false;
+        }
+        out.appendln("</td>");
+      }
+      out.appendln("  </tr>");
+      from = to;
+    }
+    out.appendln("</table><br><br>");
+  }
+
+  private static String key(Change argChange, boolean argByRepo) {
+    return argByRepo ? argChange.repo : argChange.user;
+  }
+
+}
@@ -0,0 +1,642 @@
+package svn;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Groups entities with the same access signature through sorted runs on disk, for models whose signatures do
+ * not fit in memory, see <code>--grouping-memory</code>.
+ * <p>
+ * Grouping in memory keeps the signature of every partition, bit sets as wide as the number of repositories or
+ * users, until the last entity is seen. Here each entity is encoded into a compact signature instead, sorted ids
+ * as variable length deltas, and signatures are collected in memory up to the budget. A full buffer is sorted
+ * and written to a run file, and runs are then merged, {@link #FAN_IN} at a time, so that entities with the
+ * same signature come out one after another in the order of their indexes. Signatures that fit in the budget
+ * are never written.
+ * <p>
+ * Entities are written as they come out of the merge, one partition after another, and only the first entity
+ * of each partition and where it starts are kept. Partitions are then copied to a partition file in the order of
+ * their first entities, which is the same grouping in the same order as grouping in memory, and the report reads
+ * them back from the file a block at a time as it renders them, see {@link Partitions}. Memory of the grouping is
+ * thus the budget and a few ints for each partition, rather than anything for each entity.
+ * <p>
+ * Runs are written to the temporary directory and deleted once they are merged. Partition files are deleted when
+ * the process exits, since the report server reads them for as long as it runs. Spilled runs and their bytes are
+ * counted as <code>grouping.runs</code> and <code>grouping.spilled</code>, see {@link RunStats}.
+ * @author bsanchin
+ */
+final class ExternalGrouping {
+
+  // Runs merged at once.
+  static final int FAN_IN = 64;
+
+  // Bytes of a signature in memory besides its own bytes.
+  private static final int RECORD_BYTES = 48;
+
+  // Bytes of a bit set in memory besides its words.
+  static final int BIT_SET_BYTES = 48;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // Bytes of an index of an entity in a partition file.
+  private static final int INDEX_BYTES = 4;
+
+  private final long memory;
+
+  // Signatures that are not spilled yet, in the order of their entities, and their bytes.
+  private final List<Record> records = new ArrayList<Record>();
+  private long bytes;
+
+  // Runs that are not merged yet.
+  private final List<Run> runs = new ArrayList<Run>();
+
+  private ExternalGrouping(long argMemory) {
+    this.memory = argMemory;
+  }
+
+  /**
+   * Groups entities by their signatures.
+   * @param argEntities the entities, in the order of the report
+   * @param argEncoder encodes signatures of the entities by their indexes
+   * @param argMemory bytes of signatures kept in memory
+   * @return partitions by their numbers, in the order of their first entities, each with its entities in order
+   * @throws IOException if it fails to write or read a run or the partition file
+   */
+  static <T extends Comparable<? super T>> Map<Integer, SortedSet<T>> group(T[] argEntities, Encoder argEncoder,
+      long argMemory)
+      throws IOException {
+    ExternalGrouping grouping = new ExternalGrouping(argMemory);
+    File file = File.createTempFile("svn-grouping", ".partitions");
+    file.deleteOnExit();
+    boolean grouped = false;
+    try {
+      Partitions<T> result =
+          new Partitions<T>(argEntities, file, grouping.partition(argEntities.length, argEncoder, file));
+      grouped = true;
+      return result;
+    }
+    finally {
+      for (Run run : grouping.runs) {
+        run.file.delete();
+      }
+      if (!grouped) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Sorts signatures of the entities, spilling them as needed, and writes indexes of the entities of each
+   * partition to the partition file, in the order of the partitions.
+   * @param argCount number of entities
+   * @param argEncoder encodes signatures of the entities
+   * @param argFile the partition file
+   * @return where each partition starts in the file, in indexes, and the number of entities last
+   * @throws IOException if it fails to write or read a run or the partition file
+   */
+  private int[] partition(int argCount, Encoder argEncoder, File argFile)
+      throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    for (int i = 0; i < argCount; i++ ) {
+      buffer.reset();
+      argEncoder.encode(i, out);
+      records.add(new Record(buffer.toByteArray(), i));
+      bytes += buffer.size() + RECORD_BYTES;
+      if (bytes > memory) {
+        spill();
+      }
+    }
+
+    Cursor merged;
+    if (runs.isEmpty()) {
+      Collections.sort(records);
+      merged = new ListCursor(records);
+    }
+    else {
+      if (!records.isEmpty()) {
+        spill();
+      }
+      while (runs.size() > FAN_IN) {
+        List<Run> merging = new ArrayList<Run>(runs.subList(0, FAN_IN));
+        Cursor cursor = open(merging);
+        try {
+          runs.add(write(cursor));
+        }
+        finally {
+          cursor.close();
+        }
+        runs.subList(0, FAN_IN).clear();
+        for (Run run : merging) {
+          run.file.delete();
+        }
+      }
+      merged = open(runs);
+    }
+
+    // Entities come out by their signatures, the first entity of each partition first, and are written in that
+    // order. Partitions are then numbered in the order of their first entities, and copied in that order.
+    int partitions = 0;
+    int[] leaders = new int[16];
+    int[] offsets = new int[16];
+    File merging = File.createTempFile("svn-grouping", ".ids");
+    try {
+      DataOutputStream unordered =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(merging), BUFFER_SIZE));
+      try {
+        byte[] previous = null;
+        int written = 0;
+        while (merged.next()) {
+          if (previous == null || !Arrays.equals(previous, merged.signature)) {
+            if (partitions == leaders.length) {
+              leaders = Arrays.copyOf(leaders, partitions * 2);
+              offsets = Arrays.copyOf(offsets, partitions * 2);
+            }
+            leaders[partitions] = merged.index;
+            offsets[partitions] = written;
+            partitions++ ;
+            previous = merged.signature;
+          }
+          unordered.writeInt(merged.index);
+          written++ ;
+        }
+      }
+      finally {
+        unordered.close();
+        merged.close();
+      }
+      records.clear();
+
+      long[] byLeader = new long[partitions];
+      for (int p = 0; p < partitions; p++ ) {
+        byLeader[p] = ((long) leaders[p] << 32) | p;
+      }
+      Arrays.sort(byLeader);
+      int[] start = new int[partitions + 1];
+      byte[] copied = new byte[BUFFER_SIZE];
+      RandomAccessFile in = new RandomAccessFile(merging, "r");
+      try {
+        OutputStream ordered = new BufferedOutputStream(new FileOutputStream(argFile), BUFFER_SIZE);
+        try {
+          for (int n = 0; n < partitions; n++ ) {
+            int p = (int) byLeader[n];
+            int end = (p + 1 < partitions) ? offsets[p + 1] : argCount;
+            in.seek((long) offsets[p] * INDEX_BYTES);
+            for (long left = (long) (end - offsets[p]) * INDEX_BYTES; left > 0; ) {
+              int length = (int) Math.min(left, copied.length);
+              in.readFully(copied, 0, length);
+              ordered.write(copied, 0, length);
+              left -= length;
+            }
+            start[n + 1] = start[n] + end - offsets[p];
+          }
+        }
+        finally {
+          ordered.close();
+        }
+      }
+      finally {
+        in.close();
+      }
+      return start;
+    }
+    finally {
+      merging.delete();
+    }
+  }
+
+  /**
+   * Sorts signatures in memory and writes them as a run.
+   * @throws IOException if it fails to write the run
+   */
+  private void spill()
+      throws IOException {
+    Collections.sort(records);
+    runs.add(write(new ListCursor(records)));
+    records.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Writes sorted signatures to a new run file.
+   * @param argCursor the signatures
+   * @return the run
+   * @throws IOException if it fails to write the run
+   */
+  private static Run write(Cursor argCursor)
+      throws IOException {
+    Run result = new Run(File.createTempFile("svn-grouping", ".run"));
+    boolean written = false;
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(result.file), BUFFER_SIZE));
+    try {
+      while (argCursor.next()) {
+        writeVarInt(out, argCursor.signature.length);
+        out.write(argCursor.signature);
+        out.writeInt(argCursor.index);
+        result.count++ ;
+      }
+      out.close();
+      written = true;
+    }
+    finally {
+      if (!written) {
+        out.close();
+        result.file.delete();
+      }
+    }
+    RunStats.count("grouping.runs", 1);
+    RunStats.count("grouping.spilled", result.file.length());
+    return result;
+  }
+
+  /**
+   * Opens runs as a single sorted cursor.
+   * @param argRuns the runs
+   * @return the cursor
+   * @throws IOException if it fails to read a run
+   */
+  private static Cursor open(List<Run> argRuns)
+      throws IOException {
+    List<Cursor> cursors = new ArrayList<Cursor>();
+    try {
+      for (Run run : argRuns) {
+        cursors.add(new RunCursor(run));
+      }
+      return new MergeCursor(cursors);
+    }
+    catch (IOException e) {
+      for (Cursor cursor : cursors) {
+        cursor.close();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes ids of a set in order, as their number and then the differences between them.
+   * @param argOut output of the signature
+   * @param argIds the ids
+   * @throws IOException if it fails to write
+   */
+  static void writeIds(DataOutputStream argOut, BitSet argIds)
+      throws IOException {
+    writeVarInt(argOut, argIds.cardinality());
+    int previous = -1;
+    for (int i = argIds.nextSetBit(0); i >= 0; i = argIds.nextSetBit(i + 1)) {
+      writeVarInt(argOut, i - previous);
+      previous = i;
+    }
+  }
+
+  /**
+   * Writes strings in order, as their number and then each of them.
+   * @param argOut output of the signature
+   * @param argStrings the strings
+   * @throws IOException if it fails to write
+   */
+  static void writeStrings(DataOutputStream argOut, Collection<String> argStrings)
+      throws IOException {
+    writeVarInt(argOut, argStrings.size());
+    for (String s : argStrings) {
+      byte[] encoded = s.getBytes("UTF-8");
+      writeVarInt(argOut, encoded.length);
+      argOut.write(encoded);
+    }
+  }
+
+  private static void writeVarInt(DataOutputStream argOut, int argValue)
+      throws IOException {
+    int value = argValue;
+    while ((value & ~0x7F) != 0) {
+      argOut.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    argOut.write(value);
+  }
+
+  private static int readVarInt(DataInputStream argIn)
+      throws IOException {
+    int result = 0;
+    for (int shift = 0;; shift += 7) {
+      int b = argIn.readUnsignedByte();
+      result |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+  }
+
+  /**
+   * Compares signatures by their bytes, and then entities by their indexes.
+   */
+  private static int compare(byte[] argSignature, int argIndex, byte[] otherSignature, int otherIndex) {
+    int length = Math.min(argSignature.length, otherSignature.length);
+    for (int i = 0; i < length; i++ ) {
+      if (argSignature[i] != otherSignature[i]) {
+        return (argSignature[i] & 0xFF) - (otherSignature[i] & 0xFF);
+      }
+    }
+    if (argSignature.length != otherSignature.length) {
+      return argSignature.length - otherSignature.length;
+    }
+    return Integer.compare(argIndex, otherIndex);
+  }
+
+  /**
+   * Encodes the signature of an entity. Two entities have the same signature if and only if they have the same
+   * access privileges.
+   * @author bsanchin
+   */
+  interface Encoder {
+
+    /**
+     * Writes the signature of the entity with the given index.
+     * @param argIndex index of the entity
+     * @param argOut output of the signature
+     * @throws IOException if it fails to write
+     */
+    void encode(int argIndex, DataOutputStream argOut)
+        throws IOException;
+  }
+
+  /**
+   * Signature of an entity in memory.
+   * @author bsanchin
+   */
+  static final class Record
+      implements Comparable<Record> {
+    final byte[] signature;
+    final int index;
+
+    Record(byte[] argSignature, int argIndex) {
+      this.signature = argSignature;
+      this.index = argIndex;
+    }
+
+    @Override
+    public int compareTo(Record other) {
+      return compare(signature, index, other.signature, other.index);
+    }
+  }
+
+  /**
+   * A file of sorted signatures and the number of them.
+   * @author bsanchin
+   */
+  static final class Run {
+    final File file;
+    long count;
+
+    Run(File argFile) {
+      this.file = argFile;
+    }
+  }
+
+  /**
+   * Sorted signatures, one at a time.
+   * @author bsanchin
+   */
+  abstract static class Cursor {
+
+    // Current signature and its entity.
+    byte[] signature;
+    int index;
+
+    /**
+     * Moves on to the next signature.
+     * @return false if there is none
+     * @throws IOException if it fails to read the signature
+     */
+    abstract boolean next()
+        throws IOException;
+
+    void close()
+        throws IOException {
+    }
+  }
+
+  /**
+   * Signatures of a sorted list.
+   * @author bsanchin
+   */
+  static final class ListCursor
+      extends Cursor {
+    private final Iterator<Record> records;
+
+    ListCursor(List<Record> argRecords) {
+      this.records = argRecords.iterator();
+    }
+
+    @Override
+    boolean next() {
+      if (!records.hasNext()) {
+        return false;
+      }
+      Record record = records.next();
+      signature = record.signature;
+      index = record.index;
+      return true;
+    }
+  }
+
+  /**
+   * Signatures of a run file.
+   * @author bsanchin
+   */
+  static final class RunCursor
+      extends Cursor {
+    private final DataInputStream in;
+    private long remaining;
+
+    RunCursor(Run argRun)
+        throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(argRun.file), BUFFER_SIZE));
+      this.remaining = argRun.count;
+    }
+
+    @Override
+    boolean next()
+        throws IOException {
+      if (remaining == 0) {
+        return false;
+      }
+      remaining-- ;
+      signature = new byte[readVarInt(in)];
+      in.readFully(signature);
+      index = in.readInt();
+      return true;
+    }
+
+    @Override
+    void close()
+        throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Signatures of several sorted cursors, merged in order.
+   * @author bsanchin
+   */
+  static final class MergeCursor
+      extends Cursor {
+    private final List<Cursor> cursors;
+    private final PriorityQueue<Cursor> queue;
+
+    // Cursor of the current signature, moved on by the next call.
+    private Cursor current;
+
+    MergeCursor(List<Cursor> argCursors)
+        throws IOException {
+      this.cursors = argCursors;
+      this.queue = new PriorityQueue<Cursor>(Math.max(1, argCursors.size()), new Comparator<Cursor>() {
+        @Override
+        public int compare(Cursor argFirst, Cursor argSecond) {
+          return ExternalGrouping.compare(argFirst.signature, argFirst.index, argSecond.signature,
+              argSecond.index);
+        }
+      });
+      for (Cursor cursor : argCursors) {
+        if (cursor.next()) {
+          queue.add(cursor);
+        }
+      }
+    }
+
+    @Override
+    boolean next()
+        throws IOException {
+      if (current != null && current.next()) {
+        queue.add(current);
+      }
+      current = queue.poll();
+      if (current == null) {
+        return false;
+      }
+      signature = current.signature;
+      index = current.index;
+      return true;
+    }
+
+    @Override
+    void close()
+        throws IOException {
+      for (Cursor cursor : cursors) {
+        cursor.close();
+      }
+    }
+  }
+
+  /**
+   * Partitions by their numbers, read only, each one a sorted set of its entities as read from the partition
+   * file. Entities of neighbouring partitions are read a block at a time, so that rendering partitions in order
+   * reads the file once.
+   * @author bsanchin
+   */
+  static final class Partitions<T extends Comparable<? super T>>
+      extends AbstractMap<Integer, SortedSet<T>> {
+    private final T[] byIndex;
+    private final File file;
+    private final int[] start;
+
+    // Indexes of the entities that were read last, and where the first of them is in the file.
+    private int[] block = new int[0];
+    private int blockStart;
+
+    Partitions(T[] argByIndex, File argFile, int[] argStart) {
+      this.byIndex = argByIndex;
+      this.file = argFile;
+      this.start = argStart;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedSet<T> get(Object argKey) {
+      if (argKey instanceof Integer) {
+        int row = (Integer) argKey;
+        if (row >= 0 && row < size()) {
+          int[] ids = read(start[row], start[row + 1]);
+          return new FrozenModel.RowView<T>(byIndex, new FrozenModel.Rows(new int[] {0, ids.length}, ids), 0);
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Returns indexes of the entities from a position of the file to another one.
+     * @param argFrom position of the first entity
+     * @param argTo position past the last entity
+     * @return the indexes
+     */
+    private synchronized int[] read(int argFrom, int argTo) {
+      if (argFrom < blockStart || argTo > blockStart + block.length) {
+        int to = Math.max(argTo, Math.min(start[size()], argFrom + BUFFER_SIZE / INDEX_BYTES));
+        byte[] bytes = new byte[(to - argFrom) * INDEX_BYTES];
+        try {
+          RandomAccessFile in = new RandomAccessFile(file, "r");
+          try {
+            in.seek((long) argFrom * INDEX_BYTES);
+            in.readFully(bytes);
+          }
+          finally {
+            in.close();
+          }
+        }
+        catch (IOException e) {
+          throw new IllegalStateException("Unable to read the partitions from " + file, e);
+        }
+        block = new int[to - argFrom];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(block);
+        blockStart = argFrom;
+      }
+      return Arrays.copyOfRange(block, argFrom - blockStart, argTo - blockStart);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean containsKey(Object argKey) {
+      return get(argKey) != null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+      return start.length - 1;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Set<Map.Entry<Integer, SortedSet<T>>> entrySet() {
+      return new AbstractSet<Map.Entry<Integer, SortedSet<T>>>() {
+        @Override
+        public Iterator<Map.Entry<Integer, SortedSet<T>>> iterator() {
+          return new Iterator<Map.Entry<Integer, SortedSet<T>>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return next < size();
+            }
+
+            @Override
+            public Map.Entry<Integer, SortedSet<T>> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int row = next++ ;
+              return new AbstractMap.SimpleImmutableEntry<Integer, SortedSet<T>>(row, get(row));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return Partitions.this.size();
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,460 @@
+package svn;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * An access matrix that no longer changes, with every set kept as sorted ids in shared <code>int</code> arrays.
+ * <p>
+ * Once the access configuration file is parsed and the report is all that is left to do, the tree sets of the
+ * parsed model and the bit sets of the access matrix cost far more than what they hold. A tree set costs tens of
+ * bytes of node per member, and a bit set of a group costs a bit per user of the file, however few members the
+ * group has. Freezing the model keeps each kind of set as a single array of ids, sorted within each set, and an
+ * array of offsets where each set starts, see {@link Rows}. Names of users, groups, and sections are kept in
+ * sorted arrays, in the order of their ids, and are looked up by binary search.
+ * <p>
+ * Members of groups and groups of the plain group rules of sections are replaced with read only views of the
+ * frozen arrays, so that the report generators and grouping run on the frozen model as they are. Bit sets are
+ * built from the arrays when they are asked for, which costs less than keeping them, and the returned bit sets
+ * belong to the caller. Views derived from them are kept as in any access matrix, see {@link AccessViews}. A
+ * frozen model has no path permissions and cannot be updated, so it is not used when the model is kept up to
+ * date with the file, see {@link ConfigWatcher}.
+ * @author bsanchin
+ */
+public class FrozenModel
+    extends AccessMatrix {
+
+  // Names of users, groups, and sections, sorted, that is in the order of their ids.
+  protected final String[] userNames;
+  protected final String[] groupNames;
+  protected final String[] repoNames;
+
+  // Direct members of each group, users by their ids and groups by the number of users plus their ids.
+  protected final Rows members;
+
+  // Flattened users of each group.
+  protected final Rows flatMembers;
+
+  // Groups of the plain group rules of each section that grant read only access, and write access.
+  protected final Rows readerGroups;
+  protected final Rows writerGroups;
+
+  // Effective read only users and writers of each section.
+  protected final Rows readers;
+  protected final Rows writers;
+
+  // Read only and writable sections of each user, null if the matrix was not transposed.
+  protected final Rows readable;
+  protected final Rows writable;
+
+  /**
+   * Freezes the access matrix and its entities. The matrix is no longer usable afterwards.
+   * @param argMatrix the access matrix
+   */
+  public FrozenModel(AccessMatrix argMatrix) {
+    super(argMatrix);
+    int userCount = getUserCount();
+    userNames = new String[userCount];
+    for (int u = 0; u < userCount; u++ ) {
+      userNames[u] = getUser(u).id;
+    }
+    groupNames = new String[getGroupCount()];
+    for (int g = 0; g < groupNames.length; g++ ) {
+      groupNames[g] = getGroup(g).id;
+    }
+    repoNames = new String[getRepoCount()];
+    for (int r = 0; r < repoNames.length; r++ ) {
+      repoNames[r] = getRepo(r).id;
+    }
+
+    // Members are kept in the order of their sets, and a set with members of no matrix is left as it is.
+    User[] everyone = new User[userCount + groupNames.length];
+    for (int i = 0; i < everyone.length; i++ ) {
+      everyone[i] = (i < userCount) ? getUser(i) : getGroup(i - userCount);
+    }
+    members = new Rows(groupNames.length);
+    boolean[] attached = new boolean[groupNames.length];
+    for (int g = 0; g < groupNames.length; g++ ) {
+      attached[g] = addAll(members, getGroup(g).users, userCount);
+    }
+    readerGroups = new Rows(repoNames.length);
+    writerGroups = new Rows(repoNames.length);
+    boolean[] attachedRules = new boolean[repoNames.length];
+    for (int r = 0; r < repoNames.length; r++ ) {
+      attachedRules[r] = addAll(readerGroups, getRepo(r).readers, 0)
+          & addAll(writerGroups, getRepo(r).writers, 0);
+    }
+
+    flatMembers = new Rows(argMatrix.membersByGroup);
+    readers = new Rows(argMatrix.readersByRepo);
+    writers = new Rows(argMatrix.writersByRepo);
+    readable = (argMatrix.readableByUser != null) ? new Rows(argMatrix.readableByUser) : null;
+    writable = (argMatrix.writableByUser != null) ? new Rows(argMatrix.writableByUser) : null;
+
+    for (int g = 0; g < groupNames.length; g++ ) {
+      if (attached[g]) {
+        getGroup(g).users = new RowView<User>(everyone, members, g);
+      }
+    }
+    Group[] groupById = Arrays.copyOfRange(everyone, userCount, everyone.length, Group[].class);
+    for (int r = 0; r < repoNames.length; r++ ) {
+      if (attachedRules[r]) {
+        getRepo(r).readers = new RowView<Group>(groupById, readerGroups, r);
+        getRepo(r).writers = new RowView<Group>(groupById, writerGroups, r);
+      }
+    }
+  }
+
+  /**
+   * Adds ids of the entities as the next row.
+   * @param argRows the rows
+   * @param argEntities users or groups of this model
+   * @param argGroupOffset what is added to ids of groups
+   * @return false if an entity is not part of this model, and then the row is empty
+   */
+  private boolean addAll(Rows argRows, Collection<? extends User> argEntities, int argGroupOffset) {
+    boolean result = true;
+    for (User u : argEntities) {
+      if (u.matrix != this) {
+        result = false;
+        break;
+      }
+      argRows.add((u instanceof Group) ? argGroupOffset + u.index : u.index);
+    }
+    if (!result) {
+      argRows.dropRow();
+    }
+    argRows.endRow();
+    return result;
+  }
+
+  /**
+   * Returns the user with the given name.
+   * @param argName name of the user
+   * @return the user, or null if there is none
+   */
+  public User getUser(String argName) {
+    int i = Arrays.binarySearch(userNames, argName);
+    return (i >= 0) ? getUser(i) : null;
+  }
+
+  /**
+   * Returns the group with the given name, without the leading @.
+   * @param argName name of the group
+   * @return the group, or null if there is none
+   */
+  public Group getGroup(String argName) {
+    int i = Arrays.binarySearch(groupNames, argName);
+    return (i >= 0) ? getGroup(i) : null;
+  }
+
+  /**
+   * Returns the section with the given header, such as <code>[repo:/trunk]</code>.
+   * @param argName header of the section
+   * @return the section, or null if there is none
+   */
+  public Repo getRepo(String argName) {
+    int i = Arrays.binarySearch(repoNames, argName);
+    return (i >= 0) ? getRepo(i) : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet update(BitSet argChanged, ForkJoinPool argPool) {
+    throw new UnsupportedOperationException("The access model is frozen");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public PathPermissions getPermissions() {
+    throw new UnsupportedOperationException("The access model is frozen");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet getMembers(Group argGroup) {
+    return flatMembers.toBitSet(indexOf(argGroup), getUserCount());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet getReaders(Repo argRepo) {
+    return readers.toBitSet(indexOf(argRepo), getUserCount());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet getWriters(Repo argRepo) {
+    return writers.toBitSet(indexOf(argRepo), getUserCount());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet getReadable(User argUser) {
+    return views.get(AccessViews.READABLE, indexOf(argUser));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet getWritable(User argUser) {
+    return views.get(AccessViews.WRITABLE, indexOf(argUser));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected BitSet computeView(int argKind, int argIndex) {
+    if (argKind == AccessViews.READABLE && readable != null) {
+      return readable.toBitSet(argIndex, getRepoCount());
+    }
+    if (argKind == AccessViews.WRITABLE && writable != null) {
+      return writable.toBitSet(argIndex, getRepoCount());
+    }
+    return super.computeView(argKind, argIndex);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public BitSet[] getRepos(int argFrom, int argTo, boolean argWritable) {
+    BitSet[] result = new BitSet[argTo - argFrom];
+    for (int i = 0; i < result.length; i++ ) {
+      result[i] = new BitSet(getRepoCount());
+    }
+    Rows byRepo = argWritable ? writers : readers;
+    for (int r = 0; r < getRepoCount(); r++ ) {
+      int i = Arrays.binarySearch(byRepo.ids, byRepo.start[r], byRepo.start[r + 1], argFrom);
+      for (i = (i >= 0) ? i : -i - 1; i < byRepo.start[r + 1] && byRepo.ids[i] < argTo; i++ ) {
+        result[byRepo.ids[i] - argFrom].set(r);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Sets of ids in a single array, one set after another, with an array of offsets where each set starts.
+   * Ids of set <code>i</code> are <code>ids[start[i]]</code> to <code>ids[start[i + 1]]</code>, exclusive.
+   * @author bsanchin
+   */
+  static final class Rows {
+    final int[] start;
+    int[] ids;
+    private int rows;
+    private int size;
+
+    /**
+     * Creates empty rows, which are then added with {@link #add(int)} and {@link #endRow()}.
+     * @param argRows number of rows
+     */
+    Rows(int argRows) {
+      this.start = new int[argRows + 1];
+      this.ids = new int[16];
+    }
+
+    /**
+     * Creates rows of the bits of the bit sets, in their order.
+     * @param argSets the bit sets
+     */
+    Rows(BitSet[] argSets) {
+      this.start = new int[argSets.length + 1];
+      long total = 0;
+      for (BitSet set : argSets) {
+        total += set.cardinality();
+      }
+      if (total > Integer.MAX_VALUE - 8) {
+        throw new IllegalStateException("Too many ids to freeze: " + total);
+      }
+      this.ids = new int[(int) total];
+      for (BitSet set : argSets) {
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+          ids[size++ ] = i;
+        }
+        start[++rows] = size;
+      }
+    }
+
+    /**
+     * Creates rows of ids that are already laid out.
+     * @param argStart where each row starts, and the number of ids last
+     * @param argIds ids of the rows, one row after another
+     */
+    Rows(int[] argStart, int[] argIds) {
+      this.start = argStart;
+      this.ids = argIds;
+      this.rows = argStart.length - 1;
+      this.size = argIds.length;
+    }
+
+    void add(int argId) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++ ] = argId;
+    }
+
+    // Drops the ids added since the last row ended.
+    void dropRow() {
+      size = start[rows];
+    }
+
+    void endRow() {
+      start[++rows] = size;
+      if (rows == start.length - 1 && ids.length != size) {
+        ids = Arrays.copyOf(ids, size);
+      }
+    }
+
+    int size(int argRow) {
+      return start[argRow + 1] - start[argRow];
+    }
+
+    /**
+     * Returns the ids of a row as a new bit set.
+     * @param argRow the row
+     * @param argSize number of possible ids
+     * @return the bit set
+     */
+    BitSet toBitSet(int argRow, int argSize) {
+      BitSet result = new BitSet(argSize);
+      for (int i = start[argRow]; i < start[argRow + 1]; i++ ) {
+        result.set(ids[i]);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A read only sorted set of the entities of a row, or of a range of a row. Entities are in the order of the set
+   * that was frozen, which is their natural order, so that they are looked up by binary search and ranges are
+   * views of the same row.
+   * @author bsanchin
+   */
+  static final class RowView<T extends Comparable<? super T>>
+      extends AbstractSet<T>
+      implements SortedSet<T> {
+
+    private final T[] byId;
+    private final Rows rows;
+
+    // Positions of the first id of this view and past its last id in the ids of the rows.
+    private final int from;
+    private final int to;
+
+    RowView(T[] argById, Rows argRows, int argRow) {
+      this(argById, argRows, argRows.start[argRow], argRows.start[argRow + 1]);
+    }
+
+    private RowView(T[] argById, Rows argRows, int argFrom, int argTo) {
+      this.byId = argById;
+      this.rows = argRows;
+      this.from = argFrom;
+      this.to = argTo;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private int next = from;
+
+        @Override
+        public boolean hasNext() {
+          return next < to;
+        }
+
+        @Override
+        public T next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return byId[rows.ids[next++ ]];
+        }
+      };
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int size() {
+      return to - from;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean contains(Object argObject) {
+      try {
+        int i = position(argObject);
+        return i < to && byId[rows.ids[i]].equals(argObject);
+      }
+      catch (ClassCastException e) {
+        return false;
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Comparator<? super T> comparator() {
+      return null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public T first() {
+      if (isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return byId[rows.ids[from]];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public T last() {
+      if (isEmpty()) {
+        throw new NoSuchElementException();
+      }
+      return byId[rows.ids[to - 1]];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedSet<T> subSet(T argFrom, T argTo) {
+      if (argFrom.compareTo(argTo) > 0) {
+        throw new IllegalArgumentException("fromElement > toElement");
+      }
+      return new RowView<T>(byId, rows, position(argFrom), position(argTo));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedSet<T> headSet(T argTo) {
+      return new RowView<T>(byId, rows, from, position(argTo));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public SortedSet<T> tailSet(T argFrom) {
+      return new RowView<T>(byId, rows, position(argFrom), to);
+    }
+
+    /**
+     * Returns the position of the first entity of this view that is not less than the given one.
+     * @param argObject an entity of the type of this view
+     * @return the position, which is past the last id if every entity is less
+     * @throws ClassCastException if the object is not an entity of the type of this view
+     */
+    @SuppressWarnings("unchecked")
+    private int position(Object argObject) {
+      T key = (T) argObject;
+      int low = from;
+      int high = to;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (byId[rows.ids[middle]].compareTo(key) < 0) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
+}
@@ -1,5 +1,6 @@
 package svn;
 
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
@@ -9,8 +10,11 @@ import java.util.TreeSet;
 public class Group
     extends User {
 
-  // A group will have at least one user
-  TreeSet<User> users = new TreeSet<User>();
+  // A group will have at least one user, a read only view once the model is frozen, see FrozenModel.
+  SortedSet<User> users = new TreeSet<User>();
+
+  // Flattened users, cached from the access matrix on first use.
+  private volatile TreeSet<User> allUsers;
 
   public Group(String argId) {
     super(argId);
@@ -22,6 +26,7 @@ public class Group
    */
   public void addUser(User argUser) {
     users.add(argUser);
+    allUsers = null;
   }
 
   /** {@inheritDoc} */
@@ -34,21 +39,25 @@ public class Group
   }
 
   /**
-   * Returns users of this group.
+   * Returns users of this group, including users of its sub groups. Users are flattened once when the access
+   * matrix is built, and the returned set is cached, so it must not be modified.
    * @return users of this group
    */
   public TreeSet<User> getAllUsers() {
-    TreeSet<User> tmp = new TreeSet<User>();
-    for (User u : users) {
-      // This must a sub group within this group. We need its users.
-      if (u instanceof Group) {
-        tmp.addAll(((Group) u).getAllUsers());
-      }
-      else {
-        tmp.add(u);
-      }
+    TreeSet<User> result = allUsers;
+    if (result == null) {
+      AccessMatrix m = getMatrix();
+      result = m.toUsers(m.getMembers(this));
+      allUsers = result;
     }
-    return tmp;
+    return result;
+  }
+
+  /**
+   * Forgets cached users, so that they would be loaded from a newly built access matrix.
+   */
+  void resetAllUsers() {
+    allUsers = null;
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,288 @@
+package svn;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes flattened users of every group exactly once.
+ * <p>
+ * Groups and their sub groups form a graph. Strongly connected components of that graph are found first, so
+ * that a group that contains itself, directly (<code>devs = @devs</code>) or through other groups, is reported
+ * as an error instead of recursing forever. Groups of a cycle are treated as a single group with all their
+ * users. Components are then evaluated in topological order, one level at a time: a level only depends on
+ * lower levels, so components of the same level are flattened in parallel.
+ * @author bsanchin
+ */
+class GroupClosure {
+
+  // Levels with less components than this are flattened on the calling thread.
+  static final int PARALLEL_THRESHOLD = 64;
+
+  protected final AccessMatrix matrix;
+  protected final ForkJoinPool pool;
+
+  // Direct sub groups and direct users of each group, indexed by group id.
+  protected final int[][] subGroups;
+  protected final BitSet[] directUsers;
+
+  // Members of each component in reverse topological order, sub groups come before their parents.
+  protected final List<int[]> components = new ArrayList<int[]>();
+  protected final int[] componentOf;
+
+  // Groups that contain themselves.
+  protected final List<TreeSet<Group>> cycles = new ArrayList<TreeSet<Group>>();
+
+  // Flattened users of each component and each group.
+  protected final BitSet[] membersByComponent;
+  protected final BitSet[] membersByGroup;
+
+  /**
+   * Flattens groups of the given matrix. Users and groups must already have their ids in the matrix.
+   * @param argMatrix the matrix
+   * @param argPool pool that flattens large levels in parallel
+   */
+  GroupClosure(AccessMatrix argMatrix, ForkJoinPool argPool) {
+    this.matrix = argMatrix;
+    this.pool = argPool;
+
+    int size = matrix.getGroupCount();
+    subGroups = new int[size][];
+    directUsers = new BitSet[size];
+    for (int i = 0; i < size; i++ ) {
+      Group g = matrix.getGroup(i);
+      BitSet users = new BitSet(matrix.getUserCount());
+      int[] tmp = new int[g.users.size()];
+      int count = 0;
+      for (User u : g.users) {
+        if (u.matrix != matrix) {
+          continue;
+        }
+        if (u instanceof Group) {
+          tmp[count++ ] = u.index;
+        }
+        else {
+          users.set(u.index);
+        }
+      }
+      subGroups[i] = Arrays.copyOf(tmp, count);
+      directUsers[i] = users;
+    }
+
+    componentOf = new int[size];
+    findComponents();
+    reportCycles();
+
+    membersByComponent = new BitSet[components.size()];
+    membersByGroup = new BitSet[size];
+    for (int[] level : levels()) {
+      if (level.length < PARALLEL_THRESHOLD || pool == null) {
+        flatten(level, 0, level.length);
+      }
+      else {
+        pool.invoke(new LevelTask(level, 0, level.length));
+      }
+    }
+  }
+
+  /**
+   * Finds strongly connected components with Tarjan's algorithm. An explicit stack is used, so that deeply
+   * nested groups would not overflow the thread stack. Components are found in reverse topological order.
+   */
+  private void findComponents() {
+    int size = subGroups.length;
+    int[] order = new int[size];
+    int[] low = new int[size];
+    int[] edge = new int[size];
+    boolean[] onStack = new boolean[size];
+    int[] stack = new int[size];
+    int[] calls = new int[size];
+    int stackSize = 0;
+    int counter = 1;
+
+    for (int root = 0; root < size; root++ ) {
+      if (order[root] != 0) {
+        continue;
+      }
+      int callsSize = 0;
+      calls[callsSize++ ] = root;
+      order[root] = low[root] = counter++ ;
+      stack[stackSize++ ] = root;
+      onStack[root] = true;
+
+      while (callsSize > 0) {
+        int v = calls[callsSize - 1];
+        if (edge[v] < subGroups[v].length) {
+          int w = subGroups[v][edge[v]++ ];
+          if (order[w] == 0) {
+            order[w] = low[w] = counter++ ;
+            stack[stackSize++ ] = w;
+            onStack[w] = true;
+            calls[callsSize++ ] = w;
+          }
+          else if (onStack[w]) {
+            low[v] = Math.min(low[v], order[w]);
+          }
+          continue;
+        }
+
+        // All sub groups of v are visited.
+        callsSize-- ;
+        if (callsSize > 0) {
+          int parent = calls[callsSize - 1];
+          low[parent] = Math.min(low[parent], low[v]);
+        }
+        if (low[v] == order[v]) {
+          int start = stackSize;
+          do {
+            start-- ;
+            onStack[stack[start]] = false;
+            componentOf[stack[start]] = components.size();
+          }
+          while (stack[start] != v);
+          components.add(Arrays.copyOfRange(stack, start, stackSize));
+          stackSize = start;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reports groups that contain themselves. Such groups are still flattened, but the access configuration
+   * file should be fixed.
+   */
+  private void reportCycles() {
+    for (int[] component : components) {
+      boolean cyclic = component.length > 1;
+      if (!cyclic) {
+        for (int sub : subGroups[component[0]]) {
+          cyclic |= (sub == component[0]);
+        }
+      }
+      if (cyclic) {
+        TreeSet<Group> cycle = new TreeSet<Group>();
+        for (int g : component) {
+          cycle.add(matrix.getGroup(g));
+        }
+        cycles.add(cycle);
+        System.err.println("Group contains itself: " + cycle);
+      }
+    }
+  }
+
+  /**
+   * Splits components into levels. Leaf components are on the first level, and every other component is one
+   * level above its highest sub component.
+   * @return component ids of each level
+   */
+  private List<int[]> levels() {
+    int[] levelOf = new int[components.size()];
+    int[] levelSizes = new int[components.size() + 1];
+    int height = 0;
+    for (int c = 0; c < components.size(); c++ ) {
+      int level = 0;
+      for (int g : components.get(c)) {
+        for (int sub : subGroups[g]) {
+          if (componentOf[sub] != c) {
+            level = Math.max(level, levelOf[componentOf[sub]] + 1);
+          }
+        }
+      }
+      levelOf[c] = level;
+      levelSizes[level]++ ;
+      height = Math.max(height, level + 1);
+    }
+
+    List<int[]> result = new ArrayList<int[]>();
+    for (int i = 0; i < height; i++ ) {
+      result.add(new int[levelSizes[i]]);
+      levelSizes[i] = 0;
+    }
+    for (int c = 0; c < components.size(); c++ ) {
+      result.get(levelOf[c])[levelSizes[levelOf[c]]++ ] = c;
+    }
+    return result;
+  }
+
+  /**
+   * Flattens the given range of components of a level. Sub components are on lower levels, so they are
+   * already flattened.
+   * @param argLevel component ids of the level
+   * @param argFrom first index, inclusive
+   * @param argTo last index, exclusive
+   */
+  private void flatten(int[] argLevel, int argFrom, int argTo) {
+    long lookups = 0;
+    long operations = 0;
+    for (int i = argFrom; i < argTo; i++ ) {
+      int c = argLevel[i];
+      BitSet members = new BitSet(matrix.getUserCount());
+      for (int g : components.get(c)) {
+        members.or(directUsers[g]);
+        operations++ ;
+        for (int sub : subGroups[g]) {
+          lookups++ ;
+          if (componentOf[sub] != c) {
+            members.or(membersByComponent[componentOf[sub]]);
+            operations++ ;
+          }
+        }
+      }
+      membersByComponent[c] = members;
+      for (int g : components.get(c)) {
+        membersByGroup[g] = members;
+      }
+    }
+    RunStats.count("closure.lookups", lookups);
+    RunStats.count("set.operations", operations);
+  }
+
+  /**
+   * Returns flattened users of each group, indexed by group id. Groups of the same cycle share their users.
+   * @return flattened users of each group
+   */
+  BitSet[] getMembersByGroup() {
+    return membersByGroup;
+  }
+
+  /**
+   * Returns groups that contain themselves, one set per cycle.
+   * @return cyclic groups
+   */
+  List<TreeSet<Group>> getCycles() {
+    return cycles;
+  }
+
+  /**
+   * Flattens a range of components of a level, splitting large ranges in halves.
+   * @author bsanchin
+   */
+  private class LevelTask
+      extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] level;
+    private final int from;
+    private final int to;
+
+    LevelTask(int[] argLevel, int argFrom, int argTo) {
+      this.level = argLevel;
+      this.from = argFrom;
+      this.to = argTo;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void compute() {
+      if (to - from <= PARALLEL_THRESHOLD) {
+        flatten(level, from, to);
+      }
+      else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new LevelTask(level, from, middle), new LevelTask(level, middle, to));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,260 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Finds pairs of groups with nearly the same flattened users, as suggestions of groups that could be merged.
+ * Two groups are similar when the Jaccard similarity of their users, that is the users of both over the users
+ * of either, is at least the threshold.
+ * <p>
+ * Groups with the very same users are found first by hashing their users, and each of them is paired with the
+ * first one of them only. The other groups are compared through MinHash signatures: the minimum of each of
+ * {@link #SIGNATURE_SIZE} hash functions over the users of a group, so that two signatures agree on a value
+ * with the probability of the Jaccard similarity of their groups. Signatures are cut into bands, and groups whose
+ * signatures are the same in a band are candidates. The number of rows in a band is chosen so that a pair at
+ * the threshold is a candidate with a probability of {@link #RECALL} at least. Candidates are then verified
+ * exactly, by walking the users of the smaller group. Signatures cost a pass over every membership, bands cost a
+ * sort of the groups, and only candidates are ever compared, so the time grows with the total number of users
+ * of the groups rather than with the square of the number of groups.
+ * @author bsanchin
+ */
+public class GroupSimilarity {
+
+  // Hash functions of a signature.
+  static final int SIGNATURE_SIZE = 128;
+
+  // Probability that a pair at the threshold is a candidate.
+  static final double RECALL = 0.99;
+
+  protected final AccessMatrix matrix;
+  protected final double threshold;
+
+  // Rows of a band, and bands of a signature.
+  protected final int rows;
+  protected final int bands;
+
+  // Groups that are compared, each with distinct users, and their numbers of users.
+  protected final Group[] compared;
+  protected final int[] sizes;
+
+  // Similar pairs, most similar first.
+  protected final List<Pair> pairs = new ArrayList<Pair>();
+
+  /**
+   * Finds similar pairs among the given groups.
+   * @param argMatrix the access matrix, whose flattened users of the groups are compared
+   * @param argGroups the groups
+   * @param argThreshold the least Jaccard similarity of a pair, greater than 0 and at most 1
+   */
+  public GroupSimilarity(AccessMatrix argMatrix, Collection<Group> argGroups, double argThreshold) {
+    if (!(argThreshold > 0 && argThreshold <= 1)) {
+      throw new IllegalArgumentException("Similarity must be greater than 0 and at most 1: " + argThreshold);
+    }
+    this.matrix = argMatrix;
+    this.threshold = argThreshold;
+
+    int r = 1;
+    while (r < SIGNATURE_SIZE && recall(r + 1) >= RECALL) {
+      r++ ;
+    }
+    rows = r;
+    bands = SIGNATURE_SIZE / rows;
+
+    RunStats.Span span = RunStats.begin("similar.same");
+    HashMap<BitSet, Group> first = new HashMap<BitSet, Group>();
+    List<Group> distinct = new ArrayList<Group>();
+    for (Group g : argGroups) {
+      BitSet users = matrix.getMembers(g);
+      if (users.isEmpty()) {
+        continue;
+      }
+      Group same = first.get(users);
+      if (same == null) {
+        first.put(users, g);
+        distinct.add(g);
+      }
+      else {
+        int size = users.cardinality();
+        pairs.add(new Pair(same, g, size, 0, 0));
+      }
+    }
+    if (distinct.size() > 0xFFFFFF) {
+      throw new IllegalStateException("Too many groups to compare: " + distinct.size());
+    }
+    compared = distinct.toArray(new Group[distinct.size()]);
+    sizes = new int[compared.length];
+    for (int i = 0; i < compared.length; i++ ) {
+      sizes[i] = matrix.getMembers(compared[i]).cardinality();
+    }
+    span.end();
+
+    span = RunStats.begin("similar.minhash");
+    int[] signatures = signatures();
+    span.end();
+
+    span = RunStats.begin("similar.lsh");
+    HashSet<Long> seen = new HashSet<Long>();
+    long[] keys = new long[compared.length];
+    for (int b = 0; b < bands; b++ ) {
+      for (int i = 0; i < compared.length; i++ ) {
+        long key = 0;
+        for (int j = b * rows; j < (b + 1) * rows; j++ ) {
+          key = mix(key ^ signatures[i * SIGNATURE_SIZE + j]);
+        }
+        // The band is kept in the high bits and the group in the low ones, so that sorting buckets the groups.
+        keys[i] = (key & ~0xFFFFFFL) | i;
+      }
+      Arrays.sort(keys);
+      for (int from = 0, to = 1; from < keys.length; from = to, to = from + 1) {
+        while (to < keys.length && (keys[to] & ~0xFFFFFFL) == (keys[from] & ~0xFFFFFFL)) {
+          to++ ;
+        }
+        for (int i = from; i < to; i++ ) {
+          for (int j = i + 1; j < to; j++ ) {
+            int x = (int) (keys[i] & 0xFFFFFF);
+            int y = (int) (keys[j] & 0xFFFFFF);
+            if (seen.add(((long) Math.min(x, y) << 32) | Math.max(x, y))) {
+              verify(Math.min(x, y), Math.max(x, y));
+            }
+          }
+        }
+      }
+    }
+    RunStats.count("similar.candidates", seen.size());
+    span.end();
+
+    Collections.sort(pairs);
+  }
+
+  /**
+   * Returns the probability that a pair at the threshold is a candidate with the given rows in a band.
+   * @param argRows rows of a band
+   * @return the probability
+   */
+  private double recall(int argRows) {
+    return 1 - Math.pow(1 - Math.pow(threshold, argRows), SIGNATURE_SIZE / argRows);
+  }
+
+  /**
+   * Computes the MinHash signature of each compared group. A user is hashed once, and each hash function is then
+   * a multiply and shift of that hash.
+   * @return signatures, one after another
+   */
+  private int[] signatures() {
+    long[] multipliers = new long[SIGNATURE_SIZE];
+    long[] increments = new long[SIGNATURE_SIZE];
+    for (int j = 0; j < SIGNATURE_SIZE; j++ ) {
+      multipliers[j] = mix(2 * j + 1) | 1;
+      increments[j] = mix(2 * j + 2);
+    }
+    int[] result = new int[compared.length * SIGNATURE_SIZE];
+    Arrays.fill(result, Integer.MAX_VALUE);
+    long memberships = 0;
+    for (int i = 0; i < compared.length; i++ ) {
+      BitSet users = matrix.getMembers(compared[i]);
+      int offset = i * SIGNATURE_SIZE;
+      for (int u = users.nextSetBit(0); u >= 0; u = users.nextSetBit(u + 1)) {
+        long x = mix(u);
+        for (int j = 0; j < SIGNATURE_SIZE; j++ ) {
+          result[offset + j] = Math.min(result[offset + j], (int) ((multipliers[j] * x + increments[j]) >>> 33));
+        }
+      }
+      memberships += sizes[i];
+    }
+    RunStats.count("similar.memberships", memberships);
+    return result;
+  }
+
+  /**
+   * Compares users of two compared groups exactly, and adds them as a pair if they are similar.
+   * @param argFirst index of the first group
+   * @param argSecond index of the second group
+   */
+  private void verify(int argFirst, int argSecond) {
+    int small = (sizes[argFirst] <= sizes[argSecond]) ? argFirst : argSecond;
+    int large = (small == argFirst) ? argSecond : argFirst;
+    if (sizes[small] < threshold * sizes[large]) {
+      return;
+    }
+    BitSet smallUsers = matrix.getMembers(compared[small]);
+    BitSet largeUsers = matrix.getMembers(compared[large]);
+    int shared = 0;
+    for (int u = smallUsers.nextSetBit(0); u >= 0; u = smallUsers.nextSetBit(u + 1)) {
+      if (largeUsers.get(u)) {
+        shared++ ;
+      }
+    }
+    RunStats.count("similar.verified", 1);
+    int either = sizes[argFirst] + sizes[argSecond] - shared;
+    if (shared >= threshold * either) {
+      pairs.add(new Pair(compared[argFirst], compared[argSecond], shared, sizes[argFirst] - shared,
+          sizes[argSecond] - shared));
+    }
+  }
+
+  /**
+   * Mixes the bits of a number, the finalizer of SplitMix64.
+   * @param argValue the number
+   * @return the mixed number
+   */
+  static long mix(long argValue) {
+    long z = argValue + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Returns similar pairs, most similar first, and then in the order of their groups.
+   * @return similar pairs
+   */
+  public List<Pair> getPairs() {
+    return pairs;
+  }
+
+  /**
+   * Two similar groups, and their shared users and the users of only one of them.
+   * @author bsanchin
+   */
+  public static class Pair
+      implements Comparable<Pair> {
+    final Group first;
+    final Group second;
+    final int shared;
+    final int onlyFirst;
+    final int onlySecond;
+
+    Pair(Group argFirst, Group argSecond, int argShared, int argOnlyFirst, int argOnlySecond) {
+      boolean ordered = argFirst.compareTo(argSecond) <= 0;
+      this.first = ordered ? argFirst : argSecond;
+      this.second = ordered ? argSecond : argFirst;
+      this.shared = argShared;
+      this.onlyFirst = ordered ? argOnlyFirst : argOnlySecond;
+      this.onlySecond = ordered ? argOnlySecond : argOnlyFirst;
+    }
+
+    /**
+     * Returns the Jaccard similarity of the users of the groups.
+     * @return the similarity
+     */
+    public double getSimilarity() {
+      return (double) shared / (shared + onlyFirst + onlySecond);
+    }
+
+    @Override
+    public int compareTo(Pair other) {
+      int result = Double.compare(other.getSimilarity(), getSimilarity());
+      if (result == 0) {
+        result = first.compareTo(other.first);
+      }
+      return (result != 0) ? result : second.compareTo(other.second);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%.3f", getSimilarity()) + "\t" + first + "\t" + second + "\t" + shared
+          + "\t" + onlyFirst + "\t" + onlySecond;
+    }
+  }
+
+}
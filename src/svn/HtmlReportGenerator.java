@@ -2,11 +2,15 @@ package svn;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Generates an HTML report based on repositories, groups, users, and access permission information. Generated
  * report would have a name repos.html. There will a lot of cross linking between entities but all these makes
  * navigation easier.
+ * <p>
+ * The report is streamed into the file row by row through a fixed size buffer, so that memory use stays the
+ * same however large the report grows.
  * @author bsanchin
  */
 public class HtmlReportGenerator
@@ -16,10 +20,26 @@ public class HtmlReportGenerator
   static final String COMMA = ", ";
   static final String BR = "</br>";
   static final String NL = System.getProperty("line.separator");
+  static final String UTF8 = "UTF-8";
+
+  // Size of the output buffer in chars.
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  // File of the report, repos.html unless it is one of several reports, see BatchAuditor.
+  protected File reportFile = new File(REPORT_FILE);
+
+  // Explains access of writers of each repo, and of the users of a row to each of their repos, next to them,
+  // null to leave it out, see --explain.
+  protected AccessExplainer explainer;
+
+  HtmlReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool) {
+    this(argUsers, argGroups, argRepos, argMatrix, argPool, 0);
+  }
 
   HtmlReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
-      TreeMap<String, Repo> argRepos) {
-    super(argUsers, argGroups, argRepos);
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool, long argGroupingMemory) {
+    super(argUsers, argGroups, argRepos, argMatrix, argPool, argGroupingMemory);
   }
 
   /** {@inheritDoc} */
@@ -27,237 +47,505 @@ public class HtmlReportGenerator
   public void generateReport()
       throws Exception {
 
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    sb.appendln(makeHeader());
-    sb.appendln(makeSummary());
-    sb.appendln(makeRepos());
-    sb.appendln(makeGroups());
-    sb.appendln(makeUsers());
-    sb.appendln("</body></html>");
-
-    BufferedWriter writer = new BufferedWriter(new FileWriter(new File(REPORT_FILE)));
-    writer.write(sb.toString());
-    writer.close();
-    System.out.println("Report generation completed! See repos.html for the result.");
+    // Grouping passes run in the background while the first sections are written.
+    Future<Void> groupingRepos = groupReposAsync();
+    Future<Void> groupingUsers = groupUsersAsync();
+
+    RunStats.Span span = RunStats.begin("render");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), UTF8),
+        BUFFER_SIZE);
+    try {
+      render(writer, groupingRepos, groupingUsers);
+    }
+    finally {
+      writer.close();
+      span.end();
+    }
+    System.out.println("Report generation completed! See " + reportFile.getPath() + " for the result.");
+  }
+
+  /**
+   * Renders the whole report to the output.
+   * @param argOut output of the report
+   * @param argGroupingRepos the task that groups repositories
+   * @param argGroupingUsers the task that groups users
+   * @throws Exception if it fails to render the report
+   */
+  void render(Appendable argOut, Future<Void> argGroupingRepos, Future<Void> argGroupingUsers)
+      throws Exception {
+    HtmlWriter out = new HtmlWriter(argOut);
+    makeHeader(out);
+    out.append(NL);
+    makeSummary(out);
+    out.append(NL);
+    await(argGroupingRepos);
+    makeRepos(out);
+    out.append(NL);
+    makeGroups(out);
+    out.append(NL);
+    await(argGroupingUsers);
+    makeUsers(out);
+    out.append(NL);
+    out.appendln("</body></html>");
   }
 
   /**
    * Generates HTML portion of the report with repositories information.
-   * @return HTML portion of the report with repositories information
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
+   */
+  protected void makeRepos(HtmlWriter out)
+      throws IOException {
+    out.appendln("<h1 id='repositories'>Repositories</h1>");
+    makeRepoTable(out);
+
+    streamChunks(reposGroupedByUsers.size(), new ChunkRenderer() {
+      @Override
+      public void render(Appendable argOut, int argFrom, int argTo)
+          throws IOException {
+        makeRepoRows(new HtmlWriter(argOut), argFrom, argTo);
+      }
+    }, out.out);
+    out.append("</table><br><br>");
+  }
+
+  /**
+   * Opens the repositories table with its header row.
+   * @param out output of the table
+   * @throws IOException if it fails to write the table
+   */
+  protected void makeRepoTable(HtmlWriter out)
+      throws IOException {
+    out.appendln("<table border='1'>");
+    out.appendln("  <tr>");
+    out.appendln("    <th>Repos</th>");
+    out.appendln("    <th>Readers and Writers Combined</th>");
+    out.appendln("    <th>Readers Only</th>");
+    out.appendln("    <th>Readers Only Count</th>");
+    out.appendln("    <th>Writers</th>");
+    out.appendln("    <th>Writers Count</th>");
+    out.appendln("  </tr>");
+  }
+
+  /**
+   * Generates rows of the repositories table.
+   * @param out output of the rows
+   * @param argFrom first row, inclusive
+   * @param argTo last row, exclusive
+   * @throws IOException if it fails to write the rows
    */
-  protected String makeRepos() {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    sb.appendln("<h1 id='repositories'>Repositories</h1>");
-    sb.appendln("<table border='1'>");
-    sb.appendln("  <tr>");
-    sb.appendln("    <th>Repos</th>");
-    sb.appendln("    <th>Readers and Writers Combined</th>");
-    sb.appendln("    <th>Readers Only</th>");
-    sb.appendln("    <th>Readers Only Count</th>");
-    sb.appendln("    <th>Writers</th>");
-    sb.appendln("    <th>Writers Count</th>");
-    sb.appendln("  </tr>");
-
-    for (Integer num : reposGroupedByUsers.keySet()) {
-      Repo oneOfTheRepos = reposGroupedByUsers.get(num).first();
-      sb.appendln("  <tr>");
-      sb.append("    <td>");
-      sb.append(bookmark(reposGroupedByUsers.get(num), "repo", "</br>"));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center'>");
-      sb.append(oneOfTheRepos.getReadersAndWritersAsUserSet().size());
-      sb.appendln("    </td>");
-      sb.append("    <td class='read'>");
-      sb.append(getGroupDetail(oneOfTheRepos.readers));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center' class='read'>");
-      sb.append(oneOfTheRepos.getReadersAsUsersSet().size());
-      sb.appendln("    </td>");
-      sb.append("    <td class='write'>");
-      sb.append(getGroupDetail(oneOfTheRepos.writers));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center' class='write'>");
-      sb.append(oneOfTheRepos.getWritersAsUsersSet().size());
-      sb.appendln("    </td>");
-      sb.appendln("  </tr>");
+  protected void makeRepoRows(HtmlWriter out, int argFrom, int argTo)
+      throws IOException {
+    for (int num = argFrom; num < argTo; num++ ) {
+      SortedSet<Repo> row = reposGroupedByUsers.get(num);
+      if (repoGrouping == null) {
+        makeRepoRow(out, row);
+        continue;
+      }
+      String rendered = repoGrouping.getRow(row);
+      if (rendered == null) {
+        StringBuilder sb = new StringBuilder();
+        makeRepoRow(new HtmlWriter(sb), row);
+        rendered = sb.toString();
+        repoGrouping.setRow(row, rendered);
+      }
+      out.append(rendered);
     }
-    sb.append("</table><br><br>");
-    return sb.toString();
+  }
+
+  /**
+   * Generates a row of the repositories table.
+   * @param out output of the row
+   * @param argRow repos of the row
+   * @throws IOException if it fails to write the row
+   */
+  private void makeRepoRow(HtmlWriter out, SortedSet<Repo> argRow)
+      throws IOException {
+    RunStats.count("rows.rendered", 1);
+    Repo oneOfTheRepos = argRow.first();
+    out.appendln("  <tr>");
+    out.append("    <td>");
+    bookmark(out, argRow, "repo", "</br>");
+    out.appendln("    </td>");
+    out.append("    <td align='center'>");
+    BitSet readers = matrix.getReaders(oneOfTheRepos);
+    BitSet writers = matrix.getWriters(oneOfTheRepos);
+    out.append(matrix.getReadersAndWriters(oneOfTheRepos).cardinality());
+    out.appendln("    </td>");
+    out.append("    <td class='read'>");
+    getGroupDetail(out, oneOfTheRepos.readers);
+    getRuleDetail(out, oneOfTheRepos, false);
+    out.appendln("    </td>");
+    out.append("    <td align='center' class='read'>");
+    out.append(readers.cardinality());
+    out.appendln("    </td>");
+    out.append("    <td class='write'>");
+    getGroupDetail(out, oneOfTheRepos.writers);
+    getRuleDetail(out, oneOfTheRepos, true);
+    explainWriters(out, oneOfTheRepos);
+    out.appendln("    </td>");
+    out.append("    <td align='center' class='write'>");
+    out.append(writers.cardinality());
+    out.appendln("    </td>");
+    out.appendln("  </tr>");
   }
 
   /**
    * Creates anchor for each of the list elements.
+   * @param out output of the anchors
    * @param list elements to be anchored/bookmarked.
    * @param anchor anchor pattern
    * @param connector a connector that will be put between the elements
-   * @return anchored elements
+   * @throws IOException if it fails to write the anchors
    */
-  private String bookmark(Collection<? extends Object> list, String anchor, String connector) {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
+  private void bookmark(HtmlWriter out, Collection<? extends Object> list, String anchor, String connector)
+      throws IOException {
     int cursor = 0;
     for (Object obj : list) {
-      sb.append("<span id='" + anchor + ":" + win(obj) + "'></span>");
-      sb.append(obj);
+      out.append("<span id='" + anchor + ":" + win(obj) + "'></span>");
+      out.append(obj);
       if (cursor < list.size() - 1) {
-        sb.appendln(connector);
+        out.appendln(connector);
       }
       cursor++ ;
     }
-    return sb.toString();
   }
 
   /**
    * Generates HTML portion of the report with group and user mapping information.
+   * @param out output of the groups
    * @param argGroups list of groups
-   * @return HTML portion of the report with group and user mapping information
+   * @throws IOException if it fails to write the groups
    */
-  private String getGroupDetail(Collection<Group> argGroups) {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
+  private void getGroupDetail(HtmlWriter out, Collection<Group> argGroups)
+      throws IOException {
     for (User user : argGroups) {
       if (user instanceof Group) {
-        sb.append("<a href='#group:" + win(user.id) + "'>");
-        sb.append("@" + user.id);
-        sb.appendln("</a>");
-        sb.appendln(BR);
+        out.append("<a href='" + link("group", user.id) + "'>");
+        out.append("@" + user.id);
+        out.appendln("</a>");
+        out.appendln(BR);
       }
       else {
-        sb.append(user);
+        out.append(user);
       }
     }
-    return sb.toString().replaceAll(COMMA + "$", "");
   }
 
   /**
-   * Creates links using give list of objects.
-   * @param list list of objects to be linked
-   * @param anchor anchor pattern
+   * Generates HTML portion of the report with rules other than plain group rules, such as user rules, inverted
+   * rules, and rules that revoke access. Rules that revoke access go with the read rules.
+   * @param out output of the rules
+   * @param argRepo the repository
+   * @param argWrite true for the rules that grant write access, false for the others
+   * @throws IOException if it fails to write the rules
+   */
+  private void getRuleDetail(HtmlWriter out, Repo argRepo, boolean argWrite)
+      throws IOException {
+    for (AccessRule rule : argRepo.rules) {
+      if (!rule.isPlainGroupRule() && ((rule.access & AccessRule.WRITE) != 0) == argWrite) {
+        out.append(rule);
+        out.appendln(BR);
+      }
+    }
+  }
+
+  /**
+   * Explains how each writer of the repo gets write access, by the shortest path, a writer on a line of its own.
+   * @param out output of the explanations
+   * @param argRepo the repo
+   * @throws IOException if it fails to write the explanations
+   */
+  private void explainWriters(HtmlWriter out, Repo argRepo)
+      throws IOException {
+    BitSet writers = matrix.getWriters(argRepo);
+    if (explainer == null || writers.isEmpty()) {
+      return;
+    }
+    out.append("<small>");
+    for (int u = writers.nextSetBit(0); u >= 0; u = writers.nextSetBit(u + 1)) {
+      out.append(escape(explain(explainer.explain(matrix.getUser(u), argRepo, AccessRule.WRITE, 1))));
+      out.appendln(BR);
+    }
+    out.append("</small>");
+  }
+
+  /**
+   * Creates links to the given repos. With an explainer, each link is followed by how each of the users gets the
+   * access.
+   * @param out output of the links
+   * @param argRepos ids of the repos to be linked
    * @param connector a connector that will be put between elements
-   * @return linked elements
+   * @param argExplained groups of the users whose access is explained, null if there is no explainer
+   * @param argAccess the access, {@link AccessRule#READ} or {@link AccessRule#WRITE}
+   * @throws IOException if it fails to write the links
    */
-  private String link(Collection<? extends Object> list, String anchor, String connector) {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    int cursor = 0;
-    for (Object obj : list) {
-      sb.append("<a href='#" + anchor + ":" + win(obj) + "'>");
-      sb.append(obj);
-      sb.append("</a>");
-      if (cursor < list.size() - 1) {
-        sb.appendln(connector);
+  private void linkRepos(HtmlWriter out, BitSet argRepos, String connector,
+      AccessExplainer.Ancestors[] argExplained, int argAccess)
+      throws IOException {
+    for (int i = argRepos.nextSetBit(0); i >= 0;) {
+      Repo r = matrix.getRepo(i);
+      out.append("<a href='" + link("repo", r) + "'>");
+      out.append(r);
+      out.append("</a>");
+      if (argExplained != null) {
+        out.append(" <small>");
+        for (int u = 0; u < argExplained.length; u++ ) {
+          out.append(BR + escape(explain(explainer.explain(argExplained[u], r, argAccess, 1))));
+        }
+        out.append("</small>");
       }
-      cursor++ ;
+      i = argRepos.nextSetBit(i + 1);
+      if (i >= 0) {
+        out.appendln(connector);
+      }
+    }
+  }
+
+  /**
+   * Walks up from every user of a row to their groups, once for every repo of the row.
+   * @param argUsers users of the row
+   * @return groups of each user, or null if there is no explainer
+   */
+  private AccessExplainer.Ancestors[] explained(Collection<User> argUsers) {
+    if (explainer == null) {
+      return null;
     }
-    return sb.toString();
+    AccessExplainer.Ancestors[] result = new AccessExplainer.Ancestors[argUsers.size()];
+    Iterator<User> it = argUsers.iterator();
+    for (int i = 0; i < result.length; i++ ) {
+      result[i] = explainer.ancestors(it.next());
+    }
+    return result;
+  }
+
+  /**
+   * Returns how the user gets the access, by the deciding section and the shortest path to its rule.
+   * @param argExplanation explanation with a single path
+   * @return the explanation on a single line
+   */
+  private static String explain(AccessExplainer.Explanation argExplanation) {
+    return argExplanation.user + ": " + argExplanation.section + " "
+        + (argExplanation.grants.isEmpty() ? "" : argExplanation.grants.get(0));
+  }
+
+  /**
+   * Escapes characters that would end an element or an attribute value of HTML.
+   * @param argString the text
+   * @return the escaped text
+   */
+  static String escape(String argString) {
+    return argString.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&#39;");
   }
 
   /**
    * Generates HTML portion of the report with groups information.
-   * @return HTML portion of the report with groups information
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
    */
-  private String makeGroups() {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    sb.appendln("<h1 id='groups'>Groups</h1>");
-    for (Group g : groups.values()) {
-      sb.append("<h3 id='group:" + g.id + "'>");
-      sb.append(g.id);
-      sb.append(" (" + g.getAllUsers().size() + ")");
-      sb.appendln("</h3>");
-      SimpleStringBuilder tmp = new SimpleStringBuilder();
+  private void makeGroups(HtmlWriter out)
+      throws IOException {
+    out.appendln("<h1 id='groups'>Groups</h1>");
+    final Group[] allGroups = groups.values().toArray(new Group[groups.size()]);
+    streamChunks(allGroups.length, new ChunkRenderer() {
+      @Override
+      public void render(Appendable argOut, int argFrom, int argTo)
+          throws IOException {
+        makeGroupRows(new HtmlWriter(argOut), allGroups, argFrom, argTo);
+      }
+    }, out.out);
+    out.append("<br><br>");
+  }
+
+  /**
+   * Generates entries of the groups section.
+   * @param out output of the entries
+   * @param argGroups all groups
+   * @param argFrom first group, inclusive
+   * @param argTo last group, exclusive
+   * @throws IOException if it fails to write the entries
+   */
+  protected void makeGroupRows(HtmlWriter out, Group[] argGroups, int argFrom, int argTo)
+      throws IOException {
+    RunStats.count("rows.rendered", argTo - argFrom);
+    for (int i = argFrom; i < argTo; i++ ) {
+      Group g = argGroups[i];
+      out.append("<h3 id='group:" + g.id + "'>");
+      out.append(g.id);
+      out.append(" (" + matrix.getMembers(g).cardinality() + ")");
+      out.appendln("</h3>");
+      int cursor = 0;
       for (User u : g.users) {
         boolean isGroup = (u instanceof Group);
-        tmp.append("<a href='#" + (isGroup ? "group" : "user") + ":" + win(u.id) + "'>");
-        tmp.append(u);
-        tmp.append("</a>");
-        tmp.appendln(COMMA);
+        out.append("<a href='" + link(isGroup ? "group" : "user", u.id) + "'>");
+        out.append(u);
+        out.append("</a>");
+        if (cursor < g.users.size() - 1) {
+          out.append(COMMA);
+        }
+        out.append(NL);
+        cursor++ ;
       }
-      sb.append(tmp.toString().replaceAll(", $", ""));
-      sb.append("</br>");
+      out.append("</br>");
     }
-    sb.append("<br><br>");
-
-    return sb.toString();
   }
 
   /**
    * Generates HTML portion of the report with header and some styling.
-   * @return HTML portion of the report with header and some styling
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
    */
-  private String makeHeader() {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    sb.appendln("<html><head><style>");
-    sb.appendln("  table { border-collapse: collapse;}");
-    sb.appendln("  tr:nth-child(even) {background-color: #f2f2f2}");
-    sb.appendln("  th {padding: 15px; background-color: #4CAF50; color: white; font-family: arial;}");
-    sb.appendln("  td{vertical-align:top;}");
-    sb.appendln("  h3{margin-bottom: 2px;}");
-    sb.appendln("  .read{background-color: #E0F8F1}");
-    sb.appendln("  .write{background-color: #F5F6CE}");
-    sb.appendln("</style></head><body>");
-    return sb.toString();
+  protected void makeHeader(HtmlWriter out)
+      throws IOException {
+    out.appendln("<html><head><meta charset='UTF-8'><style>");
+    out.appendln("  table { border-collapse: collapse;}");
+    out.appendln("  tr:nth-child(even) {background-color: #f2f2f2}");
+    out.appendln("  th {padding: 15px; background-color: #4CAF50; color: white; font-family: arial;}");
+    out.appendln("  td{vertical-align:top;}");
+    out.appendln("  h3{margin-bottom: 2px;}");
+    out.appendln("  .read{background-color: #E0F8F1}");
+    out.appendln("  .write{background-color: #F5F6CE}");
+    out.appendln("</style></head><body>");
   }
 
   /**
    * Generates HTML portion of the report with summary of the report.
-   * @return HTML portion of the report with summary of the report
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
    */
-  private String makeSummary() {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    TreeSet<User> tmp = new TreeSet<User>();
+  protected void makeSummary(HtmlWriter out)
+      throws IOException {
+    BitSet tmp = new BitSet(matrix.getUserCount());
     for (Group g : groups.values()) {
-      tmp.addAll(g.getAllUsers());
+      tmp.or(matrix.getMembers(g));
     }
-    sb.appendln("<h1>Summary</h1>");
-    sb.appendln("Repositories (including sub repositories): " + repos.size());
-    sb.appendln("<br>");
-    sb.appendln("SVN Users: " + tmp.size());
-    sb.appendln("<br><br>");
-    sb.appendln(
+    out.appendln("<h1>Summary</h1>");
+    out.appendln("Repositories (including sub repositories): " + repos.size());
+    out.appendln("<br>");
+    out.appendln("SVN Users: " + tmp.cardinality());
+    out.appendln("<br><br>");
+    makeQuickLinks(out);
+    out.appendln("<br><br><br>");
+  }
+
+  /**
+   * Generates links to the other parts of the report.
+   * @param out output of the links
+   * @throws IOException if it fails to write the links
+   */
+  protected void makeQuickLinks(HtmlWriter out)
+      throws IOException {
+    out.appendln(
         "Quick Links: <a href='#repositories'>Repositories</a>, <a href='#groups'>Groups</a>, <a href='#users'>SVN Users</a>");
-    sb.appendln("<br><br><br>");
-    return sb.toString();
   }
 
   /**
    * Generates HTML portion of the report with users information.
-   * @return HTML portion of the report with users information
+   * @param out output of the report
+   * @throws IOException if it fails to write the report
+   */
+  private void makeUsers(HtmlWriter out)
+      throws IOException {
+    out.appendln("<h1 id='users'>SVN Users</h1>");
+    makeUserTable(out);
+
+    streamChunks(usersGroupedByRepos.size(), new ChunkRenderer() {
+      @Override
+      public void render(Appendable argOut, int argFrom, int argTo)
+          throws IOException {
+        makeUserRows(new HtmlWriter(argOut), argFrom, argTo);
+      }
+    }, out.out);
+    out.appendln("</table>");
+  }
+
+  /**
+   * Opens the users table with its header row.
+   * @param out output of the table
+   * @throws IOException if it fails to write the table
    */
-  private String makeUsers() {
-    SimpleStringBuilder sb = new SimpleStringBuilder();
-    sb.appendln("<h1 id='users'>SVN Users</h1>");
-    sb.appendln("<table border='1'>");
-    sb.appendln("  <tr>");
-    sb.appendln("    <th>Username</th>");
-    sb.appendln("    <th>Reabable and Writable Repos Combined</th>");
-    sb.appendln("    <th>Readable Only Repos</th>");
-    sb.appendln("    <th>Readable Only Repos Count</th>");
-    sb.appendln("    <th>Writable Repos</th>");
-    sb.appendln("    <th>Writable Repos Count</th>");
-    sb.appendln("  </tr>");
-
-    for (Integer num : usersGroupedByRepos.keySet()) {
-      sb.appendln("  <tr>");
-      sb.append("    <td>");
-      sb.append(bookmark(usersGroupedByRepos.get(num), "user", "</br>"));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center'>");
-      User oneOfTheUsers = usersGroupedByRepos.get(num).first();
-      sb.append(oneOfTheUsers.getReadableAndWritableRepos(repos.values()).size());
-      sb.appendln("    </td>");
-      sb.append("    <td class='read'>");
-      sb.append(link(oneOfTheUsers.getReadableRepos(repos.values()), "repo", "</br>"));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center' class='read'>");
-      sb.append(oneOfTheUsers.getReadableRepos(repos.values()).size());
-      sb.appendln("    </td>");
-      sb.append("    <td class='write'>");
-      sb.append(link(oneOfTheUsers.getWritableRepos(repos.values()), "repo", "</br>"));
-      sb.appendln("    </td>");
-      sb.append("    <td align='center' class='write'>");
-      sb.append(oneOfTheUsers.getWritableRepos(repos.values()).size());
-      sb.appendln("    </td>");
-      sb.appendln("  </tr>");
+  protected void makeUserTable(HtmlWriter out)
+      throws IOException {
+    out.appendln("<table border='1'>");
+    out.appendln("  <tr>");
+    out.appendln("    <th>Username</th>");
+    out.appendln("    <th>Reabable and Writable Repos Combined</th>");
+    out.appendln("    <th>Readable Only Repos</th>");
+    out.appendln("    <th>Readable Only Repos Count</th>");
+    out.appendln("    <th>Writable Repos</th>");
+    out.appendln("    <th>Writable Repos Count</th>");
+    out.appendln("  </tr>");
+  }
+
+  /**
+   * Generates rows of the users table.
+   * @param out output of the rows
+   * @param argFrom first row, inclusive
+   * @param argTo last row, exclusive
+   * @throws IOException if it fails to write the rows
+   */
+  protected void makeUserRows(HtmlWriter out, int argFrom, int argTo)
+      throws IOException {
+    for (int num = argFrom; num < argTo; num++ ) {
+      SortedSet<User> row = usersGroupedByRepos.get(num);
+      if (userGrouping == null) {
+        makeUserRow(out, row);
+        continue;
+      }
+      String rendered = userGrouping.getRow(row);
+      if (rendered == null) {
+        StringBuilder sb = new StringBuilder();
+        makeUserRow(new HtmlWriter(sb), row);
+        rendered = sb.toString();
+        userGrouping.setRow(row, rendered);
+      }
+      out.append(rendered);
     }
-    sb.appendln("</table>");
-    return sb.toString();
+  }
+
+  /**
+   * Generates a row of the users table.
+   * @param out output of the row
+   * @param argRow users of the row
+   * @throws IOException if it fails to write the row
+   */
+  private void makeUserRow(HtmlWriter out, SortedSet<User> argRow)
+      throws IOException {
+    RunStats.count("rows.rendered", 1);
+    out.appendln("  <tr>");
+    out.append("    <td>");
+    bookmark(out, argRow, "user", "</br>");
+    out.appendln("    </td>");
+    out.append("    <td align='center'>");
+    User oneOfTheUsers = argRow.first();
+    AccessExplainer.Ancestors[] explained = explained(argRow);
+    BitSet readable = matrix.getReadable(oneOfTheUsers);
+    BitSet writable = matrix.getWritable(oneOfTheUsers);
+    out.append(matrix.getReadableAndWritable(oneOfTheUsers).cardinality());
+    out.appendln("    </td>");
+    out.append("    <td class='read'>");
+    linkRepos(out, readable, "</br>", explained, AccessRule.READ);
+    out.appendln("    </td>");
+    out.append("    <td align='center' class='read'>");
+    out.append(readable.cardinality());
+    out.appendln("    </td>");
+    out.append("    <td class='write'>");
+    linkRepos(out, writable, "</br>", explained, AccessRule.WRITE);
+    out.appendln("    </td>");
+    out.append("    <td align='center' class='write'>");
+    out.append(writable.cardinality());
+    out.appendln("    </td>");
+    out.appendln("  </tr>");
+  }
+
+  /**
+   * Returns the link to an entity, an anchor within the report.
+   * @param argKind repo, group, or user
+   * @param argId id of the entity
+   * @return the link
+   */
+  protected String link(String argKind, Object argId) {
+    return "#" + argKind + ":" + win(argId);
   }
 
   /**
@@ -270,22 +558,24 @@ public class HtmlReportGenerator
   }
 
   /**
-   * Java's StringBuilder lacks appendln method. But we could wrap this guy to create what we wanted.
+   * Java's Writer lacks appendln method. But we could wrap this guy to create what we wanted. The output is
+   * either the report file itself or a chunk of rows that is rendered in parallel.
    * @author bsanchin
    */
-  static class SimpleStringBuilder {
-    private StringBuilder sb = new StringBuilder();
+  static class HtmlWriter {
+    final Appendable out;
 
-    @Override
-    public String toString() {
-      return sb.toString();
+    HtmlWriter(Appendable argOut) {
+      this.out = argOut;
     }
 
-    void append(Object argObject) {
-      sb.append(argObject.toString());
+    void append(Object argObject)
+        throws IOException {
+      out.append(argObject.toString());
     }
 
-    void appendln(Object argObject) {
+    void appendln(Object argObject)
+        throws IOException {
       append(argObject);
       append(NL);
     }
@@ -0,0 +1,16 @@
+package svn;
+
+/**
+ * A common interface to the answers of lookups, see {@link SvnAccessAuditor#query(ILookup, String[])}.
+ * @author bsanchin
+ */
+public interface ILookup {
+
+  /**
+   * Answers a single lookup.
+   * @param argWords the lookup and its arguments
+   * @return the answer in a single line
+   * @throws IllegalArgumentException if the lookup or its arguments are unknown
+   */
+  public String answer(String[] argWords);
+}
@@ -1,28 +1,18 @@
 package svn;
 
 /**
- * The access configuration is processed in 5 steps/states:
- * <p>
- * <ul>
- * <li>{@link InitialState}
- * <li>{@link CreateNewGroupState}
- * <li>{@link AddUsersToGroupState}
- * <li>{@link CreateNewRepoState}
- * <li>{@link AddGroupsToRepoState}
- * </ul>
- * <p>
- * State transition happens based on the configuration file line that is currently being read.
+ * A state that handles lines of the access configuration file, one at a time, in the order of the file. Each
+ * line is classified once by {@link AuthzLine}, and the same instance is reused for the next line, so a state
+ * must not keep the line. The file is parsed by chunks that are states of their own, see
+ * {@link ConfigParser.Chunk}.
  * @author bsanchin
  */
 public interface IState {
 
-  public static final String EQUAL_SIGN = "=";
-  public static final String REGEX_SPLIT = "\\s*,\\s*";
-
   /**
    * Processes current line and makes transition based on the implementation.
    * @param line line to be processed
    */
-  void process(String line);
+  void process(AuthzLine line);
 
 }
@@ -0,0 +1,266 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Repositories or users grouped by their access signatures, kept from one report to the next in watch mode, so
+ * that an update of the model regroups only the entities whose access changed, see {@link ConfigWatcher}.
+ * <p>
+ * When the model is updated, entities whose access changed are taken out of their partitions, and the next
+ * report signs them and puts each one into the partition of its signature. Every other entity stays where it
+ * is, and is not signed again. A partition keeps only the hash of its signature, since bit sets of the matrix
+ * change in place as it is updated. Its whole signature is that of its first entity, and it is computed only
+ * when a moved entity has the same hash. Signatures are made of ids of the matrix, so once users or repositories
+ * are added or removed, hashes of the partitions are computed again from their first entities, a signature for
+ * each partition rather than for each entity.
+ * <p>
+ * Each partition keeps its rendered row of the HTML report until an entity joins or leaves it, or until access
+ * of its entities is explained differently. Partitions and their rows are kept in memory, with a budget of
+ * grouping memory too.
+ * @author bsanchin
+ */
+class IncrementalGrouping<T extends Comparable<? super T>> {
+
+  // Partitions by their entities, and by their first entities, that is in the order of the report.
+  private final HashMap<T, Partition<T>> byEntity = new HashMap<T, Partition<T>>();
+  private final TreeMap<T, Partition<T>> byFirst = new TreeMap<T, Partition<T>>();
+
+  // Partitions by the hashes of their signatures.
+  private HashMap<Integer, List<Partition<T>>> byHash = new HashMap<Integer, List<Partition<T>>>();
+
+  // Entities that are in no partition until they are signed.
+  private final TreeSet<T> moved = new TreeSet<T>();
+
+  // Ids of the matrix moved since the partitions were hashed.
+  private boolean renumbered;
+
+  /**
+   * Returns true if no entity was grouped yet, or every one was removed.
+   * @return true if there is nothing to regroup
+   */
+  boolean isEmpty() {
+    return byEntity.isEmpty() && moved.isEmpty();
+  }
+
+  /**
+   * Takes entities out of their partitions, so that they are signed and grouped again by the next report. New
+   * entities are moved as well.
+   * @param argEntities entities whose access changed
+   */
+  void move(Collection<? extends T> argEntities) {
+    for (T entity : argEntities) {
+      takeOut(entity);
+      moved.add(entity);
+    }
+  }
+
+  /**
+   * Takes entities that are no longer in the model out of their partitions.
+   * @param argEntities removed entities
+   */
+  void remove(Collection<? extends T> argEntities) {
+    for (T entity : argEntities) {
+      takeOut(entity);
+      moved.remove(entity);
+    }
+  }
+
+  /**
+   * Tells that ids of the matrix moved, so that partitions are hashed again by the next report.
+   */
+  void renumber() {
+    renumbered = true;
+  }
+
+  /**
+   * Forgets rendered rows of the partitions of the entities, which stay where they are.
+   * @param argEntities entities whose rows changed
+   */
+  void forget(Collection<? extends T> argEntities) {
+    for (T entity : argEntities) {
+      Partition<T> partition = byEntity.get(entity);
+      if (partition != null) {
+        partition.row = null;
+      }
+    }
+  }
+
+  /**
+   * Forgets rendered rows of every partition.
+   */
+  void forgetRows() {
+    for (Partition<T> partition : byFirst.values()) {
+      partition.row = null;
+    }
+  }
+
+  /**
+   * Forgets every partition, once the whole model is built again.
+   */
+  void clear() {
+    byEntity.clear();
+    byFirst.clear();
+    byHash.clear();
+    moved.clear();
+    renumbered = false;
+  }
+
+  /**
+   * Puts moved entities into the partitions of their signatures, and returns the partitions.
+   * @param argSigner signs entities from the current matrix
+   * @return partitions by their numbers, in the order of their first entities, each with its entities in order
+   */
+  Map<Integer, SortedSet<T>> regroup(Signer<T> argSigner) {
+    // Whole signatures of the partitions that were compared with, computed once each.
+    IdentityHashMap<Partition<T>, PermissionSignature> signatures =
+        new IdentityHashMap<Partition<T>, PermissionSignature>();
+    if (renumbered) {
+      List<T> firsts = new ArrayList<T>(byFirst.keySet());
+      PermissionSignature[] signed = argSigner.sign(firsts);
+      byHash = new HashMap<Integer, List<Partition<T>>>();
+      for (int i = 0; i < signed.length; i++ ) {
+        Partition<T> partition = byFirst.get(firsts.get(i));
+        partition.hash = signed[i].hashCode();
+        signatures.put(partition, signed[i]);
+        bucket(partition.hash).add(partition);
+      }
+      renumbered = false;
+    }
+
+    List<T> entities = new ArrayList<T>(moved);
+    moved.clear();
+    PermissionSignature[] signed = argSigner.sign(entities);
+    RunStats.count("grouping.moved", entities.size());
+    for (int i = 0; i < signed.length; i++ ) {
+      List<Partition<T>> bucket = bucket(signed[i].hashCode());
+      Partition<T> same = null;
+      for (Partition<T> partition : bucket) {
+        PermissionSignature signature = signatures.get(partition);
+        if (signature == null) {
+          signature = argSigner.sign(Collections.singletonList(partition.entities.first()))[0];
+          signatures.put(partition, signature);
+        }
+        if (signature.equals(signed[i])) {
+          same = partition;
+          break;
+        }
+      }
+      if (same == null) {
+        same = new Partition<T>();
+        same.hash = signed[i].hashCode();
+        signatures.put(same, signed[i]);
+        bucket.add(same);
+      }
+      put(entities.get(i), same);
+    }
+
+    TreeMap<Integer, SortedSet<T>> result = new TreeMap<Integer, SortedSet<T>>();
+    int counter = 0;
+    for (Partition<T> partition : byFirst.values()) {
+      result.put(counter, partition.entities);
+      counter++ ;
+    }
+    return result;
+  }
+
+  /**
+   * Returns the rendered row of a partition of the last regrouping.
+   * @param argPartition entities of the partition
+   * @return the row, or null if it must be rendered
+   */
+  String getRow(SortedSet<T> argPartition) {
+    String result = byFirst.get(argPartition.first()).row;
+    if (result != null) {
+      RunStats.count("rows.reused", 1);
+    }
+    return result;
+  }
+
+  /**
+   * Keeps the rendered row of a partition of the last regrouping, until the partition changes.
+   * @param argPartition entities of the partition
+   * @param argRow the row
+   */
+  void setRow(SortedSet<T> argPartition, String argRow) {
+    byFirst.get(argPartition.first()).row = argRow;
+  }
+
+  private List<Partition<T>> bucket(int argHash) {
+    List<Partition<T>> result = byHash.get(argHash);
+    if (result == null) {
+      result = new ArrayList<Partition<T>>(1);
+      byHash.put(argHash, result);
+    }
+    return result;
+  }
+
+  /**
+   * Takes the entity out of its partition, if it is in one, and drops the partition once it is empty.
+   * @param argEntity the entity
+   */
+  private void takeOut(T argEntity) {
+    Partition<T> partition = byEntity.remove(argEntity);
+    if (partition == null) {
+      return;
+    }
+    T first = partition.entities.first();
+    partition.entities.remove(argEntity);
+    partition.row = null;
+    if (partition.entities.isEmpty()) {
+      byFirst.remove(first);
+      List<Partition<T>> bucket = byHash.get(partition.hash);
+      bucket.remove(partition);
+      if (bucket.isEmpty()) {
+        byHash.remove(partition.hash);
+      }
+    }
+    else if (first.compareTo(argEntity) == 0) {
+      byFirst.remove(first);
+      byFirst.put(partition.entities.first(), partition);
+    }
+  }
+
+  /**
+   * Puts the entity into the partition.
+   * @param argEntity the entity
+   * @param argPartition the partition
+   */
+  private void put(T argEntity, Partition<T> argPartition) {
+    if (!argPartition.entities.isEmpty() && argEntity.compareTo(argPartition.entities.first()) < 0) {
+      byFirst.remove(argPartition.entities.first());
+    }
+    argPartition.entities.add(argEntity);
+    argPartition.row = null;
+    byFirst.put(argPartition.entities.first(), argPartition);
+    byEntity.put(argEntity, argPartition);
+  }
+
+  /**
+   * Entities with the same signature, and their rendered row.
+   * @author bsanchin
+   */
+  static final class Partition<T> {
+    final TreeSet<T> entities = new TreeSet<T>();
+
+    // Hash of the signature of the entities.
+    int hash;
+
+    // Rendered row of the report, null until it is rendered again.
+    String row;
+  }
+
+  /**
+   * Signs entities from the current matrix.
+   * @author bsanchin
+   */
+  interface Signer<T> {
+
+    /**
+     * Returns signatures of the entities.
+     * @param argEntities the entities, in their order
+     * @return a signature of each entity
+     */
+    PermissionSignature[] sign(List<T> argEntities);
+  }
+
+}
@@ -0,0 +1,116 @@
+package svn;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.TreeMap;
+
+/**
+ * Generates the report as newline delimited JSON files, see {@link RowReportGenerator}: repos.ndjson,
+ * groups.ndjson, users.ndjson, and access.ndjson. Each row is an object on a line of its own, with a member for
+ * each column, such as <code>{"user":"alice","repo":"[proj:/]","access":"rw"}</code>. A missing value is
+ * <code>null</code>.
+ * @author bsanchin
+ */
+public class JsonReportGenerator
+    extends RowReportGenerator {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  // What goes before each field of the current table, the opening brace or a comma, and the member name.
+  private String[] prefixes;
+
+  JsonReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix) {
+    super(argUsers, argGroups, argRepos, argMatrix);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected String extension() {
+    return "ndjson";
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void beginTable(Writer out, String[] argColumns)
+      throws IOException {
+    prefixes = new String[argColumns.length];
+    for (int i = 0; i < argColumns.length; i++ ) {
+      StringWriter prefix = new StringWriter();
+      prefix.write((i == 0) ? '{' : ',');
+      quote(prefix, argColumns[i]);
+      prefix.write(':');
+      prefixes[i] = prefix.toString();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void field(Writer out, int argColumn, String argValue)
+      throws IOException {
+    out.write(prefixes[argColumn]);
+    if (argValue == null) {
+      out.write("null");
+    }
+    else {
+      quote(out, argValue);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void field(Writer out, int argColumn, long argValue)
+      throws IOException {
+    out.write(prefixes[argColumn]);
+    out.write(Long.toString(argValue));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void endRow(Writer out)
+      throws IOException {
+    out.write("}\n");
+  }
+
+  /**
+   * Writes a JSON string. Runs of chars that need no escape are written at once.
+   * @param out where the string goes
+   * @param argValue the string
+   * @throws IOException if it fails to write the string
+   */
+  static void quote(Writer out, String argValue)
+      throws IOException {
+    out.write('"');
+    int from = 0;
+    for (int i = 0; i < argValue.length(); i++ ) {
+      char c = argValue.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\') {
+        continue;
+      }
+      out.write(argValue, from, i - from);
+      from = i + 1;
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      }
+      else if (c == '\n') {
+        out.write("\\n");
+      }
+      else if (c == '\r') {
+        out.write("\\r");
+      }
+      else if (c == '\t') {
+        out.write("\\t");
+      }
+      else {
+        out.write("\\u00");
+        out.write(HEX[c >> 4]);
+        out.write(HEX[c & 0xF]);
+      }
+    }
+    out.write(argValue, from, argValue.length() - from);
+    out.write('"');
+  }
+
+}
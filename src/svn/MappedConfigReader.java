@@ -0,0 +1,200 @@
+package svn;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+
+/**
+ * Reads the access configuration file through a memory mapped buffer.
+ * <p>
+ * Line boundaries are found directly in the mapped bytes, and lines are handed over to a state without being
+ * copied into strings. Plain ASCII lines, which are the vast majority, are bulk copied into a reused array as
+ * they are. Lines with other UTF-8 chars are decoded explicitly into a reused buffer. Names are interned by the
+ * {@link AuthzLine}, so only distinct user, group, and repository names become strings.
+ * <p>
+ * A range of the file may be read on its own, so that chunks of the file are read at once, see
+ * {@link ConfigParser}. Ranges larger than {@link #MAX_REGION} are mapped one region at a time, each region
+ * ending on a line boundary.
+ * @author bsanchin
+ */
+class MappedConfigReader {
+
+  static final int MAX_REGION = 1 << 30;
+  static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  protected final AuthzLine line;
+  protected final AsciiLine asciiLine = new AsciiLine();
+  protected final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+      .onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+  protected CharBuffer decoded = CharBuffer.allocate(256);
+
+  MappedConfigReader(NameTable argNames) {
+    this.line = new AuthzLine(argNames);
+  }
+
+  /**
+   * Reads every line of a range of the file and lets the state handle it.
+   * @param argFile the access configuration file
+   * @param argFrom first byte of the range, the start of a line
+   * @param argTo last byte of the range, exclusive, the start of a line or the end of the file
+   * @param argState the state
+   * @throws IOException if it fails to read the file
+   */
+  void read(File argFile, long argFrom, long argTo, IState argState)
+      throws IOException {
+    FileInputStream in = new FileInputStream(argFile);
+    try {
+      FileChannel channel = in.getChannel();
+      long position = argFrom;
+      while (position < argTo) {
+        long regionSize = Math.min(argTo - position, MAX_REGION);
+        MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+        int consumed = readRegion(region, position == 0, position + regionSize == argTo, argState);
+        if (consumed == 0) {
+          throw new IOException("Line is too long at byte " + position + " of " + argFile);
+        }
+        position += consumed;
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads lines of a mapped region.
+   * @param argRegion the region
+   * @param argFirst true if this is the first region, where a byte order mark may be
+   * @param argLast true if this is the last region, where the last line may not end with a new line
+   * @param argState the state
+   * @return number of bytes consumed, that is up to the end of the last complete line
+   * @throws IOException if a line is not valid UTF-8
+   */
+  private int readRegion(ByteBuffer argRegion, boolean argFirst, boolean argLast, IState argState)
+      throws IOException {
+    int limit = argRegion.limit();
+    int start = 0;
+    if (argFirst && limit >= 3 && argRegion.get(0) == (byte) 0xEF && argRegion.get(1) == (byte) 0xBB
+        && argRegion.get(2) == (byte) 0xBF) {
+      start = 3;
+    }
+
+    int i = start;
+    boolean ascii = true;
+    while (i < limit) {
+      byte b = argRegion.get(i);
+      if (b == '\n') {
+        handle(argRegion, start, i, ascii, argState);
+        start = i + 1;
+        ascii = true;
+      }
+      else if (b < 0) {
+        ascii = false;
+      }
+      i++ ;
+    }
+    if (argLast && start < limit) {
+      handle(argRegion, start, limit, ascii, argState);
+      start = limit;
+    }
+    return start;
+  }
+
+  /**
+   * Hands a line over to the state.
+   * @param argRegion the region
+   * @param argStart first byte of the line, inclusive
+   * @param argEnd last byte of the line, exclusive
+   * @param argAscii true if the line has only ASCII chars
+   * @param argState the state
+   * @throws IOException if the line is not valid UTF-8
+   */
+  private void handle(ByteBuffer argRegion, int argStart, int argEnd, boolean argAscii, IState argState)
+      throws IOException {
+    CharSequence text;
+    if (argAscii) {
+      asciiLine.reset(argRegion, argStart, argEnd);
+      text = asciiLine;
+    }
+    else {
+      text = decode(argRegion, argStart, argEnd);
+    }
+    argState.process(line.scan(text));
+  }
+
+  /**
+   * Decodes a UTF-8 line into the reused char buffer.
+   * @param argRegion the region
+   * @param argStart first byte of the line, inclusive
+   * @param argEnd last byte of the line, exclusive
+   * @return the decoded line
+   * @throws IOException if the line is not valid UTF-8
+   */
+  private CharBuffer decode(ByteBuffer argRegion, int argStart, int argEnd)
+      throws IOException {
+    ByteBuffer bytes = argRegion.duplicate();
+    bytes.limit(argEnd);
+    bytes.position(argStart);
+    if (decoded.capacity() < argEnd - argStart) {
+      decoded = CharBuffer.allocate(argEnd - argStart);
+    }
+    decoded.clear();
+    decoder.reset();
+    CoderResult result = decoder.decode(bytes, decoded, true);
+    if (!result.isUnderflow()) {
+      result.throwException();
+    }
+    decoder.flush(decoded);
+    decoded.flip();
+    return decoded;
+  }
+
+  /**
+   * An ASCII line of the mapped buffer. Each byte is a char. Bytes of the line are bulk copied into a reused
+   * array, which is much cheaper to scan char by char than the mapped buffer itself.
+   * @author bsanchin
+   */
+  static final class AsciiLine
+      implements CharSequence {
+
+    private byte[] bytes = new byte[256];
+    private int length;
+
+    void reset(ByteBuffer argBuffer, int argStart, int argEnd) {
+      length = argEnd - argStart;
+      if (bytes.length < length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      ByteBuffer line = argBuffer.duplicate();
+      line.limit(argEnd);
+      line.position(argStart);
+      line.get(bytes, 0, length);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int length() {
+      return length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public char charAt(int argIndex) {
+      return (char) bytes[argIndex];
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CharSequence subSequence(int argStart, int argEnd) {
+      return new String(bytes, argStart, argEnd - argStart, LATIN1);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return subSequence(0, length).toString();
+    }
+  }
+
+}
@@ -0,0 +1,373 @@
+package svn;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * A binary snapshot of the parsed model and its access matrix, written next to the access configuration file.
+ * <p>
+ * The snapshot starts with a magic number, a format version, and a SHA-256 hash of the access configuration
+ * file, so that it is only used while the file is unchanged. It is followed by:
+ * <ul>
+ * <li>counts of users, groups, and repositories
+ * <li>a string table of user, group, and repository ids in that order, that is the ids of the matrix
+ * <li>direct members of each group, users by their ids and groups by the number of users plus their ids
+ * <li>flattened users of each group, and groups that contain themselves
+ * <li>rules of each repository, a packed subject, inversion, and access followed by the user or group id
+ * <li>effective readers and writers of each repository
+ * </ul>
+ * Every list is stored in compressed sparse row form: an int offset per row and one more, then the entries
+ * of all rows. Lists of the parsed model are entries of ids. Flattened users, readers, and writers are sets of
+ * users that grow with the number of users times the number of groups or repositories, so they are stored as
+ * the words of their bit sets instead, a bit per user rather than an int per member. Ints and longs are big
+ * endian. The snapshot is read through a memory mapped buffer, and lists and bit sets are copied out of it in
+ * bulk, so nothing is parsed but the strings.
+ * <p>
+ * Snapshots are written and read for a single access configuration file, unless <code>--snapshot off</code> is
+ * given. Batch and diff runs parse their files, and leave no snapshots next to them.
+ * @author bsanchin
+ */
+class ModelSnapshot {
+
+  static final int MAGIC = 0x53564e41; // "SVNA"
+  static final int VERSION = 2;
+  static final String SUFFIX = ".snapshot";
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  protected final File snapshotFile;
+  protected final byte[] hash;
+
+  /**
+   * Hashes the access configuration file.
+   * @param argConfigFile the access configuration file
+   * @throws IOException if it fails to read the file
+   */
+  ModelSnapshot(File argConfigFile)
+      throws IOException {
+    this.snapshotFile = new File(argConfigFile.getPath() + SUFFIX);
+    this.hash = hash(argConfigFile);
+  }
+
+  /**
+   * Returns SHA-256 hash of the file.
+   * @param argFile the file
+   * @return the hash
+   * @throws IOException if it fails to read the file
+   */
+  static byte[] hash(File argFile)
+      throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    FileInputStream in = new FileInputStream(argFile);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      for (long position = 0; position < size; position += MappedConfigReader.MAX_REGION) {
+        long regionSize = Math.min(size - position, MappedConfigReader.MAX_REGION);
+        digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize));
+      }
+    }
+    finally {
+      in.close();
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Loads users, groups, repos, and the access matrix of the processor from the snapshot, if there is one for
+   * the current content of the access configuration file. The processor is left as it is otherwise.
+   * @param argProc the processor
+   * @return true if the snapshot was loaded
+   */
+  boolean load(SvnAccessAuditor argProc) {
+    if (!snapshotFile.isFile()) {
+      return false;
+    }
+    try {
+      FileInputStream in = new FileInputStream(snapshotFile);
+      try {
+        FileChannel channel = in.getChannel();
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return read(buffer, argProc);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (Exception e) {
+      // An unreadable, truncated, or corrupt snapshot.
+      System.err.println("Unable to read the snapshot, parsing the file instead: " + e);
+    }
+    return false;
+  }
+
+  private boolean read(ByteBuffer argBuffer, SvnAccessAuditor argProc) {
+    if (argBuffer.remaining() < 8 + hash.length || argBuffer.getInt() != MAGIC || argBuffer.getInt() != VERSION) {
+      return false;
+    }
+    byte[] stored = new byte[hash.length];
+    argBuffer.get(stored);
+    if (!Arrays.equals(stored, hash)) {
+      return false;
+    }
+
+    int userCount = argBuffer.getInt();
+    int groupCount = argBuffer.getInt();
+    int repoCount = argBuffer.getInt();
+
+    // Strings are interned, so that later parsing shares them.
+    int[] offsets = readInts(argBuffer, userCount + groupCount + repoCount + 1);
+    byte[] bytes = new byte[offsets[offsets.length - 1]];
+    argBuffer.get(bytes);
+    String[] strings = new String[offsets.length - 1];
+    for (int i = 0; i < strings.length; i++ ) {
+      strings[i] = argProc.names.intern(new String(bytes, offsets[i], offsets[i + 1] - offsets[i], UTF8));
+    }
+
+    TreeMap<String, User> users = new TreeMap<String, User>();
+    User[] userById = new User[userCount];
+    for (int i = 0; i < userCount; i++ ) {
+      userById[i] = new User(strings[i]);
+      users.put(userById[i].id, userById[i]);
+    }
+    TreeMap<String, Group> groups = new TreeMap<String, Group>();
+    Group[] groupById = new Group[groupCount];
+    for (int i = 0; i < groupCount; i++ ) {
+      String id = strings[userCount + i];
+      groupById[i] = id.equals(argProc.EVERYONE.id) ? argProc.EVERYONE : new Group(id);
+      groups.put(id, groupById[i]);
+    }
+    TreeMap<String, Repo> repos = new TreeMap<String, Repo>();
+    Repo[] repoById = new Repo[repoCount];
+    for (int i = 0; i < repoCount; i++ ) {
+      repoById[i] = new Repo(strings[userCount + groupCount + i]);
+      repos.put(repoById[i].id, repoById[i]);
+    }
+
+    int[][] direct = readRows(argBuffer, groupCount);
+    for (int g = 0; g < groupCount; g++ ) {
+      groupById[g].users.clear();
+      for (int member : direct[g]) {
+        groupById[g].users.add((member < userCount) ? userById[member] : groupById[member - userCount]);
+      }
+    }
+    BitSet[] membersByGroup = readBitSets(argBuffer, groupCount);
+    List<TreeSet<Group>> cycles = new ArrayList<TreeSet<Group>>();
+    for (int[] row : readRows(argBuffer, argBuffer.getInt())) {
+      TreeSet<Group> cycle = new TreeSet<Group>();
+      for (int g : row) {
+        cycle.add(groupById[g]);
+      }
+      cycles.add(cycle);
+      System.err.println("Group contains itself: " + cycle);
+    }
+
+    // Rules
+    int[][] rules = readRows(argBuffer, repoCount);
+    AccessRule.Subject[] subjects = AccessRule.Subject.values();
+    for (int r = 0; r < repoCount; r++ ) {
+      for (int i = 0; i < rules[r].length; i += 2) {
+        int packed = rules[r][i];
+        int target = rules[r][i + 1];
+        AccessRule.Subject subject = subjects[packed & 7];
+        User user = null;
+        if (subject == AccessRule.Subject.USER) {
+          user = userById[target];
+        }
+        else if (target >= 0) {
+          user = groupById[target];
+        }
+        AccessRule rule = new AccessRule(subject, user, (packed & 8) != 0, packed >>> 4);
+        repoById[r].rules.add(rule);
+        if (rule.isPlainGroupRule()) {
+          if ((rule.access & AccessRule.WRITE) != 0) {
+            repoById[r].writers.add((Group) rule.user);
+          }
+          else {
+            repoById[r].readers.add((Group) rule.user);
+          }
+        }
+      }
+    }
+
+    BitSet[] readersByRepo = readBitSets(argBuffer, repoCount);
+    BitSet[] writersByRepo = readBitSets(argBuffer, repoCount);
+
+    argProc.users = users;
+    argProc.groups = groups;
+    argProc.repos = repos;
+    argProc.matrix = new AccessMatrix(users, groups, repos, membersByGroup, cycles, readersByRepo, writersByRepo,
+        argProc.viewCache, argProc.groupingMemory == 0);
+    return true;
+  }
+
+  /**
+   * Writes users, groups, repos, and the access matrix of the processor into the snapshot. The snapshot is
+   * written into a temporary file first, and moved over the previous one, so that a reader never sees half of
+   * it. A failure is only reported, since the snapshot is a cache.
+   * @param argProc the processor
+   */
+  void save(SvnAccessAuditor argProc) {
+    File tmp = new File(snapshotFile.getPath() + ".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+      try {
+        write(out, argProc.matrix);
+      }
+      finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      tmp.delete();
+      System.err.println("Unable to write the snapshot: " + e);
+    }
+  }
+
+  private void write(DataOutputStream argOut, AccessMatrix argMatrix)
+      throws IOException {
+    int userCount = argMatrix.getUserCount();
+    int groupCount = argMatrix.getGroupCount();
+    int repoCount = argMatrix.getRepoCount();
+
+    argOut.writeInt(MAGIC);
+    argOut.writeInt(VERSION);
+    argOut.write(hash);
+    argOut.writeInt(userCount);
+    argOut.writeInt(groupCount);
+    argOut.writeInt(repoCount);
+
+    // String table
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    argOut.writeInt(0);
+    for (int i = 0; i < userCount + groupCount + repoCount; i++ ) {
+      String id;
+      if (i < userCount) {
+        id = argMatrix.getUser(i).id;
+      }
+      else if (i < userCount + groupCount) {
+        id = argMatrix.getGroup(i - userCount).id;
+      }
+      else {
+        id = argMatrix.getRepo(i - userCount - groupCount).id;
+      }
+      bytes.write(id.getBytes(UTF8));
+      argOut.writeInt(bytes.size());
+    }
+    bytes.writeTo(argOut);
+
+    // Direct members
+    int[][] rows = new int[groupCount][];
+    for (int g = 0; g < groupCount; g++ ) {
+      Group group = argMatrix.getGroup(g);
+      rows[g] = new int[group.users.size()];
+      int i = 0;
+      for (User u : group.users) {
+        rows[g][i++ ] = (u instanceof Group) ? userCount + u.index : u.index;
+      }
+    }
+    writeRows(argOut, rows);
+    writeBitSets(argOut, argMatrix.membersByGroup);
+    List<TreeSet<Group>> cycles = argMatrix.getCycles();
+    rows = new int[cycles.size()][];
+    for (int c = 0; c < rows.length; c++ ) {
+      rows[c] = new int[cycles.get(c).size()];
+      int i = 0;
+      for (Group g : cycles.get(c)) {
+        rows[c][i++ ] = g.index;
+      }
+    }
+    argOut.writeInt(rows.length);
+    writeRows(argOut, rows);
+
+    // Rules
+    rows = new int[repoCount][];
+    for (int r = 0; r < repoCount; r++ ) {
+      List<AccessRule> rules = argMatrix.getRepo(r).rules;
+      rows[r] = new int[rules.size() * 2];
+      int i = 0;
+      for (AccessRule rule : rules) {
+        rows[r][i++ ] = rule.subject.ordinal() | (rule.inverted ? 8 : 0) | (rule.access << 4);
+        rows[r][i++ ] = (rule.user == null) ? -1 : rule.user.index;
+      }
+    }
+    writeRows(argOut, rows);
+
+    writeBitSets(argOut, argMatrix.readersByRepo);
+    writeBitSets(argOut, argMatrix.writersByRepo);
+  }
+
+  private static int[] readInts(ByteBuffer argBuffer, int argCount) {
+    int[] result = new int[argCount];
+    argBuffer.asIntBuffer().get(result);
+    argBuffer.position(argBuffer.position() + argCount * 4);
+    return result;
+  }
+
+  private static int[][] readRows(ByteBuffer argBuffer, int argCount) {
+    int[] offsets = readInts(argBuffer, argCount + 1);
+    int[] entries = readInts(argBuffer, offsets[argCount]);
+    int[][] result = new int[argCount][];
+    for (int i = 0; i < argCount; i++ ) {
+      result[i] = Arrays.copyOfRange(entries, offsets[i], offsets[i + 1]);
+    }
+    return result;
+  }
+
+  private static void writeRows(DataOutputStream argOut, int[][] argRows)
+      throws IOException {
+    int offset = 0;
+    argOut.writeInt(offset);
+    for (int[] row : argRows) {
+      offset += row.length;
+      argOut.writeInt(offset);
+    }
+    for (int[] row : argRows) {
+      for (int entry : row) {
+        argOut.writeInt(entry);
+      }
+    }
+  }
+
+  private static BitSet[] readBitSets(ByteBuffer argBuffer, int argCount) {
+    int[] offsets = readInts(argBuffer, argCount + 1);
+    LongBuffer words = argBuffer.asLongBuffer();
+    BitSet[] result = new BitSet[argCount];
+    for (int i = 0; i < argCount; i++ ) {
+      words.limit(offsets[i + 1]);
+      words.position(offsets[i]);
+      result[i] = BitSet.valueOf(words);
+    }
+    argBuffer.position(argBuffer.position() + offsets[argCount] * 8);
+    return result;
+  }
+
+  private static void writeBitSets(DataOutputStream argOut, BitSet[] argBitSets)
+      throws IOException {
+    int offset = 0;
+    argOut.writeInt(offset);
+    for (BitSet set : argBitSets) {
+      offset += (set.length() + 63) / 64;
+      argOut.writeInt(offset);
+    }
+    for (BitSet set : argBitSets) {
+      for (long word : set.toLongArray()) {
+        argOut.writeLong(word);
+      }
+    }
+  }
+
+}
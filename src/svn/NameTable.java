@@ -0,0 +1,124 @@
+package svn;
+
+/**
+ * Interns user, group, and repository names as they are read from the access configuration file. A name is
+ * looked up by its chars in place, so a <code>String</code> is created only the first time a name is seen, and
+ * every later occurrence shares that instance.
+ * <p>
+ * A table may be backed by a table that is shared by the tables of several configuration files, which are read
+ * on different threads. A name new to the table is then interned in the shared table, so that the same name is
+ * the same instance in every configuration file. The shared table is locked only the first time a table sees a
+ * name, and lookups of names already seen stay lock free.
+ * @author bsanchin
+ */
+public class NameTable {
+
+  private String[] names = new String[1024];
+  private int[] hashes = new int[1024];
+  private int size;
+
+  // Table that new names are interned in as well, or null.
+  private final NameTable shared;
+
+  public NameTable() {
+    this(null);
+  }
+
+  /**
+   * Creates a table backed by a shared table.
+   * @param argShared table that new names are interned in as well, or null
+   */
+  public NameTable(NameTable argShared) {
+    this.shared = argShared;
+  }
+
+  /**
+   * Returns the interned name of the given range of chars.
+   * @param argText chars
+   * @param argStart first char, inclusive
+   * @param argEnd last char, exclusive
+   * @return the interned name
+   */
+  public String intern(CharSequence argText, int argStart, int argEnd) {
+    int hash = 0;
+    for (int i = argStart; i < argEnd; i++ ) {
+      hash = 31 * hash + argText.charAt(i);
+    }
+
+    int mask = names.length - 1;
+    int slot = mix(hash) & mask;
+    while (names[slot] != null) {
+      if (hashes[slot] == hash && regionEquals(names[slot], argText, argStart, argEnd)) {
+        return names[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    String name = argText.subSequence(argStart, argEnd).toString();
+    if (shared != null) {
+      name = shared.internShared(name);
+    }
+    names[slot] = name;
+    hashes[slot] = hash;
+    if (++size * 2 > names.length) {
+      grow();
+    }
+    return name;
+  }
+
+  /**
+   * Returns the interned instance of the given name.
+   * @param argName the name
+   * @return the interned name
+   */
+  public String intern(String argName) {
+    return intern(argName, 0, argName.length());
+  }
+
+  private synchronized String internShared(String argName) {
+    return intern(argName);
+  }
+
+  /**
+   * Returns number of distinct names.
+   * @return number of names
+   */
+  public int size() {
+    return size;
+  }
+
+  private void grow() {
+    String[] oldNames = names;
+    int[] oldHashes = hashes;
+    names = new String[oldNames.length * 2];
+    hashes = new int[oldNames.length * 2];
+    int mask = names.length - 1;
+    for (int i = 0; i < oldNames.length; i++ ) {
+      if (oldNames[i] != null) {
+        int slot = mix(oldHashes[i]) & mask;
+        while (names[slot] != null) {
+          slot = (slot + 1) & mask;
+        }
+        names[slot] = oldNames[i];
+        hashes[slot] = oldHashes[i];
+      }
+    }
+  }
+
+  private static int mix(int argHash) {
+    return argHash ^ (argHash >>> 16);
+  }
+
+  private static boolean regionEquals(String argName, CharSequence argText, int argStart, int argEnd) {
+    if (argName.length() != argEnd - argStart) {
+      return false;
+    }
+    for (int i = 0; i < argName.length(); i++ ) {
+      if (argName.charAt(i) != argText.charAt(argStart + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,360 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Resolves effective access of users on repository paths the way mod_authz_svn does.
+ * <p>
+ * Sections are stored in a path trie per repository, and sections of every repository (<code>[/path]</code>)
+ * in a trie of their own. For a given path, the most specific section with a rule that applies to the user
+ * decides the access, and the user inherits access from parent paths otherwise. On the same path, a
+ * repository section comes before a section of every repository. All rules of the deciding section that apply
+ * to the user are combined.
+ * <p>
+ * Access of a single user is resolved by walking the trie down the path, that is in O(path depth). Effective
+ * readers and writers of every section are computed for the report by a single walk of each trie.
+ * @author bsanchin
+ */
+public class PathPermissions {
+
+  protected final AccessMatrix matrix;
+
+  // Path tries of each repository, and the trie of sections of every repository.
+  protected final TreeMap<String, Node> repoRoots = new TreeMap<String, Node>();
+  protected final Node globalRoot = new Node();
+
+  // Users that some rule of a section applies to, and access that the section grants them, by repo id.
+  protected BitSet[] decidedBySection;
+  protected BitSet[] readBySection;
+  protected BitSet[] writeBySection;
+
+  /**
+   * Builds path tries of the sections of the matrix. Groups of the matrix must already be flattened.
+   * @param argMatrix the access matrix
+   */
+  PathPermissions(AccessMatrix argMatrix) {
+    this.matrix = argMatrix;
+    int size = matrix.getRepoCount();
+    decidedBySection = new BitSet[size];
+    readBySection = new BitSet[size];
+    writeBySection = new BitSet[size];
+
+    for (int i = 0; i < size; i++ ) {
+      Repo section = matrix.getRepo(i);
+      root(section).descend(section.path, true).section = section;
+      computeSection(section);
+    }
+  }
+
+  /**
+   * Returns the root of the trie that the section belongs to, a new one for a repository without sections.
+   * @param argSection the section
+   * @return the root
+   */
+  private Node root(Repo argSection) {
+    if (argSection.name == null) {
+      return globalRoot;
+    }
+    Node result = repoRoots.get(argSection.name);
+    if (result == null) {
+      result = new Node();
+      repoRoots.put(argSection.name, result);
+    }
+    return result;
+  }
+
+  /**
+   * Moves sections and users to their new ids, before the matrix gives them to the entities, see
+   * {@link AccessMatrix#update(TreeMap, TreeMap, Collection, java.util.concurrent.ForkJoinPool)}. Removed
+   * sections are taken out of the tries and their paths are marked dirty, and added sections are put in, to be
+   * resolved by the next update.
+   * @param argRepoMap new id of each current section, -1 for removed ones, null if ids stay the same
+   * @param argRepoCount number of sections after the move
+   * @param argAdded added sections
+   * @param argUserMap new id of each current user, -1 for removed ones, null if ids stay the same
+   * @param argUserCount number of users after the move
+   */
+  void move(int[] argRepoMap, int argRepoCount, List<Repo> argAdded, int[] argUserMap, int argUserCount) {
+    for (int i = 0; argRepoMap != null && i < argRepoMap.length; i++ ) {
+      if (argRepoMap[i] < 0) {
+        Repo section = matrix.getRepo(i);
+        Node root = root(section);
+        root.descend(section.path, false).section = null;
+        root.markDirty(section.path);
+      }
+    }
+    decidedBySection = AccessMatrix.move(decidedBySection, argRepoMap, argRepoCount, argUserMap, argUserCount);
+    readBySection = AccessMatrix.move(readBySection, argRepoMap, argRepoCount, argUserMap, argUserCount);
+    writeBySection = AccessMatrix.move(writeBySection, argRepoMap, argRepoCount, argUserMap, argUserCount);
+    if (argUserMap != null) {
+      for (Node root : repoRoots.values()) {
+        root.move(argUserMap, argUserCount);
+      }
+      globalRoot.move(argUserMap, argUserCount);
+    }
+    for (Repo section : argAdded) {
+      root(section).descend(section.path, true).section = section;
+    }
+  }
+
+  /**
+   * Computes users that some rule of the section applies to, and access that the section grants them.
+   * @param argSection the section
+   */
+  private void computeSection(Repo argSection) {
+    BitSet decided = new BitSet(matrix.getUserCount());
+    BitSet read = new BitSet(matrix.getUserCount());
+    BitSet write = new BitSet(matrix.getUserCount());
+    for (AccessRule rule : argSection.rules) {
+      BitSet users = rule.appliesTo(matrix);
+      decided.or(users);
+      if ((rule.access & AccessRule.READ) != 0) {
+        read.or(users);
+      }
+      if ((rule.access & AccessRule.WRITE) != 0) {
+        write.or(users);
+      }
+    }
+    decidedBySection[argSection.index] = decided;
+    readBySection[argSection.index] = read;
+    writeBySection[argSection.index] = write;
+    RunStats.count("set.operations", 3 * argSection.rules.size());
+  }
+
+  /**
+   * Resolves access of the user on the given path of the repository.
+   * @param argUser the user
+   * @param argRepoName name of the repository, null for sections of every repository only
+   * @param argPath the path
+   * @return access of the user, a combination of {@link AccessRule#READ} and {@link AccessRule#WRITE}
+   */
+  public int resolve(User argUser, String argRepoName, String argPath) {
+    Node repoNode = (argRepoName == null) ? null : repoRoots.get(argRepoName);
+    Node globalNode = globalRoot;
+    int access = AccessRule.NONE;
+
+    String path = Repo.normalizePath(argPath);
+    int start = 0;
+    while (true) {
+      Integer decided = decide(repoNode, globalNode, argUser);
+      if (decided != null) {
+        access = decided;
+      }
+      if (start >= path.length() - 1) {
+        break;
+      }
+      int slash = path.indexOf('/', start + 1);
+      int end = (slash < 0) ? path.length() : slash;
+      String component = path.substring(start + 1, end);
+      repoNode = (repoNode == null) ? null : repoNode.children.get(component);
+      globalNode = (globalNode == null) ? null : globalNode.children.get(component);
+      if (repoNode == null && globalNode == null) {
+        break;
+      }
+      start = end;
+    }
+    return access;
+  }
+
+  /**
+   * Returns access that sections of the given nodes grant to the user, or null if no rule of them applies.
+   * @param argRepoNode node of the repository trie, or null
+   * @param argGlobalNode node of the trie of every repository, or null
+   * @param argUser the user
+   * @return the access, or null
+   */
+  private Integer decide(Node argRepoNode, Node argGlobalNode, User argUser) {
+    Repo[] sections = {(argRepoNode == null) ? null : argRepoNode.section,
+        (argGlobalNode == null) ? null : argGlobalNode.section};
+    for (Repo section : sections) {
+      if (section == null) {
+        continue;
+      }
+      boolean applies = false;
+      int access = AccessRule.NONE;
+      for (AccessRule rule : section.rules) {
+        if (rule.appliesTo(argUser)) {
+          applies = true;
+          access |= rule.access;
+        }
+      }
+      if (applies) {
+        return access;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Computes effective readers and writers of every section by walking each trie once.
+   * @param argReadBySection users who can read each section, by repo id
+   * @param argWriteBySection users who can write each section, by repo id
+   */
+  void computeEffective(BitSet[] argReadBySection, BitSet[] argWriteBySection) {
+    BitSet nobody = new BitSet(matrix.getUserCount());
+    for (Node root : repoRoots.values()) {
+      walk(root, globalRoot, nobody, nobody, true, argReadBySection, argWriteBySection);
+    }
+    walk(null, globalRoot, nobody, nobody, true, argReadBySection, argWriteBySection);
+  }
+
+  /**
+   * Recomputes effective readers and writers after rules of the given sections, or members of groups in their
+   * rules, changed. Only paths of the changed sections and subtrees whose inherited access changed are walked
+   * again. A change in a section of every repository affects every repository, so all tries are walked then.
+   * @param argChanged ids of the changed sections
+   * @param argReadBySection users who can read each section, by repo id
+   * @param argWriteBySection users who can write each section, by repo id
+   */
+  void update(BitSet argChanged, BitSet[] argReadBySection, BitSet[] argWriteBySection) {
+    boolean global = false;
+    for (int i = argChanged.nextSetBit(0); i >= 0; i = argChanged.nextSetBit(i + 1)) {
+      Repo section = matrix.getRepo(i);
+      computeSection(section);
+      if (section.name == null) {
+        global = true;
+      }
+      else {
+        repoRoots.get(section.name).markDirty(section.path);
+      }
+    }
+    // A removed section of every repository leaves the root of its trie dirty.
+    if (global || globalRoot.dirty) {
+      computeEffective(argReadBySection, argWriteBySection);
+      return;
+    }
+
+    BitSet nobody = new BitSet(matrix.getUserCount());
+    for (Node root : repoRoots.values()) {
+      walk(root, globalRoot, nobody, nobody, false, argReadBySection, argWriteBySection);
+    }
+  }
+
+  /**
+   * Walks a repository trie together with the trie of every repository. Effective access of every node is kept
+   * in the node, so that a later update could skip unchanged subtrees.
+   * @param argRepoNode node of the repository trie, null to walk the trie of every repository on its own
+   * @param argGlobalNode node of the trie of every repository on the same path, or null
+   * @param argRead users who can read the parent path
+   * @param argWrite users who can write the parent path
+   * @param argForce false to skip the subtree unless it is dirty
+   * @param argReadBySection users who can read each section, by repo id
+   * @param argWriteBySection users who can write each section, by repo id
+   */
+  private void walk(Node argRepoNode, Node argGlobalNode, BitSet argRead, BitSet argWrite, boolean argForce,
+      BitSet[] argReadBySection, BitSet[] argWriteBySection) {
+    Node current = (argRepoNode != null) ? argRepoNode : argGlobalNode;
+    if (!argForce && !current.dirty) {
+      return;
+    }
+    current.dirty = false;
+
+    BitSet read = argRead;
+    BitSet write = argWrite;
+
+    // Global section first, so that the repository section overrides it.
+    Repo[] sections = {(argGlobalNode == null) ? null : argGlobalNode.section,
+        (argRepoNode == null) ? null : argRepoNode.section};
+    for (Repo section : sections) {
+      if (section == null || section.rules.isEmpty()) {
+        continue;
+      }
+      BitSet decided = decidedBySection[section.index];
+      read = (BitSet) read.clone();
+      read.andNot(decided);
+      read.or(readBySection[section.index]);
+      write = (BitSet) write.clone();
+      write.andNot(decided);
+      write.or(writeBySection[section.index]);
+      RunStats.count("set.operations", 4);
+    }
+
+    // Children inherit from this node, so all of them are walked again if this node changed.
+    boolean changed = argForce || !read.equals(current.read) || !write.equals(current.write);
+    current.read = read;
+    current.write = write;
+    if (current.section != null) {
+      argReadBySection[current.section.index] = read;
+      argWriteBySection[current.section.index] = write;
+    }
+    for (Map.Entry<String, Node> child : current.children.entrySet()) {
+      Node globalChild = (argGlobalNode == null) ? null : argGlobalNode.children.get(child.getKey());
+      if (argRepoNode != null) {
+        walk(child.getValue(), globalChild, read, write, changed, argReadBySection, argWriteBySection);
+      }
+      else {
+        walk(null, globalChild, read, write, changed, argReadBySection, argWriteBySection);
+      }
+    }
+  }
+
+  /**
+   * A path component in a trie.
+   * @author bsanchin
+   */
+  static class Node {
+    final TreeMap<String, Node> children = new TreeMap<String, Node>();
+    Repo section;
+
+    // Effective access on this path, and whether a section on or below this path changed since.
+    BitSet read;
+    BitSet write;
+    boolean dirty;
+
+    /**
+     * Moves users of the effective access of this node and every node below it to their new ids.
+     * @param argUserMap new id of each current user, -1 for removed ones
+     * @param argUserCount number of users after the move
+     */
+    void move(int[] argUserMap, int argUserCount) {
+      if (read != null) {
+        read = AccessMatrix.move(read, argUserMap, argUserCount);
+        write = AccessMatrix.move(write, argUserMap, argUserCount);
+      }
+      for (Node child : children.values()) {
+        child.move(argUserMap, argUserCount);
+      }
+    }
+
+    /**
+     * Marks the node of the given path and every node above it as dirty.
+     * @param argPath normalized path
+     */
+    void markDirty(String argPath) {
+      Node node = this;
+      node.dirty = true;
+      for (String component : argPath.split("/")) {
+        if (!component.isEmpty()) {
+          node = node.children.get(component);
+          node.dirty = true;
+        }
+      }
+    }
+
+    /**
+     * Returns the node of the given path under this node.
+     * @param argPath normalized path
+     * @param argCreate true to create missing nodes
+     * @return the node, or null if it is missing
+     */
+    Node descend(String argPath, boolean argCreate) {
+      Node node = this;
+      for (String component : argPath.split("/")) {
+        if (component.isEmpty()) {
+          continue;
+        }
+        Node child = node.children.get(component);
+        if (child == null) {
+          if (!argCreate) {
+            return null;
+          }
+          child = new Node();
+          node.children.put(component, child);
+        }
+        node = child;
+      }
+      return node;
+    }
+  }
+
+}
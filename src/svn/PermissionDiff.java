@@ -0,0 +1,162 @@
+package svn;
+
+import java.util.*;
+
+/**
+ * Finds the access that an edit of the access configuration file grants or revokes, as (user, section,
+ * permission) pairs.
+ * <p>
+ * Both versions are built on the same users in the same order, so that a user has the same id in both
+ * matrices, see {@link SvnAccessAuditor#diff}. Each version is given the users that only the other one knows of,
+ * and they have no access in it. Effective readers and writers of each section in both versions are XORed, a
+ * word-wise XOR of their bit sets, so that only changed pairs are visited. A section that only one version has
+ * is given the access that its path inherits in the other version.
+ * @author bsanchin
+ */
+public class PermissionDiff {
+
+  protected final AccessMatrix older;
+  protected final AccessMatrix newer;
+
+  // Users that each version knows of. Rules of everyone apply to all users of a matrix, but grant nothing to the
+  // users of the other version.
+  protected final BitSet olderUsers;
+  protected final BitSet newerUsers;
+
+  // Changed pairs, in the order of their sections and then their users.
+  protected final List<Change> changes = new ArrayList<Change>();
+
+  /**
+   * Compares access of the two versions.
+   * @param argOlder access matrix of the older version
+   * @param argNewer access matrix of the newer version, with the same users in the same order
+   * @param argOlderUsers ids of the users that the older version knows of
+   * @param argNewerUsers ids of the users that the newer version knows of
+   */
+  public PermissionDiff(AccessMatrix argOlder, AccessMatrix argNewer, BitSet argOlderUsers, BitSet argNewerUsers) {
+    if (argOlder.getUserCount() != argNewer.getUserCount()) {
+      throw new IllegalArgumentException("Both versions must have the same users");
+    }
+    this.older = argOlder;
+    this.newer = argNewer;
+    this.olderUsers = argOlderUsers;
+    this.newerUsers = argNewerUsers;
+
+    int o = 0;
+    int n = 0;
+    while (o < older.getRepoCount() || n < newer.getRepoCount()) {
+      int order = (o == older.getRepoCount()) ? 1 : (n == newer.getRepoCount()) ? -1
+          : older.getRepo(o).compareTo(newer.getRepo(n));
+      Repo olderRepo = (order <= 0) ? older.getRepo(o++ ) : null;
+      Repo newerRepo = (order >= 0) ? newer.getRepo(n++ ) : null;
+      compare(olderRepo, newerRepo);
+    }
+  }
+
+  /**
+   * Compares access of a section in both versions, and adds the changed pairs.
+   * @param argOlder the section in the older version, or null
+   * @param argNewer the section in the newer version, or null
+   */
+  private void compare(Repo argOlder, Repo argNewer) {
+    Repo section = (argNewer != null) ? argNewer : argOlder;
+    BitSet[] before = access(older, olderUsers, argOlder, section);
+    BitSet[] after = access(newer, newerUsers, argNewer, section);
+    for (int i = 0; i < 2; i++ ) {
+      before[i].xor(after[i]);
+    }
+    BitSet changed = AccessMatrix.or(before[0], before[1]);
+    for (int u = changed.nextSetBit(0); u >= 0; u = changed.nextSetBit(u + 1)) {
+      if (before[0].get(u)) {
+        changes.add(new Change(section.id, newer.getUser(u).id, AccessRule.READ, after[0].get(u)));
+      }
+      if (before[1].get(u)) {
+        changes.add(new Change(section.id, newer.getUser(u).id, AccessRule.WRITE, after[1].get(u)));
+      }
+    }
+  }
+
+  /**
+   * Returns users of a version who can read, including writers, and users who can write the section. The
+   * returned bit sets are copies.
+   * @param argMatrix access matrix of the version
+   * @param argUsers users that the version knows of
+   * @param argRepo the section in the version, or null if the version does not have it
+   * @param argSection the section in either version
+   * @return readers and writers
+   */
+  private static BitSet[] access(AccessMatrix argMatrix, BitSet argUsers, Repo argRepo, Repo argSection) {
+    BitSet read;
+    BitSet write;
+    if (argRepo != null) {
+      read = AccessMatrix.or(argMatrix.getReaders(argRepo), argMatrix.getWriters(argRepo));
+      write = (BitSet) argMatrix.getWriters(argRepo).clone();
+      read.and(argUsers);
+      write.and(argUsers);
+    }
+    else {
+      read = new BitSet(argMatrix.getUserCount());
+      write = new BitSet(argMatrix.getUserCount());
+      PathPermissions permissions = argMatrix.getPermissions();
+      for (int u = argUsers.nextSetBit(0); u >= 0; u = argUsers.nextSetBit(u + 1)) {
+        int access = permissions.resolve(argMatrix.getUser(u), argSection.name, argSection.path);
+        read.set(u, (access & AccessRule.READ) != 0);
+        write.set(u, (access & AccessRule.WRITE) != 0);
+      }
+    }
+    return new BitSet[] {read, write};
+  }
+
+  /**
+   * Returns changed pairs, in the order of their sections and then their users.
+   * @return changed pairs
+   */
+  public List<Change> getChanges() {
+    return changes;
+  }
+
+  /**
+   * Returns changed pairs, in the order of their users and then their sections.
+   * @return changed pairs
+   */
+  public List<Change> getChangesByUser() {
+    List<Change> result = new ArrayList<Change>(changes);
+    Collections.sort(result, new Comparator<Change>() {
+      @Override
+      public int compare(Change argFirst, Change argSecond) {
+        int result = argFirst.user.compareTo(argSecond.user);
+        return (result != 0) ? result : argFirst.repo.compareTo(argSecond.repo);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * A permission of a user on a section that is granted or revoked.
+   * @author bsanchin
+   */
+  public static class Change {
+    final String repo;
+    final String user;
+
+    // AccessRule.READ or AccessRule.WRITE.
+    final int access;
+
+    // True if the newer version grants the permission, false if it revokes it.
+    final boolean granted;
+
+    Change(String argRepo, String argUser, int argAccess, boolean argGranted) {
+      this.repo = argRepo;
+      this.user = argUser;
+      this.access = argAccess;
+      this.granted = argGranted;
+    }
+
+    @Override
+    public String toString() {
+      return (granted ? "grant" : "revoke") + "\t" + ((access == AccessRule.READ) ? "read" : "write") + "\t" + user
+          + "\t" + repo;
+    }
+  }
+
+}
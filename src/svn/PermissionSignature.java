@@ -0,0 +1,38 @@
+package svn;
+
+import java.util.Arrays;
+
+/**
+ * Canonical access signature of a repository or a user. Two entities with equal signatures have exactly the
+ * same access privileges, so they could be grouped together in a single hash pass. The hash is computed once
+ * and checked first, the exact parts (bit sets of ids, sets of rules) are compared only when the hashes
+ * collide.
+ * @author bsanchin
+ */
+final class PermissionSignature {
+
+  private final Object[] parts;
+  private final int hash;
+
+  PermissionSignature(Object... argParts) {
+    this.parts = argParts;
+    this.hash = Arrays.hashCode(argParts);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object other) {
+    if (other instanceof PermissionSignature) {
+      PermissionSignature that = (PermissionSignature) other;
+      return hash == that.hash && Arrays.equals(parts, that.parts);
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+}
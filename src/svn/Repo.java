@@ -1,23 +1,74 @@
 package svn;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
- * Abstraction to a svn repository.
+ * Abstraction to a svn repository. To be precise, this is a section of the access configuration file, that is a
+ * path of a repository such as <code>[repo:/trunk/secret]</code>, or a path of every repository such as
+ * <code>[/trunk]</code>.
  * @author bsanchin
  */
 public class Repo
     implements Comparable<Repo> {
 
-  // Readers of this repo
-  TreeSet<Group> readers = new TreeSet<Group>();
+  // Readers of this repo, read only views once the model is frozen, see FrozenModel.
+  SortedSet<Group> readers = new TreeSet<Group>();
   // Writers of this repo
-  TreeSet<Group> writers = new TreeSet<Group>();
+  SortedSet<Group> writers = new TreeSet<Group>();
+
+  // Access rules of this section, in the order of the access configuration file.
+  List<AccessRule> rules = new ArrayList<AccessRule>();
 
   String id;
 
+  // Repository name, null if this section applies to every repository.
+  String name;
+  // Path within the repository, "/" for the root.
+  String path;
+
+  // Dense id and the access matrix this repo is attached to, see AccessMatrix.
+  int index = -1;
+  AccessMatrix matrix;
+
   Repo(String argId) {
     this.id = argId;
+
+    // [repo:/path], [/path], or just [repo]
+    String header = argId;
+    if (header.startsWith("[")) {
+      header = header.substring(1, header.endsWith("]") ? header.length() - 1 : header.length()).trim();
+    }
+    int colon = header.indexOf(':');
+    if (colon >= 0) {
+      this.name = header.substring(0, colon);
+      this.path = normalizePath(header.substring(colon + 1));
+    }
+    else if (header.startsWith("/")) {
+      this.path = normalizePath(header);
+    }
+    else {
+      this.name = header;
+      this.path = "/";
+    }
+  }
+
+  /**
+   * Normalizes a path to start with a slash and end without one.
+   * @param argPath the path
+   * @return normalized path
+   */
+  static String normalizePath(String argPath) {
+    String result = argPath.trim();
+    while (result.endsWith("/")) {
+      result = result.substring(0, result.length() - 1);
+    }
+    if (!result.startsWith("/")) {
+      result = "/" + result;
+    }
+    return result;
   }
 
   @Override
@@ -38,10 +89,8 @@ public class Repo
    * @return users who have read and write access
    */
   public TreeSet<User> getReadersAndWritersAsUserSet() {
-    TreeSet<User> users = new TreeSet<User>();
-    users.addAll(getReadersAsUsersSet());
-    users.addAll(getWritersAsUsersSet());
-    return users;
+    AccessMatrix m = getMatrix();
+    return m.toUsers(m.getReadersAndWriters(this));
   }
 
   /**
@@ -49,11 +98,8 @@ public class Repo
    * @return users who have read access
    */
   public TreeSet<User> getReadersAsUsersSet() {
-    TreeSet<User> users = new TreeSet<User>();
-    for (Group g : readers) {
-      users.addAll(g.getAllUsers());
-    }
-    return users;
+    AccessMatrix m = getMatrix();
+    return m.toUsers(m.getReaders(this));
   }
 
   /**
@@ -61,11 +107,19 @@ public class Repo
    * @return users who have write access
    */
   public TreeSet<User> getWritersAsUsersSet() {
-    TreeSet<User> users = new TreeSet<User>();
-    for (Group g : writers) {
-      users.addAll(g.getAllUsers());
+    AccessMatrix m = getMatrix();
+    return m.toUsers(m.getWriters(this));
+  }
+
+  /**
+   * Returns the access matrix this repo is attached to.
+   * @return the access matrix
+   */
+  AccessMatrix getMatrix() {
+    if (matrix == null) {
+      throw new IllegalStateException("Access matrix has not been built for: " + this);
     }
-    return users;
+    return matrix;
   }
 
   @Override
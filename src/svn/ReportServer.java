@@ -0,0 +1,560 @@
+package svn;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import svn.HtmlReportGenerator.HtmlWriter;
+
+import com.sun.net.httpserver.*;
+
+/**
+ * Serves the report over HTTP, rendering every page on demand from the model in memory.
+ * <p>
+ * Repositories and users are grouped once, the same way as in the report, and nothing else is rendered up
+ * front. A page renders only its own rows with the row renderers of {@link HtmlReportGenerator}, so that its
+ * latency depends on the page size rather than on the size of the access configuration file. Pages are:
+ * <ul>
+ * <li><code>/</code>: the summary
+ * <li><code>/repos</code>, <code>/groups</code>, <code>/users</code>: paginated tables, with <code>page</code>
+ * and <code>size</code> parameters
+ * <li><code>/repo?id=</code>, <code>/group?id=</code>, <code>/user?id=</code>: a single entity with its row
+ * and its users, groups, or repositories, and for a user, how the user gets access to each repository
+ * <li><code>/explain?user=&amp;repo=&amp;access=</code>: why a user has, or does not have, read or write
+ * access to a repository, see {@link AccessExplainer}
+ * <li><code>/search?q=</code>: users, groups, and repositories whose ids start with the given prefix, as JSON
+ * </ul>
+ * Each request runs on a virtual thread of its own where the runtime has them, and on a cached thread pool
+ * otherwise.
+ * @author bsanchin
+ */
+class ReportServer {
+
+  static final int DEFAULT_PAGE_SIZE = 100;
+  static final int MAX_PAGE_SIZE = 1000;
+  static final int MAX_SEARCH_RESULTS = 50;
+  static final String UTF8 = "UTF-8";
+
+  protected final SvnAccessAuditor proc;
+  protected final PageGenerator generator;
+  protected final AccessIndex index;
+
+  // Rows of the repositories and users tables that each repo and user is on.
+  protected final HashMap<Repo, Integer> repoRows = new HashMap<Repo, Integer>();
+  protected final HashMap<User, Integer> userRows = new HashMap<User, Integer>();
+  protected final Group[] allGroups;
+
+  protected HttpServer server;
+
+  /**
+   * Groups repositories and users of the processor.
+   * @param argProc the processor, with its access matrix built
+   * @throws Exception if grouping fails
+   */
+  ReportServer(SvnAccessAuditor argProc)
+      throws Exception {
+    this.proc = argProc;
+    this.generator = new PageGenerator(argProc);
+    this.index = new AccessIndex(argProc.matrix);
+    generator.explainer = index.getExplainer();
+    this.allGroups = argProc.groups.values().toArray(new Group[argProc.groups.size()]);
+
+    generator.group();
+    for (Map.Entry<Integer, SortedSet<Repo>> row : generator.reposGroupedByUsers.entrySet()) {
+      for (Repo r : row.getValue()) {
+        repoRows.put(r, row.getKey());
+      }
+    }
+    for (Map.Entry<Integer, SortedSet<User>> row : generator.usersGroupedByRepos.entrySet()) {
+      for (User u : row.getValue()) {
+        userRows.put(u, row.getKey());
+      }
+    }
+  }
+
+  /**
+   * Starts serving on the given port. Serving goes on in the background until the process is stopped.
+   * @param argPort the port
+   * @throws IOException if it fails to listen on the port
+   */
+  void start(int argPort)
+      throws IOException {
+    server = HttpServer.create(new InetSocketAddress(argPort), 0);
+    server.setExecutor(newRequestExecutor());
+    server.createContext("/", new Page() {
+      @Override
+      public void handle(HttpExchange argExchange)
+          throws IOException {
+        // Every other path falls back to this context.
+        if (!argExchange.getRequestURI().getPath().equals("/")) {
+          notFound(argExchange, "Unknown page: " + argExchange.getRequestURI().getPath());
+          return;
+        }
+        super.handle(argExchange);
+      }
+
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        generator.makeSummary(out);
+      }
+    });
+    server.createContext("/repos", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        out.appendln("<h1>Repositories</h1>");
+        int[] range = range(argParams, generator.reposGroupedByUsers.size());
+        generator.makeRepoTable(out);
+        generator.makeRepoRows(out, range[0], range[1]);
+        out.appendln("</table>");
+        pager(out, "/repos", argParams, range, generator.reposGroupedByUsers.size());
+      }
+    });
+    server.createContext("/groups", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        out.appendln("<h1>Groups</h1>");
+        int[] range = range(argParams, allGroups.length);
+        generator.makeGroupRows(out, allGroups, range[0], range[1]);
+        pager(out, "/groups", argParams, range, allGroups.length);
+      }
+    });
+    server.createContext("/users", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        out.appendln("<h1>SVN Users</h1>");
+        int[] range = range(argParams, generator.usersGroupedByRepos.size());
+        generator.makeUserTable(out);
+        generator.makeUserRows(out, range[0], range[1]);
+        out.appendln("</table>");
+        pager(out, "/users", argParams, range, generator.usersGroupedByRepos.size());
+      }
+    });
+    server.createContext("/repo", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        String id = argParams.get("id");
+        Repo repo = (id == null) ? null : proc.repos.get(id);
+        if (repo == null) {
+          throw new FileNotFoundException("Unknown repository: " + id);
+        }
+        int row = repoRows.get(repo);
+        out.appendln("<h1>" + HtmlReportGenerator.escape(repo.id) + "</h1>");
+        generator.makeRepoTable(out);
+        generator.makeRepoRows(out, row, row + 1);
+        out.appendln("</table>");
+        out.appendln("<h3>Readers and Writers</h3>");
+        List<String> users = index.getReaders(repo.id);
+        int[] range = range(argParams, users.size());
+        links(out, "user", users.subList(range[0], range[1]));
+        pager(out, "/repo", argParams, range, users.size());
+      }
+    });
+    server.createContext("/group", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        String id = argParams.get("id");
+        Group group = (id == null) ? null : proc.groups.get(id);
+        if (group == null) {
+          throw new FileNotFoundException("Unknown group: " + id);
+        }
+        generator.makeGroupRows(out, new Group[] {group}, 0, 1);
+        out.appendln("<h3>All Users</h3>");
+        List<String> users = index.getMembers(group.id);
+        int[] range = range(argParams, users.size());
+        links(out, "user", users.subList(range[0], range[1]));
+        pager(out, "/group", argParams, range, users.size());
+      }
+    });
+    server.createContext("/user", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        String id = argParams.get("id");
+        User user = (id == null) ? null : proc.users.get(id);
+        if (user == null) {
+          throw new FileNotFoundException("Unknown user: " + id);
+        }
+        int row = userRows.get(user);
+        out.appendln("<h1>" + HtmlReportGenerator.escape(user.id) + "</h1>");
+        generator.makeUserTable(out);
+        generator.makeUserRows(out, row, row + 1);
+        out.appendln("</table>");
+        out.appendln("<h3>Groups</h3>");
+        links(out, "group", index.getGroups(user.id));
+        out.appendln("<h3>Access</h3>");
+        List<String> repos = index.getReadable(user.id);
+        int[] range = range(argParams, repos.size());
+        out.appendln("<ul>");
+        for (String repoId : repos.subList(range[0], range[1])) {
+          Repo repo = proc.repos.get(repoId);
+          boolean write = proc.matrix.getWriters(repo).get(user.index);
+          AccessExplainer.Explanation explanation = index.getExplainer().explain(user, repo,
+              write ? AccessRule.WRITE : AccessRule.READ, 1);
+          out.appendln("<li><a href='" + generator.link("repo", repo.id) + "'>"
+              + HtmlReportGenerator.escape(repo.id) + "</a> " + (write ? "write" : "read") + ": "
+              + HtmlReportGenerator.escape(explanation.toString()) + " <a href='/explain?user=" + encode(user.id)
+              + "&repo=" + encode(repo.id) + "&access=" + (write ? "write" : "read") + "'>every path</a>");
+        }
+        out.appendln("</ul>");
+        pager(out, "/user", argParams, range, repos.size());
+      }
+    });
+    server.createContext("/explain", new Page() {
+      @Override
+      void render(HtmlWriter out, Map<String, String> argParams)
+          throws IOException {
+        String userId = argParams.get("user");
+        String repoId = argParams.get("repo");
+        String access = argParams.containsKey("access") ? argParams.get("access") : "read";
+        AccessExplainer.Explanation explanation;
+        try {
+          explanation = index.explain(String.valueOf(userId), String.valueOf(repoId), access);
+        }
+        catch (IllegalArgumentException e) {
+          throw new FileNotFoundException(e.getMessage());
+        }
+        out.appendln("<h1>" + HtmlReportGenerator.escape(explanation.user.id) + ", " + access + ", "
+            + HtmlReportGenerator.escape(explanation.repo.id) + "</h1>");
+        out.appendln("<p>" + (explanation.isGranted() ? "Granted" : "Not granted"));
+        if (explanation.section == null) {
+          out.appendln(": no rule on the path applies to the user.</p>");
+          return;
+        }
+        out.appendln(" by <a href='" + generator.link("repo", explanation.section.id) + "'>"
+            + HtmlReportGenerator.escape(explanation.section.id) + "</a>, with the rules that apply to the user:</p>");
+        out.appendln("<ul>");
+        for (AccessRule rule : explanation.applied) {
+          out.appendln("<li>" + HtmlReportGenerator.escape(rule.toString()));
+        }
+        out.appendln("</ul>");
+        if (explanation.grants.isEmpty()) {
+          return;
+        }
+        out.appendln("<h3>Paths</h3>");
+        out.appendln("<ol>");
+        for (AccessExplainer.Grant grant : explanation.grants) {
+          out.append("<li>" + HtmlReportGenerator.escape(grant.rule.toString()) + ": ");
+          for (int i = 0; i < grant.path.size(); i++ ) {
+            User u = grant.path.get(i);
+            out.append(((i > 0) ? " -&gt; " : "") + "<a href='"
+                + generator.link((u instanceof Group) ? "group" : "user", u.id) + "'>"
+                + HtmlReportGenerator.escape(u.toString()) + "</a>");
+          }
+          User subject = grant.rule.user;
+          if (grant.rule.inverted && subject != null) {
+            out.append(", not <a href='" + generator.link((subject instanceof Group) ? "group" : "user", subject.id)
+                + "'>" + HtmlReportGenerator.escape(subject.toString()) + "</a>");
+          }
+          out.appendln("");
+        }
+        out.appendln("</ol>");
+        if (explanation.truncated) {
+          out.appendln("<p>Only the shortest " + explanation.grants.size() + " paths are shown.</p>");
+        }
+      }
+    });
+    server.createContext("/search", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange argExchange)
+          throws IOException {
+        try {
+          search(argExchange);
+        }
+        catch (RuntimeException e) {
+          serverError(argExchange, e);
+        }
+      }
+    });
+    server.start();
+  }
+
+  /**
+   * Returns an executor that runs each request on a virtual thread of its own. Virtual threads are looked up
+   * reflectively, so that the server still runs on a cached thread pool where the runtime does not have them.
+   * @return the executor
+   */
+  static ExecutorService newRequestExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (Exception e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  /**
+   * Answers a prefix search with users, groups, and repositories whose ids start with the prefix, in that order.
+   * Repositories are searched with and without the bracket of their section. Each kind is found with a range
+   * query on its sorted map.
+   * @param argExchange the exchange
+   * @throws IOException if it fails to answer
+   */
+  void search(HttpExchange argExchange)
+      throws IOException {
+    String prefix = params(argExchange).get("q");
+    if (prefix == null) {
+      prefix = "";
+    }
+    StringBuilder json = new StringBuilder("[");
+    int count = 0;
+    count = search(json, "user", proc.users.tailMap(prefix).keySet(), prefix, count);
+    count = search(json, "group", proc.groups.tailMap(prefix).keySet(), prefix, count);
+    String repoPrefix = prefix.startsWith("[") ? prefix : "[" + prefix;
+    count = search(json, "repo", proc.repos.tailMap(repoPrefix).keySet(), repoPrefix, count);
+    json.append("]");
+
+    byte[] body = json.toString().getBytes(UTF8);
+    argExchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    argExchange.sendResponseHeaders(200, body.length);
+    OutputStream out = argExchange.getResponseBody();
+    try {
+      out.write(body);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static int search(StringBuilder argJson, String argKind, Set<String> argIds, String argPrefix,
+      int argCount) {
+    for (String id : argIds) {
+      if (argCount >= MAX_SEARCH_RESULTS || !id.startsWith(argPrefix)) {
+        break;
+      }
+      if (argCount > 0) {
+        argJson.append(",");
+      }
+      argJson.append("{\"kind\":\"").append(argKind).append("\",\"id\":");
+      json(argJson, id);
+      argJson.append("}");
+      argCount++ ;
+    }
+    return argCount;
+  }
+
+  /**
+   * Returns rows of the requested page, from the <code>page</code> and <code>size</code> parameters.
+   * @param argParams parameters of the request
+   * @param argRows number of rows
+   * @return first row, inclusive, and last row, exclusive
+   */
+  static int[] range(Map<String, String> argParams, int argRows) {
+    int page = Math.max(intParam(argParams, "page", 0), 0);
+    int size = Math.min(Math.max(intParam(argParams, "size", DEFAULT_PAGE_SIZE), 1), MAX_PAGE_SIZE);
+    int from = (int) Math.min((long) page * size, argRows);
+    return new int[] {from, Math.min(from + size, argRows)};
+  }
+
+  /**
+   * Generates links to the previous and the next pages.
+   * @param out output of the links
+   * @param argPath path of the page
+   * @param argParams parameters of the request
+   * @param argRange rows of the page
+   * @param argRows number of rows
+   * @throws IOException if it fails to write the links
+   */
+  static void pager(HtmlWriter out, String argPath, Map<String, String> argParams, int[] argRange, int argRows)
+      throws IOException {
+    int size = argRange[1] - argRange[0];
+    int page = Math.max(intParam(argParams, "page", 0), 0);
+    out.appendln("<p>Rows " + (argRange[0] + (size > 0 ? 1 : 0)) + " to " + argRange[1] + " of " + argRows);
+    String base = argPath + "?" + (argParams.containsKey("id") ? "id=" + encode(argParams.get("id")) + "&" : "")
+        + "size=" + Math.min(Math.max(intParam(argParams, "size", DEFAULT_PAGE_SIZE), 1), MAX_PAGE_SIZE);
+    if (page > 0) {
+      out.appendln(" <a href='" + base + "&page=" + (page - 1) + "'>Previous</a>");
+    }
+    if (argRange[1] < argRows) {
+      out.appendln(" <a href='" + base + "&page=" + (page + 1) + "'>Next</a>");
+    }
+    out.appendln("</p>");
+  }
+
+  /**
+   * Generates links to the given entities.
+   * @param out output of the links
+   * @param argKind repo, group, or user
+   * @param argIds ids of the entities
+   * @throws IOException if it fails to write the links
+   */
+  void links(HtmlWriter out, String argKind, List<String> argIds)
+      throws IOException {
+    for (int i = 0; i < argIds.size(); i++ ) {
+      out.append("<a href='" + generator.link(argKind, argIds.get(i)) + "'>"
+          + HtmlReportGenerator.escape(argIds.get(i)) + "</a>");
+      out.appendln((i < argIds.size() - 1) ? HtmlReportGenerator.COMMA : "");
+    }
+  }
+
+  static void notFound(HttpExchange argExchange, String argMessage)
+      throws IOException {
+    byte[] body = HtmlReportGenerator.escape(argMessage).getBytes(UTF8);
+    argExchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+    argExchange.sendResponseHeaders(404, body.length);
+    argExchange.getResponseBody().write(body);
+    argExchange.close();
+  }
+
+  /**
+   * Answers a request that failed with 500, unless its response was already started, and closes the exchange, so
+   * that the client is not left waiting.
+   * @param argExchange the exchange
+   * @param argError why the request failed
+   * @throws IOException if it fails to answer
+   */
+  static void serverError(HttpExchange argExchange, Exception argError)
+      throws IOException {
+    System.err.println("Unable to answer " + argExchange.getRequestURI() + ": " + argError);
+    try {
+      if (argExchange.getResponseCode() == -1) {
+        byte[] body = "Internal server error".getBytes(UTF8);
+        argExchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        argExchange.sendResponseHeaders(500, body.length);
+        argExchange.getResponseBody().write(body);
+      }
+    }
+    finally {
+      argExchange.close();
+    }
+  }
+
+  static Map<String, String> params(HttpExchange argExchange)
+      throws UnsupportedEncodingException {
+    Map<String, String> result = new HashMap<String, String>();
+    String query = argExchange.getRequestURI().getRawQuery();
+    if (query == null) {
+      return result;
+    }
+    for (String pair : query.split("&")) {
+      int equal = pair.indexOf('=');
+      if (equal > 0) {
+        result.put(URLDecoder.decode(pair.substring(0, equal), UTF8),
+            URLDecoder.decode(pair.substring(equal + 1), UTF8));
+      }
+    }
+    return result;
+  }
+
+  private static int intParam(Map<String, String> argParams, String argName, int argDefault) {
+    String value = argParams.get(argName);
+    if (value == null) {
+      return argDefault;
+    }
+    try {
+      return Integer.parseInt(value);
+    }
+    catch (NumberFormatException e) {
+      return argDefault;
+    }
+  }
+
+  static String encode(String argString) {
+    try {
+      return URLEncoder.encode(argString, UTF8);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void json(StringBuilder argJson, String argString) {
+    argJson.append('"');
+    for (int i = 0; i < argString.length(); i++ ) {
+      char c = argString.charAt(i);
+      if (c == '"' || c == '\\') {
+        argJson.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        argJson.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        argJson.append(c);
+      }
+    }
+    argJson.append('"');
+  }
+
+  /**
+   * The report generator whose links point to the pages of the server rather than to anchors of the report.
+   * @author bsanchin
+   */
+  static class PageGenerator
+      extends HtmlReportGenerator {
+
+    PageGenerator(SvnAccessAuditor argProc) {
+      super(argProc.users, argProc.groups, argProc.repos, argProc.matrix, null, argProc.groupingMemory);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String link(String argKind, Object argId) {
+      return "/" + argKind + "?id=" + encode(argId.toString());
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void makeQuickLinks(HtmlWriter out)
+        throws IOException {
+      out.appendln("Quick Links: <a href='/repos'>Repositories</a>, <a href='/groups'>Groups</a>, "
+          + "<a href='/users'>SVN Users</a>");
+    }
+  }
+
+  /**
+   * A page of the server, between the header of the report and the end of the document. The page is rendered
+   * into memory before it is sent, so that an unknown entity is still answered with 404, which is cheap since
+   * a page is only as large as its rows.
+   * @author bsanchin
+   */
+  abstract class Page
+      implements HttpHandler {
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(HttpExchange argExchange)
+        throws IOException {
+      try {
+        Map<String, String> params = params(argExchange);
+        argExchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+        StringBuilder page = new StringBuilder();
+        HtmlWriter out = new HtmlWriter(page);
+        generator.makeHeader(out);
+        render(out, params);
+        out.appendln("</body></html>");
+
+        byte[] body = page.toString().getBytes(UTF8);
+        argExchange.sendResponseHeaders(200, body.length);
+        OutputStream stream = argExchange.getResponseBody();
+        try {
+          stream.write(body);
+        }
+        finally {
+          stream.close();
+        }
+      }
+      catch (FileNotFoundException e) {
+        notFound(argExchange, e.getMessage());
+      }
+      catch (RuntimeException e) {
+        serverError(argExchange, e);
+      }
+    }
+
+    /**
+     * Renders the content of the page.
+     * @param out output of the page
+     * @param argParams parameters of the request
+     * @throws IOException if it fails to render the page
+     */
+    abstract void render(HtmlWriter out, Map<String, String> argParams)
+        throws IOException;
+  }
+
+}
@@ -0,0 +1,228 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An abstract base for reports of plain rows that other tools read, rather than people. The report has four
+ * tables, each written to its own file:
+ * <p>
+ * <ol>
+ * <li>repos: each section, its repository name and path, and numbers of its read only users and writers.
+ * <li>groups: each group and each of its users, including users of its sub groups.
+ * <li>users: each user and numbers of repositories the user can only read and can write.
+ * <li>access: each user and each repository the user can access, with <code>r</code> or <code>rw</code>, which
+ * is the effective access matrix.
+ * </ol>
+ * <p>
+ * Rows are written to the file as they are read from the access matrix, field by field, through a fixed size
+ * buffer. Nothing is kept between rows, so that memory use stays the same however many rows there are. Formats
+ * only tell how a table, a row, and a field are written.
+ * @author bsanchin
+ */
+abstract class RowReportGenerator
+    implements IReportGenerator {
+
+  static final String[] REPO_COLUMNS = {"repo", "name", "path", "read_only", "write"};
+  static final String[] GROUP_COLUMNS = {"group", "user"};
+  static final String[] USER_COLUMNS = {"user", "read_only", "write"};
+  static final String[] ACCESS_COLUMNS = {"user", "repo", "access"};
+
+  protected TreeMap<String, User> users;
+  protected TreeMap<String, Group> groups;
+  protected TreeMap<String, Repo> repos;
+  protected AccessMatrix matrix;
+
+  RowReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix) {
+    this.users = argUsers;
+    this.groups = argGroups;
+    this.repos = argRepos;
+    this.matrix = argMatrix;
+  }
+
+  /**
+   * Returns the extension of the files of the format, such as <code>csv</code>.
+   * @return the extension
+   */
+  protected abstract String extension();
+
+  /**
+   * Starts a table, before any of its rows.
+   * @param out output of the table
+   * @param argColumns names of the columns
+   * @throws IOException if it fails to write the table
+   */
+  protected abstract void beginTable(Writer out, String[] argColumns)
+      throws IOException;
+
+  /**
+   * Writes a field of the current row. Fields are written in the order of their columns.
+   * @param out output of the table
+   * @param argColumn the column
+   * @param argValue value of the field, or null
+   * @throws IOException if it fails to write the field
+   */
+  protected abstract void field(Writer out, int argColumn, String argValue)
+      throws IOException;
+
+  /**
+   * Writes a number field of the current row.
+   * @param out output of the table
+   * @param argColumn the column
+   * @param argValue value of the field
+   * @throws IOException if it fails to write the field
+   */
+  protected abstract void field(Writer out, int argColumn, long argValue)
+      throws IOException;
+
+  /**
+   * Ends the current row.
+   * @param out output of the table
+   * @throws IOException if it fails to write the row
+   */
+  protected abstract void endRow(Writer out)
+      throws IOException;
+
+  /** {@inheritDoc} */
+  @Override
+  public void generateReport()
+      throws Exception {
+    RunStats.Span span = RunStats.begin("render");
+    try {
+      Writer out = open("repos", REPO_COLUMNS);
+      try {
+        makeRepos(out);
+      }
+      finally {
+        out.close();
+      }
+      out = open("groups", GROUP_COLUMNS);
+      try {
+        makeGroups(out);
+      }
+      finally {
+        out.close();
+      }
+      out = open("users", USER_COLUMNS);
+      try {
+        makeUsers(out);
+      }
+      finally {
+        out.close();
+      }
+      out = open("access", ACCESS_COLUMNS);
+      try {
+        makeAccess(out);
+      }
+      finally {
+        out.close();
+      }
+    }
+    finally {
+      span.end();
+    }
+    String ext = "." + extension();
+    System.out.println("Report generation completed! See repos" + ext + ", groups" + ext + ", users" + ext
+        + ", and access" + ext + " for the result.");
+  }
+
+  private Writer open(String argTable, String[] argColumns)
+      throws IOException {
+    Writer result = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(argTable + "."
+        + extension()), HtmlReportGenerator.UTF8), HtmlReportGenerator.BUFFER_SIZE);
+    beginTable(result, argColumns);
+    return result;
+  }
+
+  /**
+   * Writes a row for each section.
+   * @param out output of the table
+   * @throws IOException if it fails to write the rows
+   */
+  protected void makeRepos(Writer out)
+      throws IOException {
+    for (int i = 0; i < matrix.getRepoCount(); i++ ) {
+      Repo repo = matrix.getRepo(i);
+      field(out, 0, repo.id);
+      field(out, 1, repo.name);
+      field(out, 2, repo.path);
+      field(out, 3, matrix.getReaders(repo).cardinality());
+      field(out, 4, matrix.getWriters(repo).cardinality());
+      endRow(out);
+    }
+    RunStats.count("rows.rendered", matrix.getRepoCount());
+  }
+
+  /**
+   * Writes a row for each user of each group.
+   * @param out output of the table
+   * @throws IOException if it fails to write the rows
+   */
+  protected void makeGroups(Writer out)
+      throws IOException {
+    long rows = 0;
+    for (int i = 0; i < matrix.getGroupCount(); i++ ) {
+      Group group = matrix.getGroup(i);
+      BitSet members = matrix.getMembers(group);
+      for (int u = members.nextSetBit(0); u >= 0; u = members.nextSetBit(u + 1)) {
+        field(out, 0, group.id);
+        field(out, 1, matrix.getUser(u).id);
+        endRow(out);
+        rows++ ;
+      }
+    }
+    RunStats.count("rows.rendered", rows);
+  }
+
+  /**
+   * Writes a row for each user.
+   * @param out output of the table
+   * @throws IOException if it fails to write the rows
+   */
+  protected void makeUsers(Writer out)
+      throws IOException {
+    for (int i = 0; i < matrix.getUserCount(); i++ ) {
+      User user = matrix.getUser(i);
+      field(out, 0, user.id);
+      field(out, 1, matrix.getReadable(user).cardinality());
+      field(out, 2, matrix.getWritable(user).cardinality());
+      endRow(out);
+    }
+    RunStats.count("rows.rendered", matrix.getUserCount());
+  }
+
+  /**
+   * Writes a row for each repository that each user can access. Readable only and writable repositories of a
+   * user are merged in the order of the repositories, without creating their union.
+   * @param out output of the table
+   * @throws IOException if it fails to write the rows
+   */
+  protected void makeAccess(Writer out)
+      throws IOException {
+    long rows = 0;
+    for (int i = 0; i < matrix.getUserCount(); i++ ) {
+      User user = matrix.getUser(i);
+      BitSet readable = matrix.getReadable(user);
+      BitSet writable = matrix.getWritable(user);
+      int r = readable.nextSetBit(0);
+      int w = writable.nextSetBit(0);
+      while (r >= 0 || w >= 0) {
+        boolean write = r < 0 || (w >= 0 && w < r);
+        field(out, 0, user.id);
+        field(out, 1, matrix.getRepo(write ? w : r).id);
+        field(out, 2, write ? "rw" : "r");
+        endRow(out);
+        rows++ ;
+        if (write) {
+          w = writable.nextSetBit(w + 1);
+        }
+        else {
+          r = readable.nextSetBit(r + 1);
+        }
+      }
+    }
+    RunStats.count("rows.rendered", rows);
+  }
+
+}
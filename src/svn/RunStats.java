@@ -0,0 +1,389 @@
+package svn;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.*;
+
+/**
+ * Statistics of a run: wall time, CPU time, and allocated bytes of each phase, such as parsing, flattening
+ * groups, grouping, and rendering, and counters of the work done in them, such as lines parsed of each kind,
+ * sub group lookups, set operations, and rows rendered.
+ * <p>
+ * Statistics are kept only when enabled with <code>--stats</code> or while a flight recording is running, and
+ * otherwise every call is a check of a single flag, so that they could be left in place in production runs.
+ * Once enabled, they are available through the <code>svn:type=RunStats</code> MBean and printed at the end of
+ * the run. While a flight recording is running, whether statistics are enabled or not, phases are recorded as
+ * <code>svn.Phase</code> events, and counters kept since the recording started are recorded as
+ * <code>svn.Counter</code> events at the end of the run.
+ * <p>
+ * CPU time and allocated bytes are those of the whole process while the phase runs, so that work of the pool
+ * threads is counted too. Phases may overlap, such as grouping users while repositories are rendered, and then
+ * both of them count the CPU time and allocations of that time.
+ * @author bsanchin
+ */
+public class RunStats
+    implements RunStatsMXBean {
+
+  static final String OBJECT_NAME = "svn:type=RunStats";
+
+  static final RunStats INSTANCE = new RunStats();
+
+  // Keeps statistics of the run, and prints them, see --stats.
+  static volatile boolean enabled;
+
+  // A flight recording is running, see RecordingListener.
+  private static volatile boolean recording;
+
+  // Either of the above, checked first by every call.
+  private static volatile boolean keeping;
+
+  // A span that records nothing.
+  private static final Span NONE = new Span(null, null);
+
+  // Count, wall time, CPU time, and allocated bytes of each phase, in the order of their first run.
+  protected final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+  protected final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+  // Last lines counter of each parsing thread, files may be parsed on several threads at once.
+  private final ThreadLocal<Object[]> lastLines = new ThreadLocal<Object[]>();
+
+  static {
+    try {
+      FlightRecorder.addListener(new RecordingListener());
+    }
+    catch (RuntimeException e) {
+      // Flight recording is not available, or not allowed.
+    }
+  }
+
+  /**
+   * Enables statistics and registers the MBean.
+   */
+  static void enable() {
+    if (enabled) {
+      return;
+    }
+    enabled = true;
+    keeping = true;
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+    }
+    catch (Exception e) {
+      System.err.println("Unable to register the statistics MBean: " + e);
+    }
+  }
+
+  /**
+   * Starts a phase. The phase ends with {@link Span#end()}.
+   * @param argPhase name of the phase
+   * @return the running phase
+   */
+  static Span begin(String argPhase) {
+    if (!keeping) {
+      return NONE;
+    }
+    PhaseEvent event = new PhaseEvent();
+    event.phase = argPhase;
+    event.begin();
+    return new Span(argPhase, event);
+  }
+
+  /**
+   * Adds to a counter.
+   * @param argCounter name of the counter
+   * @param argDelta amount to add
+   */
+  static void count(String argCounter, long argDelta) {
+    if (keeping) {
+      INSTANCE.counter(argCounter).add(argDelta);
+    }
+  }
+
+  /**
+   * Counts a parsed line, see {@link ConfigParser.Chunk#process(AuthzLine)}. The counter of the previous line
+   * of the thread is reused while lines are of the same kind, so that the counter is not looked up by name.
+   * @param argCounter name of the counter, one of a few constants
+   */
+  static void line(String argCounter) {
+    if (keeping) {
+      INSTANCE.countLine(argCounter);
+    }
+  }
+
+  private void countLine(String argCounter) {
+    Object[] last = lastLines.get();
+    if (last == null) {
+      last = new Object[2];
+      lastLines.set(last);
+    }
+    if (argCounter != last[0]) {
+      last[0] = argCounter;
+      last[1] = counter(argCounter);
+    }
+    ((LongAdder) last[1]).increment();
+  }
+
+  private LongAdder counter(String argCounter) {
+    LongAdder counter = counters.get(argCounter);
+    if (counter == null) {
+      counters.putIfAbsent(argCounter, new LongAdder());
+      counter = counters.get(argCounter);
+    }
+    return counter;
+  }
+
+  private synchronized void record(String argPhase, long argWall, long argCpu, long argAllocated) {
+    long[] phase = phases.get(argPhase);
+    if (phase == null) {
+      phase = new long[4];
+      phases.put(argPhase, phase);
+    }
+    phase[0]++ ;
+    phase[1] += argWall;
+    phase[2] += argCpu;
+    phase[3] += argAllocated;
+  }
+
+  /**
+   * Records the counters as flight recording events, if a recording is running.
+   */
+  static void commitCounters() {
+    if (!recording) {
+      return;
+    }
+    for (Map.Entry<String, Long> counter : INSTANCE.getCounters().entrySet()) {
+      CounterEvent event = new CounterEvent();
+      if (!event.isEnabled()) {
+        return;
+      }
+      event.counter = counter.getKey();
+      event.value = counter.getValue();
+      event.commit();
+    }
+  }
+
+  /**
+   * Prints phases and counters.
+   * @param argOut where they go
+   */
+  static void print(PrintStream argOut) {
+    if (!enabled) {
+      return;
+    }
+    argOut.println(String.format("%-32s %8s %12s %12s %12s", "Phase", "count", "wall ms", "cpu ms", "alloc MB"));
+    synchronized (INSTANCE) {
+      for (Map.Entry<String, long[]> phase : INSTANCE.phases.entrySet()) {
+        long[] p = phase.getValue();
+        argOut.println(String.format("%-32s %8d %12.1f %12.1f %12.1f", phase.getKey(), p[0], p[1] / 1e6,
+            p[2] / 1e6, p[3] / (1024.0 * 1024.0)));
+      }
+    }
+    argOut.println(String.format("%-32s %12s", "Counter", "value"));
+    for (Map.Entry<String, Long> counter : INSTANCE.getCounters().entrySet()) {
+      argOut.println(String.format("%-32s %12d", counter.getKey(), counter.getValue()));
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Long> getPhaseCounts() {
+    return phaseColumn(0);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Long> getWallTimes() {
+    return phaseColumn(1);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Long> getCpuTimes() {
+    return phaseColumn(2);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Long> getAllocatedBytes() {
+    return phaseColumn(3);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public Map<String, Long> getCounters() {
+    TreeMap<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      result.put(counter.getKey(), counter.getValue().sum());
+    }
+    return result;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized void reset() {
+    phases.clear();
+    // Counters are zeroed rather than removed, parsing threads may hold on to them.
+    for (LongAdder counter : counters.values()) {
+      counter.reset();
+    }
+  }
+
+  private synchronized Map<String, Long> phaseColumn(int argColumn) {
+    LinkedHashMap<String, Long> result = new LinkedHashMap<String, Long>();
+    for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+      result.put(phase.getKey(), phase.getValue()[argColumn]);
+    }
+    return result;
+  }
+
+  /**
+   * Returns CPU time of the process in nanoseconds, or 0 if the platform does not tell.
+   * @return CPU time
+   */
+  static long processCpuTime() {
+    java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return Math.max(0, ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime());
+    }
+    return 0;
+  }
+
+  /**
+   * Returns bytes allocated by the live threads of the process, or 0 if the platform does not tell.
+   * @return allocated bytes
+   */
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return 0;
+    }
+    long result = 0;
+    for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads
+        .getAllThreadIds())) {
+      result += Math.max(0, bytes);
+    }
+    return result;
+  }
+
+  /**
+   * A running phase.
+   * @author bsanchin
+   */
+  static class Span {
+
+    private final String phase;
+    private final PhaseEvent event;
+    private final long wall;
+    private final long cpu;
+    private final long allocated;
+
+    Span(String argPhase, PhaseEvent argEvent) {
+      this.phase = argPhase;
+      this.event = argEvent;
+      this.wall = System.nanoTime();
+      this.cpu = (argEvent == null) ? 0 : processCpuTime();
+      this.allocated = (argEvent == null) ? 0 : allocatedBytes();
+    }
+
+    /**
+     * Ends the phase and records it.
+     */
+    void end() {
+      if (event == null) {
+        return;
+      }
+      long cpuTime = processCpuTime() - cpu;
+      long allocatedBytes = allocatedBytes() - allocated;
+      event.end();
+      if (recording && event.shouldCommit()) {
+        event.cpuTime = cpuTime;
+        event.allocated = allocatedBytes;
+        event.commit();
+      }
+      if (enabled) {
+        INSTANCE.record(phase, System.nanoTime() - wall, cpuTime, allocatedBytes);
+      }
+    }
+  }
+
+  /**
+   * Keeps statistics while a flight recording is running, so that they could be recorded as events without
+   * <code>--stats</code>.
+   * @author bsanchin
+   */
+  static final class RecordingListener
+      implements FlightRecorderListener {
+
+    /** {@inheritDoc} */
+    @Override
+    public void recorderInitialized(FlightRecorder argRecorder) {
+      update();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void recordingStateChanged(Recording argRecording) {
+      update();
+    }
+
+    private static synchronized void update() {
+      boolean running = false;
+      if (FlightRecorder.isInitialized()) {
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+          running |= r.getState() == RecordingState.RUNNING;
+        }
+      }
+      recording = running;
+      keeping = enabled || running;
+    }
+  }
+
+  /**
+   * A phase of the run.
+   * @author bsanchin
+   */
+  @Name("svn.Phase")
+  @Label("Phase")
+  @Category("SVN Access Auditor")
+  @StackTrace(false)
+  static class PhaseEvent
+      extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+  }
+
+  /**
+   * A counter at the end of the run.
+   * @author bsanchin
+   */
+  @Name("svn.Counter")
+  @Label("Counter")
+  @Category("SVN Access Auditor")
+  @StackTrace(false)
+  static class CounterEvent
+      extends Event {
+
+    @Label("Counter")
+    String counter;
+
+    @Label("Value")
+    long value;
+  }
+
+}
@@ -0,0 +1,26 @@
+package svn;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RunStats}, registered as <code>svn:type=RunStats</code> when statistics are
+ * enabled. Times are in nanoseconds, keyed by phase.
+ * @author bsanchin
+ */
+public interface RunStatsMXBean {
+
+  Map<String, Long> getPhaseCounts();
+
+  Map<String, Long> getWallTimes();
+
+  Map<String, Long> getCpuTimes();
+
+  Map<String, Long> getAllocatedBytes();
+
+  Map<String, Long> getCounters();
+
+  /**
+   * Forgets every phase and zeroes every counter.
+   */
+  void reset();
+}
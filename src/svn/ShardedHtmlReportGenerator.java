@@ -0,0 +1,294 @@
+package svn;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Generates the HTML report as a directory of small pages rather than a single file. The report directory
+ * would have:
+ * <ul>
+ * <li><code>index.html</code>: the summary, with links to the contents pages
+ * <li><code>toc/</code>: contents pages, each with links to {@link #LINKS_PER_PAGE} pages
+ * <li><code>repo/</code>: a page per group of repositories with the same readers and writers
+ * <li><code>user/</code>: a page per group of users with the same readable and writable repositories
+ * <li><code>group/</code>: a page per group
+ * </ul>
+ * Pages are named after their row in the single file report, so that the same configuration always makes the
+ * same pages. Cross links are rewritten to point to the page of the entity. Pages are independent of each
+ * other, so they are written in parallel on the pool, a batch of pages per task.
+ * @author bsanchin
+ */
+public class ShardedHtmlReportGenerator
+    extends HtmlReportGenerator {
+
+  static final String REPORT_DIR = "repos";
+  static final String[] KINDS = {"repo", "user", "group", "toc"};
+
+  // Number of links on a contents page.
+  static final int LINKS_PER_PAGE = 1000;
+
+  // Number of pages written by a single task.
+  static final int PAGES_PER_TASK = 64;
+
+  protected final File dir;
+
+  // Pages of repos, users, and groups by their ids.
+  protected final HashMap<String, Integer> repoPages = new HashMap<String, Integer>();
+  protected final HashMap<String, Integer> userPages = new HashMap<String, Integer>();
+  protected final HashMap<String, Integer> groupPages = new HashMap<String, Integer>();
+
+  protected Group[] allGroups;
+
+  ShardedHtmlReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool) {
+    this(argUsers, argGroups, argRepos, argMatrix, argPool, 0);
+  }
+
+  ShardedHtmlReportGenerator(TreeMap<String, User> argUsers, TreeMap<String, Group> argGroups,
+      TreeMap<String, Repo> argRepos, AccessMatrix argMatrix, ForkJoinPool argPool, long argGroupingMemory) {
+    super(argUsers, argGroups, argRepos, argMatrix, argPool, argGroupingMemory);
+    this.dir = new File(REPORT_DIR);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void generateReport()
+      throws Exception {
+    group();
+    for (Map.Entry<Integer, SortedSet<Repo>> row : reposGroupedByUsers.entrySet()) {
+      for (Repo r : row.getValue()) {
+        repoPages.put(r.id, row.getKey());
+      }
+    }
+    for (Map.Entry<Integer, SortedSet<User>> row : usersGroupedByRepos.entrySet()) {
+      for (User u : row.getValue()) {
+        userPages.put(u.id, row.getKey());
+      }
+    }
+    allGroups = groups.values().toArray(new Group[groups.size()]);
+    for (int i = 0; i < allGroups.length; i++ ) {
+      groupPages.put(allGroups[i].id, i);
+    }
+
+    RunStats.Span span = RunStats.begin("render");
+    try {
+      writePages();
+    }
+    finally {
+      span.end();
+    }
+    System.out.println("Report generation completed! See " + REPORT_DIR + "/index.html for the result.");
+  }
+
+  /**
+   * Writes the index page and every other page.
+   * @throws Exception if it fails to write a page
+   */
+  private void writePages()
+      throws Exception {
+    prepareDirectory();
+    writeIndex();
+
+    final int repoPageCount = reposGroupedByUsers.size();
+    final int userPageCount = usersGroupedByRepos.size();
+    final int groupPageCount = allGroups.length;
+    final int tocPageCount = tocPages(repoPageCount) + tocPages(userPageCount) + tocPages(groupPageCount);
+    List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+    submitPages(tasks, "repo", repoPageCount);
+    submitPages(tasks, "user", userPageCount);
+    submitPages(tasks, "group", groupPageCount);
+    submitPages(tasks, "toc", tocPageCount);
+    for (Future<Void> task : tasks) {
+      await(task);
+    }
+  }
+
+  /**
+   * Creates the report directory, and removes pages of an earlier report, so that no stale page is left.
+   * @throws IOException if it fails to create the directory
+   */
+  private void prepareDirectory()
+      throws IOException {
+    for (String kind : KINDS) {
+      File kindDir = new File(dir, kind);
+      File[] stale = kindDir.listFiles();
+      if (stale != null) {
+        for (File f : stale) {
+          if (f.getName().endsWith(".html")) {
+            f.delete();
+          }
+        }
+      }
+      if (!kindDir.isDirectory() && !kindDir.mkdirs()) {
+        throw new IOException("Unable to create directory: " + kindDir);
+      }
+    }
+  }
+
+  /**
+   * Submits tasks that write pages of the given kind, a batch of pages each.
+   * @param argTasks submitted tasks
+   * @param argKind kind of the pages
+   * @param argCount number of pages
+   */
+  private void submitPages(List<Future<Void>> argTasks, final String argKind, int argCount) {
+    for (int from = 0; from < argCount; from += PAGES_PER_TASK) {
+      final int pageFrom = from;
+      final int pageTo = Math.min(from + PAGES_PER_TASK, argCount);
+      argTasks.add(submit(new Callable<Void>() {
+        @Override
+        public Void call()
+            throws IOException {
+          for (int page = pageFrom; page < pageTo; page++ ) {
+            writePage(argKind, page);
+          }
+          return null;
+        }
+      }));
+    }
+  }
+
+  /**
+   * Writes the index page with the summary and links to the contents pages.
+   * @throws IOException if it fails to write the page
+   */
+  private void writeIndex()
+      throws IOException {
+    Writer writer = open(new File(dir, "index.html"));
+    try {
+      HtmlWriter out = new HtmlWriter(writer);
+      makeHeader(out);
+      makeSummary(out);
+      int page = 0;
+      String[] titles = {"Repositories", "Groups", "SVN Users"};
+      int[] counts = {reposGroupedByUsers.size(), allGroups.length, usersGroupedByRepos.size()};
+      for (int i = 0; i < titles.length; i++ ) {
+        out.appendln("<h1 id='" + titles[i].toLowerCase().replace(' ', '-') + "'>" + titles[i] + "</h1>");
+        for (int toc = 0; toc < tocPages(counts[i]); toc++ ) {
+          int from = toc * LINKS_PER_PAGE;
+          int to = Math.min(from + LINKS_PER_PAGE, counts[i]);
+          out.appendln("<a href='toc/" + page + ".html'>" + (from + 1) + " to " + to + "</a><br>");
+          page++ ;
+        }
+      }
+      out.appendln("</body></html>");
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes a single page.
+   * @param argKind kind of the page
+   * @param argPage number of the page
+   * @throws IOException if it fails to write the page
+   */
+  protected void writePage(String argKind, int argPage)
+      throws IOException {
+    Writer writer = open(new File(new File(dir, argKind), argPage + ".html"));
+    try {
+      HtmlWriter out = new HtmlWriter(writer);
+      makeHeader(out);
+      out.appendln("<a href='../index.html'>Summary</a><br>");
+      if (argKind.equals("repo")) {
+        makeRepoTable(out);
+        makeRepoRows(out, argPage, argPage + 1);
+        out.appendln("</table>");
+      }
+      else if (argKind.equals("user")) {
+        makeUserTable(out);
+        makeUserRows(out, argPage, argPage + 1);
+        out.appendln("</table>");
+      }
+      else if (argKind.equals("group")) {
+        makeGroupRows(out, allGroups, argPage, argPage + 1);
+      }
+      else {
+        makeToc(out, argPage);
+      }
+      out.appendln("</body></html>");
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Generates a contents page. Contents pages of repositories come first, then those of groups and users.
+   * @param out output of the page
+   * @param argPage number of the contents page
+   * @throws IOException if it fails to write the page
+   */
+  private void makeToc(HtmlWriter out, int argPage)
+      throws IOException {
+    int page = argPage;
+    int repoTocs = tocPages(reposGroupedByUsers.size());
+    int groupTocs = tocPages(allGroups.length);
+    if (page < repoTocs) {
+      for (int row = page * LINKS_PER_PAGE; row < Math.min((page + 1) * LINKS_PER_PAGE,
+          reposGroupedByUsers.size()); row++ ) {
+        tocLink(out, "repo", row, reposGroupedByUsers.get(row));
+      }
+      return;
+    }
+    page -= repoTocs;
+    if (page < groupTocs) {
+      for (int i = page * LINKS_PER_PAGE; i < Math.min((page + 1) * LINKS_PER_PAGE, allGroups.length); i++ ) {
+        tocLink(out, "group", i, Collections.singleton(allGroups[i]));
+      }
+      return;
+    }
+    page -= groupTocs;
+    for (int row = page * LINKS_PER_PAGE; row < Math.min((page + 1) * LINKS_PER_PAGE,
+        usersGroupedByRepos.size()); row++ ) {
+      tocLink(out, "user", row, usersGroupedByRepos.get(row));
+    }
+  }
+
+  private void tocLink(HtmlWriter out, String argKind, int argPage, Collection<?> argEntities)
+      throws IOException {
+    out.appendln("<a href='../" + argKind + "/" + argPage + ".html'>" + argEntities.iterator().next()
+        + ((argEntities.size() > 1) ? " and " + (argEntities.size() - 1) + " more" : "") + "</a><br>");
+  }
+
+  private static int tocPages(int argCount) {
+    return (argCount + LINKS_PER_PAGE - 1) / LINKS_PER_PAGE;
+  }
+
+  private static Writer open(File argFile)
+      throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(argFile), UTF8), BUFFER_SIZE);
+  }
+
+  /**
+   * Returns the link to the page of an entity, relative to the directory of another page.
+   * @param argKind repo, group, or user
+   * @param argId id of the entity
+   * @return the link
+   */
+  @Override
+  protected String link(String argKind, Object argId) {
+    HashMap<String, Integer> pages;
+    if (argKind.equals("repo")) {
+      pages = repoPages;
+    }
+    else if (argKind.equals("user")) {
+      pages = userPages;
+    }
+    else {
+      pages = groupPages;
+    }
+    return "../" + argKind + "/" + pages.get(argId.toString()) + ".html" + super.link(argKind, argId);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected void makeQuickLinks(HtmlWriter out)
+      throws IOException {
+    out.appendln(
+        "Quick Links: <a href='#repositories'>Repositories</a>, <a href='#groups'>Groups</a>, <a href='#svn-users'>SVN Users</a>");
+  }
+
+}
@@ -1,7 +1,8 @@
 package svn;
 
 import java.io.*;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * SVN access auditor and report generator.
@@ -39,7 +40,6 @@ public class SvnAccessAuditor {
     // driver.drive(new String[] {"svnaccess.conf"});
   }
 
-  protected IState currentState;
   protected IReportGenerator reportGenerator;
   protected TreeMap<String, User> users = new TreeMap<String, User>();
   protected TreeMap<String, Group> groups = new TreeMap<String, Group>();
@@ -47,50 +47,653 @@ public class SvnAccessAuditor {
 
   protected final Group EVERYONE = new Group("EVERYONE");
 
+  // Number of threads that build the report, 1 to build it on the main thread.
+  protected int threads = Runtime.getRuntime().availableProcessors();
+
+  // Reads the access configuration file through a memory mapped buffer, otherwise through a reader.
+  protected boolean mapped = true;
+
+  // Distinct user, group, and repository names.
+  protected NameTable names = new NameTable();
+
+  // Reuses the snapshot of the parsed model while the access configuration file is unchanged, see ModelSnapshot.
+  protected boolean snapshot = true;
+
+  // Keeps running and updates the report whenever the access configuration file changes.
+  protected boolean watch;
+
+  // Partitions and rows of the last HTML report that the next one regroups and reuses, null to group and render
+  // everything, see ConfigWatcher.
+  protected IncrementalGrouping<Repo> repoGrouping;
+  protected IncrementalGrouping<User> userGrouping;
+
+  // Format of the report, a single HTML file, a directory of HTML pages, or rows of JSON or CSV.
+  protected String format = "html";
+
+  // Port that serves the report pages.
+  protected int port = 8080;
+
+  // Access matrix of the parsed users, groups, and repos.
+  protected AccessMatrix matrix;
+
+  // Keeps statistics of the run and prints them at the end, see RunStats.
+  protected boolean stats;
+
+  // Explains access of users to their repos in the HTML report, see AccessExplainer.
+  protected boolean explain;
+
+  // Least Jaccard similarity of the users of two groups that are reported in similar mode.
+  protected double similarity = 0.8;
+
+  // Bytes of bit sets that each kind of derived views of the access matrix may keep, see AccessViews.
+  protected long viewCache = AccessViews.DEFAULT_CAPACITY;
+
+  // Bytes of signatures that each grouping pass keeps in memory before it spills them, 0 to group in memory.
+  protected long groupingMemory;
+
   /**
    * Drives the application.
-   * @param args first element would be the svn access configuration file
+   * @param args options followed by the svn access configuration file, or the query command followed by its
+   *          arguments
    * @throws Exception if it fails to generate a report
    */
   public void drive(String[] args)
       throws Exception {
 
+    // Progress goes to standard error when the answers of queries go to standard output.
+    boolean query = args != null && args.length > 0 && args[0].equals("query");
+    boolean serve = args != null && args.length > 0 && args[0].equals("serve");
+    boolean diff = args != null && args.length > 0 && args[0].equals("diff");
+    boolean history = args != null && args.length > 0 && args[0].equals("history");
+    boolean batch = args != null && args.length > 0 && args[0].equals("batch");
+    boolean similar = args != null && args.length > 0 && args[0].equals("similar");
+    if (query || serve || diff || history || batch || similar) {
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
+    args = parseOptions(args);
+
     // We need an access config file in order to generate a report.
-    if (args == null || args.length < 1) {
+    if (args == null || args.length < (diff ? 2 : 1)) {
       System.out.println("=== SVN Access Auditor v1.0 ===");
       System.out.println("Outputs mapping information (HTML) between SVN repos and users. ");
       System.out.println("Usage:");
-      System.out.println("  java -jar svnaccessauditor.jar <svnaccess.conf>");
+      System.out.println("  java -jar svnaccessauditor.jar [options] <svnaccess.conf>");
+      System.out.println("  java -jar svnaccessauditor.jar query [options] <svnaccess.conf> [<lookup>]");
+      System.out.println("  java -jar svnaccessauditor.jar serve [options] <svnaccess.conf>");
+      System.out.println("  java -jar svnaccessauditor.jar diff [options] <old.conf> <new.conf>");
+      System.out.println("  java -jar svnaccessauditor.jar history [options] <dir> [<lookup>]");
+      System.out.println("  java -jar svnaccessauditor.jar batch [options] <svnaccess.conf|dir>...");
+      System.out.println("  java -jar svnaccessauditor.jar similar [options] <svnaccess.conf>");
+      System.out.println();
+      System.out.println("Options:");
+      System.out.println("  --threads <n>   number of threads that build the report, or servers audited at once in");
+      System.out.println("                  batch mode (default: number of cores)");
+      System.out.println("  --ingest <mode> mmap: read the file through a memory mapped buffer (default)");
+      System.out.println("                  reader: read the file line by line through a reader");
+      System.out.println("  --snapshot <mode> on: reuse the parsed model from <svnaccess.conf>.snapshot while the");
+      System.out.println("                  file is unchanged, and write it after parsing (default)");
+      System.out.println("                  off: always parse the file, and write no snapshot");
+      System.out.println("  --format <format> html: a single HTML file, repos.html (default)");
+      System.out.println("                  sharded: a directory of small HTML pages, repos/index.html");
+      System.out.println("                  json: newline delimited JSON rows of repos, groups, users, and access,");
+      System.out.println("                  repos.ndjson, groups.ndjson, users.ndjson, and access.ndjson");
+      System.out.println("                  csv: the same rows as CSV, repos.csv, groups.csv, users.csv, and access.csv");
+      System.out.println("  --watch         keep running and update the report whenever the file changes");
+      System.out.println("  --port <n>      port that serves the report pages (default: 8080)");
+      System.out.println("  --explain       explain how users of the HTML report get access to each of their repos,");
+      System.out.println("                  and how writers of each repo get write access, next to them");
+      System.out.println("  --similarity <j> least Jaccard similarity of the users of two groups in similar mode,");
+      System.out.println("                  greater than 0 and at most 1 (default: 0.8)");
+      System.out.println("  --view-cache <mb> memory of each kind of derived access views of a model (default: 64)");
+      System.out.println("  --grouping-memory <mb> group users and repositories through sorted files on disk, keeping");
+      System.out.println("                  at most this much of their signatures in memory, and keep no bit sets");
+      System.out.println("                  of the repositories of each user (default: in memory)");
+      System.out.println("  --stats         print time and allocations of each phase and counters of the work done,");
+      System.out.println("                  also available through the svn:type=RunStats MBean");
+      System.out.println();
+      System.out.println("Lookups, read from standard input one per line if not given:");
+      System.out.println("  readers <repo>             users who can read the repository");
+      System.out.println("  writers <repo>             users who can write the repository");
+      System.out.println("  readable <user>            repositories the user can read");
+      System.out.println("  writable <user>            repositories the user can write");
+      System.out.println("  groups <user>              groups the user belongs to, directly or not");
+      System.out.println("  members <group>            users of the group, including users of its sub groups");
+      System.out.println("  can-read <user> <repo>     true if the user can read the repository");
+      System.out.println("  can-write <user> <repo>    true if the user can write the repository");
+      System.out.println("  explain <user> <repo> read|write");
+      System.out.println("                             true or false, the section that decides it, and its rules");
+      System.out.println("                             that grant the access, with paths from the user through");
+      System.out.println("                             groups to them, shortest first");
+      System.out.println();
+      System.out.println("History lookups over the dated versions in <dir>, dates are yyyy-MM-dd and inclusive:");
+      System.out.println("  readers <repo> [<from> [<to>]]   users who could read the repository at some point");
+      System.out.println("  writers <repo> [<from> [<to>]]   users who could write the repository at some point");
+      System.out.println("  readable <user> [<from> [<to>]]  repositories the user could read at some point");
+      System.out.println("  writable <user> [<from> [<to>]]  repositories the user could write at some point");
+      System.out.println("  intervals <user> <repo>          dates the user could read and write the repository");
+      System.out.println("  versions                         dates and files of the versions");
       System.out.println();
-      System.out.println("Output: repos.html");
+      System.out.println("Output: repos.html, repos/index.html, or rows of JSON or CSV, answers of the lookups, one");
+      System.out.println("        line each, or report pages rendered on demand at http://localhost:<port>/");
+      System.out.println("        diff.html, and granted and revoked permissions, one line each:");
+      System.out.println("        grant|revoke <tab> read|write <tab> <user> <tab> <repo>");
+      System.out.println("        servers/<server>.html of each file, every file of a directory, and servers/index.html");
+      System.out.println("        with the access of users across the servers");
+      System.out.println("        pairs of groups with nearly the same users, most similar first, one line each:");
+      System.out.println("        <similarity> <tab> <group> <tab> <group> <tab> <shared users> <tab> <users of the");
+      System.out.println("        first group only> <tab> <users of the second group only>");
       return;
     }
 
-    File accessConfigFile = new File(args[0]);
-    if (!accessConfigFile.exists() || accessConfigFile.isDirectory()) {
-      System.out.println("File not exists at: " + args[0]);
+    if (stats) {
+      RunStats.enable();
+    }
+    if (history) {
+      File dir = new File(args[0]);
+      if (!dir.isDirectory()) {
+        System.out.println("Directory not exists at: " + args[0]);
+        return;
+      }
+      ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+      try {
+        AccessHistory accessHistory = new AccessHistory(this, pool);
+        accessHistory.load(dir, System.err);
+        query(accessHistory, Arrays.copyOfRange(args, 1, args.length));
+      }
+      finally {
+        if (pool != null) {
+          pool.shutdown();
+        }
+      }
+      return;
+    }
+    if (batch) {
+      List<File> files = new ArrayList<File>();
+      for (String arg : args) {
+        File f = new File(arg);
+        if (!f.exists()) {
+          System.out.println("File not exists at: " + arg);
+          return;
+        }
+        File[] children = f.isDirectory() ? f.listFiles() : new File[] {f};
+        Arrays.sort(children);
+        for (File child : children) {
+          if (child.isFile() && !child.isHidden() && !child.getName().endsWith(ModelSnapshot.SUFFIX)) {
+            files.add(child);
+          }
+        }
+      }
+      new BatchAuditor(this, files).audit(threads, System.out);
+      printStats(System.out);
       return;
     }
 
-    System.out.println("Processing the records...");
-    BufferedReader reader = new BufferedReader(new FileReader(accessConfigFile));
+    File accessConfigFile = new File(args[diff ? 1 : 0]);
+    for (int i = 0; i < (diff ? 2 : 1); i++ ) {
+      File f = new File(args[i]);
+      if (!f.exists() || f.isDirectory()) {
+        System.out.println("File not exists at: " + args[i]);
+        return;
+      }
+    }
+
+    PrintStream log = (query || diff || similar) ? System.err : System.out;
+    ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+    try {
+      if (diff) {
+        diff(new File(args[0]), accessConfigFile, pool, log);
+        printStats(log);
+        return;
+      }
+      load(accessConfigFile, pool, log);
+      if (similar) {
+        similar();
+        printStats(log);
+        return;
+      }
+      if (query) {
+        final AccessIndex index = new AccessIndex(matrix);
+        query(new ILookup() {
+          @Override
+          public String answer(String[] argWords) {
+            return SvnAccessAuditor.this.answer(index, argWords);
+          }
+        }, Arrays.copyOfRange(args, 1, args.length));
+        printStats(log);
+        return;
+      }
+      if (serve) {
+        new ReportServer(this).start(port);
+        printStats(log);
+        System.out.println("Serving the report at http://localhost:" + port + "/");
+        return;
+      }
+      // Nothing changes the model after the report unless it is kept up to date with the file.
+      if (!watch) {
+        freeze();
+      }
+      else if (format.equals("html") || format.equals("sharded")) {
+        // Updates of the report regroup the partitions of this one and reuse its rows, see ConfigWatcher.
+        repoGrouping = new IncrementalGrouping<Repo>();
+        userGrouping = new IncrementalGrouping<User>();
+      }
+      report(pool);
+      printStats(log);
+
+      if (watch) {
+        new ConfigWatcher(this, accessConfigFile, pool).watch();
+      }
+    }
+    finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Loads users, groups, repos, and the access matrix from the snapshot, or parses the access configuration
+   * file into them and writes the snapshot.
+   * @param argFile the access configuration file
+   * @param argPool pool that builds the access matrix in parallel, or null
+   * @param argLog where progress goes
+   * @throws IOException if it fails to read the file
+   */
+  protected void load(File argFile, ForkJoinPool argPool, PrintStream argLog)
+      throws IOException {
+    ModelSnapshot modelSnapshot = snapshot ? new ModelSnapshot(argFile) : null;
+    if (modelSnapshot != null) {
+      RunStats.Span span = RunStats.begin("snapshot.load");
+      try {
+        if (modelSnapshot.load(this)) {
+          argLog.println("Loaded the records from " + modelSnapshot.snapshotFile.getName());
+          return;
+        }
+      }
+      finally {
+        span.end();
+      }
+    }
+
+    argLog.println("Processing the records...");
+    parse(argFile, argPool);
+
+    // Build the access matrix once, every access query is answered from it. Grouping on disk is for users too
+    // many to keep repos of each one, so they are then found when they are asked for.
+    matrix = new AccessMatrix(users, groups, repos, argPool, viewCache, groupingMemory == 0);
+    if (modelSnapshot != null) {
+      RunStats.Span span = RunStats.begin("snapshot.save");
+      try {
+        modelSnapshot.save(this);
+      }
+      finally {
+        span.end();
+      }
+    }
+  }
+
+  /**
+   * Freezes the parsed model and the access matrix into compact arrays, see {@link FrozenModel}. The model can
+   * no longer be updated afterwards.
+   */
+  protected void freeze() {
+    RunStats.Span span = RunStats.begin("freeze");
+    matrix = new FrozenModel(matrix);
+    span.end();
+  }
+
+  /**
+   * Compares the access of an older version of the access configuration file with the current one, and writes
+   * the granted and revoked permissions. Both versions share the names, so that the same user is the same
+   * string in both of them. Both versions are parsed before their matrices are built, and each one is given the
+   * users that only the other one knows of, so that both matrices have the same users in the same order, see
+   * {@link PermissionDiff}. Snapshots are not used, since they have the users of a single version.
+   * @param argOlderFile the older access configuration file
+   * @param argNewerFile the current access configuration file
+   * @param argPool pool that builds the access matrix in parallel, or null
+   * @param argLog where progress goes
+   * @throws Exception if it fails to read the file or to write the report
+   */
+  protected void diff(File argOlderFile, File argNewerFile, ForkJoinPool argPool, PrintStream argLog)
+      throws Exception {
+    SvnAccessAuditor older = new SvnAccessAuditor();
+    older.names = names;
+    older.mapped = mapped;
+    argLog.println("Processing the records...");
+    older.parse(argOlderFile, argPool);
+    parse(argNewerFile, argPool);
+    Collection<User> olderUsers = new ArrayList<User>(older.users.values());
+    Collection<User> newerUsers = new ArrayList<User>(users.values());
+    older.addUsers(newerUsers);
+    addUsers(olderUsers);
+
+    // Users of each repo are all the matrices of a diff need.
+    older.matrix = new AccessMatrix(older.users, older.groups, older.repos, argPool, viewCache, false);
+    matrix = new AccessMatrix(users, groups, repos, argPool, viewCache, false);
+
+    RunStats.Span span = RunStats.begin("diff");
+    PermissionDiff permissionDiff = new PermissionDiff(older.matrix, matrix, older.matrix.toUserIds(olderUsers),
+        matrix.toUserIds(newerUsers));
+    span.end();
+    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+    for (PermissionDiff.Change change : permissionDiff.getChanges()) {
+      out.println(change);
+    }
+    out.flush();
+    new DiffReportGenerator(permissionDiff, argOlderFile.getName(), argNewerFile.getName()).generateReport();
+  }
+
+  /**
+   * Writes pairs of groups with nearly the same users, see {@link GroupSimilarity}. EVERYONE is left out, since
+   * it is not a group of the access configuration file.
+   * @throws IOException if it fails to write the pairs
+   */
+  protected void similar()
+      throws IOException {
+    List<Group> compared = new ArrayList<Group>(groups.values());
+    compared.remove(EVERYONE);
+    GroupSimilarity groupSimilarity = new GroupSimilarity(matrix, compared, similarity);
+    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+    for (GroupSimilarity.Pair pair : groupSimilarity.getPairs()) {
+      out.println(pair);
+    }
+    out.flush();
+  }
+
+  /**
+   * Prints statistics of the run if they are enabled, and records their counters for a flight recording.
+   * @param argLog where they go
+   */
+  protected void printStats(PrintStream argLog) {
+    RunStats.commitCounters();
+    RunStats.print(argLog);
+  }
+
+  /**
+   * Answers the lookup of the arguments, or every lookup of the standard input, one line each. An unknown name
+   * is answered with an error line, so that answers stay in line with lookups.
+   * @param argLookup answers the lookups
+   * @param args the lookup, or nothing to read lookups from the standard input
+   * @throws IOException if it fails to read the standard input
+   */
+  protected void query(ILookup argLookup, String[] args)
+      throws IOException {
+    if (args.length > 0) {
+      try {
+        System.out.println(argLookup.answer(args));
+      }
+      catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+      }
+      return;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
     String line;
+    while ((line = in.readLine()) != null) {
+      String[] words = line.trim().split("\\s+");
+      if (words[0].isEmpty()) {
+        continue;
+      }
+      try {
+        out.println(argLookup.answer(words));
+      }
+      catch (IllegalArgumentException e) {
+        out.println("error: " + e.getMessage());
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Answers a single lookup.
+   * @param argIndex the access index
+   * @param argWords the lookup and its names
+   * @return comma separated ids, true or false, or an explanation
+   */
+  protected String answer(AccessIndex argIndex, String[] argWords) {
+    String lookup = argWords[0];
+    int arity = lookup.equals("explain") ? 3 : (lookup.equals("can-read") || lookup.equals("can-write")) ? 2 : 1;
+    if (argWords.length != arity + 1) {
+      throw new IllegalArgumentException("Expected " + arity + " names for lookup: " + lookup);
+    }
+    List<String> result;
+    if (lookup.equals("readers")) {
+      result = argIndex.getReaders(argWords[1]);
+    }
+    else if (lookup.equals("writers")) {
+      result = argIndex.getWriters(argWords[1]);
+    }
+    else if (lookup.equals("readable")) {
+      result = argIndex.getReadable(argWords[1]);
+    }
+    else if (lookup.equals("writable")) {
+      result = argIndex.getWritable(argWords[1]);
+    }
+    else if (lookup.equals("groups")) {
+      result = argIndex.getGroups(argWords[1]);
+    }
+    else if (lookup.equals("members")) {
+      result = argIndex.getMembers(argWords[1]);
+    }
+    else if (lookup.equals("can-read")) {
+      return String.valueOf(argIndex.canRead(argWords[1], argWords[2]));
+    }
+    else if (lookup.equals("can-write")) {
+      return String.valueOf(argIndex.canWrite(argWords[1], argWords[2]));
+    }
+    else if (lookup.equals("explain")) {
+      return argIndex.explain(argWords[1], argWords[2], argWords[3]).toString();
+    }
+    else {
+      throw new IllegalArgumentException("Unknown lookup: " + lookup);
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String id : result) {
+      if (sb.length() > 0) {
+        sb.append(", ");
+      }
+      sb.append(id);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Generates the report from the current access matrix.
+   * @param argPool pool that builds the report in parallel, or null
+   * @throws Exception if it fails to generate the report
+   */
+  protected void report(ForkJoinPool argPool)
+      throws Exception {
+    if (format.equals("sharded")) {
+      reportGenerator = new ShardedHtmlReportGenerator(users, groups, repos, matrix, argPool, groupingMemory);
+    }
+    else if (format.equals("json")) {
+      reportGenerator = new JsonReportGenerator(users, groups, repos, matrix);
+    }
+    else if (format.equals("csv")) {
+      reportGenerator = new CsvReportGenerator(users, groups, repos, matrix);
+    }
+    else {
+      reportGenerator = new HtmlReportGenerator(users, groups, repos, matrix, argPool, groupingMemory);
+    }
+    if (explain && reportGenerator instanceof HtmlReportGenerator) {
+      RunStats.Span span = RunStats.begin("explain");
+      ((HtmlReportGenerator) reportGenerator).explainer = new AccessExplainer(matrix);
+      span.end();
+    }
+    if (repoGrouping != null && reportGenerator instanceof HtmlReportGenerator) {
+      ((HtmlReportGenerator) reportGenerator).repoGrouping = repoGrouping;
+      ((HtmlReportGenerator) reportGenerator).userGrouping = userGrouping;
+    }
+    reportGenerator.generateReport();
+  }
+
+  /**
+   * Parses the access configuration file into users, groups, and repos, see {@link ConfigParser}.
+   * @param argFile the access configuration file
+   * @param argPool pool that parses chunks of the file in parallel, or null
+   * @throws IOException if it fails to read the file
+   */
+  protected void parse(File argFile, ForkJoinPool argPool)
+      throws IOException {
 
-    // Let the states handle the records.
-    currentState = new InitialState(this);
-    while ((line = reader.readLine()) != null) {
-      currentState.process(line);
+    RunStats.Span span = RunStats.begin("parse");
+    try {
+      new ConfigParser(this, argPool).parse(argFile);
+      addEveryone();
+    }
+    finally {
+      span.end();
+    }
+  }
+
+  /**
+   * Forgets every parsed user, group, and repo, so that the access configuration file could be parsed again.
+   */
+  protected void reset() {
+    users = new TreeMap<String, User>();
+    groups = new TreeMap<String, Group>();
+    repos = new TreeMap<String, Repo>();
+    EVERYONE.users = new TreeSet<User>();
+    EVERYONE.resetAllUsers();
+    matrix = null;
+  }
+
+  /**
+   * Adds users of another version that this one does not know of. They are in no group, not even EVERYONE, and
+   * no rule names them.
+   * @param argUsers users of the other version
+   */
+  protected void addUsers(Collection<User> argUsers) {
+    for (User u : argUsers) {
+      if (!users.containsKey(u.id)) {
+        users.put(u.id, new User(u.id));
+      }
     }
-    reader.close();
+  }
 
-    // Add all users to EVERYONE group.
+  /**
+   * Adds all users to EVERYONE group.
+   */
+  protected void addEveryone() {
+    EVERYONE.users = new TreeSet<User>();
     for (User u : users.values()) {
       EVERYONE.addUser(u);
     }
     groups.put("EVERYONE", EVERYONE);
+  }
 
-    reportGenerator = new HtmlReportGenerator(users, groups, repos);
-    reportGenerator.generateReport();
+  /**
+   * Reads every line of a range of the access configuration file and lets the state handle it. Each line is
+   * scanned once and handed over to the state.
+   * @param argFile the access configuration file
+   * @param argFrom first byte of the range, the start of a line
+   * @param argTo last byte of the range, exclusive, the start of a line or the end of the file
+   * @param argNames table that names of the lines are interned in
+   * @param argState the state
+   * @throws IOException if it fails to read the file
+   */
+  protected void ingest(File argFile, long argFrom, long argTo, NameTable argNames, IState argState)
+      throws IOException {
+    if (mapped) {
+      new MappedConfigReader(argNames).read(argFile, argFrom, argTo, argState);
+    }
+    else {
+      FileInputStream in = new FileInputStream(argFile);
+      try {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ConfigParser.Range(in.getChannel(),
+            argFrom, argTo), "UTF-8"));
+        AuthzLine scanned = new AuthzLine(argNames);
+        String line = reader.readLine();
+        if (argFrom == 0 && line != null && !line.isEmpty() && line.charAt(0) == ConfigParser.BYTE_ORDER_MARK) {
+          line = line.substring(1);
+        }
+        while (line != null) {
+          argState.process(scanned.scan(line));
+          line = reader.readLine();
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Reads options from the beginning of the arguments.
+   * @param args options followed by other arguments
+   * @return arguments without the options
+   */
+  protected String[] parseOptions(String[] args) {
+    if (args == null) {
+      return null;
+    }
+    int i = 0;
+    while (i < args.length && args[i].startsWith("--")) {
+      if (args[i].equals("--threads") && i + 1 < args.length) {
+        threads = Integer.parseInt(args[i + 1]);
+        i += 2;
+      }
+      else if (args[i].equals("--ingest") && i + 1 < args.length) {
+        if (!args[i + 1].equals("mmap") && !args[i + 1].equals("reader")) {
+          throw new IllegalArgumentException("Unknown ingestion mode: " + args[i + 1]);
+        }
+        mapped = args[i + 1].equals("mmap");
+        i += 2;
+      }
+      else if (args[i].equals("--snapshot") && i + 1 < args.length) {
+        if (!args[i + 1].equals("on") && !args[i + 1].equals("off")) {
+          throw new IllegalArgumentException("Unknown snapshot mode: " + args[i + 1]);
+        }
+        snapshot = args[i + 1].equals("on");
+        i += 2;
+      }
+      else if (args[i].equals("--format") && i + 1 < args.length) {
+        if (!Arrays.asList("html", "sharded", "json", "csv").contains(args[i + 1])) {
+          throw new IllegalArgumentException("Unknown report format: " + args[i + 1]);
+        }
+        format = args[i + 1];
+        i += 2;
+      }
+      else if (args[i].equals("--port") && i + 1 < args.length) {
+        port = Integer.parseInt(args[i + 1]);
+        i += 2;
+      }
+      else if (args[i].equals("--similarity") && i + 1 < args.length) {
+        similarity = Double.parseDouble(args[i + 1]);
+        if (!(similarity > 0 && similarity <= 1)) {
+          throw new IllegalArgumentException("Similarity must be greater than 0 and at most 1: " + args[i + 1]);
+        }
+        i += 2;
+      }
+      else if (args[i].equals("--view-cache") && i + 1 < args.length) {
+        viewCache = Long.parseLong(args[i + 1]) << 20;
+        i += 2;
+      }
+      else if (args[i].equals("--grouping-memory") && i + 1 < args.length) {
+        groupingMemory = Long.parseLong(args[i + 1]) << 20;
+        i += 2;
+      }
+      else if (args[i].equals("--watch")) {
+        watch = true;
+        i++ ;
+      }
+      else if (args[i].equals("--explain")) {
+        explain = true;
+        i++ ;
+      }
+      else if (args[i].equals("--stats")) {
+        stats = true;
+        i++ ;
+      }
+      else {
+        throw new IllegalArgumentException("Unknown option: " + args[i]);
+      }
+    }
+    String[] result = new String[args.length - i];
+    System.arraycopy(args, i, result, 0, result.length);
+    return result;
   }
 
 }
@@ -1,5 +1,6 @@
 package svn;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.TreeSet;
 
@@ -12,6 +13,10 @@ public class User
 
   protected String id;
 
+  // Dense id and the access matrix this user is attached to, see AccessMatrix.
+  protected int index = -1;
+  protected AccessMatrix matrix;
+
   public User(String argId) {
     this.id = argId;
   }
@@ -35,10 +40,8 @@ public class User
    * @return readable and writable repos
    */
   public TreeSet<Repo> getReadableAndWritableRepos(Collection<Repo> argRepos) {
-    TreeSet<Repo> repos = new TreeSet<Repo>();
-    repos.addAll(getReadableRepos(argRepos));
-    repos.addAll(getWritableRepos(argRepos));
-    return repos;
+    AccessMatrix m = getMatrix();
+    return m.toRepos(filter(m.getReadableAndWritable(this), argRepos));
   }
 
   /**
@@ -47,13 +50,8 @@ public class User
    * @return readable repos
    */
   public TreeSet<Repo> getReadableRepos(Collection<Repo> argRepos) {
-    TreeSet<Repo> repos = new TreeSet<Repo>();
-    for (Repo r : argRepos) {
-      if (r.getReadersAsUsersSet().contains(this)) {
-        repos.add(r);
-      }
-    }
-    return repos;
+    AccessMatrix m = getMatrix();
+    return m.toRepos(filter(m.getReadable(this), argRepos));
   }
 
   /**
@@ -62,13 +60,35 @@ public class User
    * @return writable repos
    */
   public TreeSet<Repo> getWritableRepos(Collection<Repo> argRepos) {
-    TreeSet<Repo> repos = new TreeSet<Repo>();
-    for (Repo r : argRepos) {
-      if (r.getWritersAsUsersSet().contains(this)) {
-        repos.add(r);
-      }
+    AccessMatrix m = getMatrix();
+    return m.toRepos(filter(m.getWritable(this), argRepos));
+  }
+
+  /**
+   * Narrows down repo ids to the given list of repos. All repos of the matrix are the common case, and then
+   * there is nothing to narrow down.
+   * @param argIds repo ids
+   * @param argRepos list of repos
+   * @return repo ids that are in the list
+   */
+  private BitSet filter(BitSet argIds, Collection<Repo> argRepos) {
+    if (argRepos.size() == matrix.getRepoCount()) {
+      return argIds;
+    }
+    BitSet result = matrix.toRepoIds(argRepos);
+    result.and(argIds);
+    return result;
+  }
+
+  /**
+   * Returns the access matrix this user is attached to.
+   * @return the access matrix
+   */
+  protected AccessMatrix getMatrix() {
+    if (matrix == null) {
+      throw new IllegalStateException("Access matrix has not been built for: " + this);
     }
-    return repos;
+    return matrix;
   }
 
   @Override
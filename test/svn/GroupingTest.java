@@ -0,0 +1,145 @@
+package svn;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+/**
+ * Tests grouping of repositories by their users and of users by their repositories. Every repository and every
+ * user must land in exactly one group, including the last one, which has a group of its own when its access is
+ * unlike any other.
+ * @author bsanchin
+ */
+public class GroupingTest {
+
+  // A repo and a user that sort last and have access of their own.
+  private static final String[] CONFIG = {
+      "[groups]",
+      "devs = alice, bob",
+      "ops = carol, @devs",
+      "[alpha:/]",
+      "@devs = rw",
+      "[beta:/]",
+      "@devs = rw",
+      "[gamma:/]",
+      "@ops = r",
+      "[zeta:/]",
+      "zed = rw"};
+
+  @Test
+  public void everyRepoAndUserIsInExactlyOneGroup()
+      throws Exception {
+    SvnAccessAuditor proc = load(CONFIG);
+    for (long memory : new long[] {0, 1, 1 << 20}) {
+      HtmlReportGenerator generator = group(proc, memory);
+      assertExactlyOnce(proc.repos.values(), generator.reposGroupedByUsers);
+      assertExactlyOnce(proc.users.values(), generator.usersGroupedByRepos);
+    }
+  }
+
+  @Test
+  public void lastEntityHasAGroupOfItsOwn()
+      throws Exception {
+    SvnAccessAuditor proc = load(CONFIG);
+    for (long memory : new long[] {0, 1, 1 << 20}) {
+      HtmlReportGenerator generator = group(proc, memory);
+      assertEquals(Collections.singleton(proc.repos.lastEntry().getValue()), last(generator.reposGroupedByUsers));
+      assertEquals(Collections.singleton(proc.users.lastEntry().getValue()), last(generator.usersGroupedByRepos));
+    }
+  }
+
+  @Test
+  public void sameAccessSharesAGroupInTheOrderOfTheFirstEntities()
+      throws Exception {
+    SvnAccessAuditor proc = load(CONFIG);
+    for (long memory : new long[] {0, 1, 1 << 20}) {
+      HtmlReportGenerator generator = group(proc, memory);
+      assertEquals(Arrays.asList("[alpha:/] [beta:/]", "[gamma:/]", "[zeta:/]"),
+          ids(generator.reposGroupedByUsers));
+      assertEquals(Arrays.asList("alice bob", "carol", "zed"), ids(generator.usersGroupedByRepos));
+    }
+  }
+
+  @Test
+  public void singleRepoAndUser()
+      throws Exception {
+    SvnAccessAuditor proc = load("[groups]", "solo = zed", "[only:/]", "@solo = r");
+    for (long memory : new long[] {0, 1}) {
+      HtmlReportGenerator generator = group(proc, memory);
+      assertExactlyOnce(proc.repos.values(), generator.reposGroupedByUsers);
+      assertExactlyOnce(proc.users.values(), generator.usersGroupedByRepos);
+    }
+  }
+
+  /**
+   * Parses the lines as an access configuration file.
+   * @param argLines lines of the file
+   * @return the processor with the parsed model and its access matrix
+   * @throws IOException if it fails to write or read the file
+   */
+  private static SvnAccessAuditor load(String... argLines)
+      throws IOException {
+    File file = File.createTempFile("grouping", ".conf");
+    file.deleteOnExit();
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for (String line : argLines) {
+        out.println(line);
+      }
+    }
+    finally {
+      out.close();
+    }
+    SvnAccessAuditor result = new SvnAccessAuditor();
+    result.snapshot = false;
+    result.load(file, null, new PrintStream(new ByteArrayOutputStream()));
+    return result;
+  }
+
+  /**
+   * Groups repositories and users of the processor.
+   * @param argProc the processor
+   * @param argMemory bytes of grouping memory, 0 to group in memory
+   * @return the generator with its groups
+   * @throws Exception if grouping fails
+   */
+  private static HtmlReportGenerator group(SvnAccessAuditor argProc, long argMemory)
+      throws Exception {
+    HtmlReportGenerator result =
+        new HtmlReportGenerator(argProc.users, argProc.groups, argProc.repos, argProc.matrix, null, argMemory);
+    result.group();
+    return result;
+  }
+
+  private static <T> void assertExactlyOnce(Collection<T> argEntities, Map<Integer, SortedSet<T>> argGroups) {
+    List<T> grouped = new ArrayList<T>();
+    for (int i = 0; i < argGroups.size(); i++ ) {
+      SortedSet<T> group = argGroups.get(i);
+      assertNotNull("Group " + i + " is missing", group);
+      assertFalse("Group " + i + " is empty", group.isEmpty());
+      grouped.addAll(group);
+    }
+    assertEquals(argEntities.size(), grouped.size());
+    assertEquals(new HashSet<T>(argEntities), new HashSet<T>(grouped));
+  }
+
+  private static <T> SortedSet<T> last(Map<Integer, SortedSet<T>> argGroups) {
+    return argGroups.get(argGroups.size() - 1);
+  }
+
+  private static <T> List<String> ids(Map<Integer, SortedSet<T>> argGroups) {
+    List<String> result = new ArrayList<String>();
+    for (int i = 0; i < argGroups.size(); i++ ) {
+      StringBuilder ids = new StringBuilder();
+      for (T entity : argGroups.get(i)) {
+        ids.append((ids.length() == 0) ? "" : " ").append(entity);
+      }
+      result.add(ids.toString());
+    }
+    return result;
+  }
+
+}